@@ -24,21 +24,47 @@ import uk.gov.service.payments.commons.utils.metrics.DatabaseMetricsService;
 import uk.gov.service.payments.logging.GovUkPayDropwizardRequestJsonLogLayoutFactory;
 import uk.gov.service.payments.logging.LoggingFilter;
 import uk.gov.service.payments.logging.LogstashConsoleAppenderFactory;
+import uk.gov.pay.publicauth.app.config.AuthCacheConfiguration;
+import uk.gov.pay.publicauth.app.config.AuthFailureLoggingConfiguration;
+import uk.gov.pay.publicauth.app.config.HealthCheckSchedulerConfiguration;
+import uk.gov.pay.publicauth.app.config.LastUsedRecorderConfiguration;
 import uk.gov.pay.publicauth.app.config.PublicAuthConfiguration;
+import uk.gov.pay.publicauth.app.config.RateLimitConfiguration;
+import uk.gov.pay.publicauth.app.config.RevokedTokenArchiveConfiguration;
+import uk.gov.pay.publicauth.app.config.StaleIfErrorConfiguration;
+import uk.gov.pay.publicauth.app.config.TokenIndexConfiguration;
+import uk.gov.pay.publicauth.auth.StacklessUnauthorizedHandler;
 import uk.gov.pay.publicauth.auth.Token;
 import uk.gov.pay.publicauth.auth.TokenAuthenticator;
 import uk.gov.pay.publicauth.dao.AuthTokenDao;
+import uk.gov.pay.publicauth.dao.RequestHandleScope;
+import uk.gov.pay.publicauth.exception.DatabaseUnavailableExceptionMapper;
+import uk.gov.pay.publicauth.exception.ServiceBusyExceptionMapper;
 import uk.gov.pay.publicauth.exception.TokenInvalidExceptionMapper;
 import uk.gov.pay.publicauth.exception.TokenNotFoundExceptionMapper;
 import uk.gov.pay.publicauth.exception.TokenRevokedExceptionMapper;
 import uk.gov.pay.publicauth.exception.ValidationExceptionMapper;
 import uk.gov.pay.publicauth.filters.LoggingMDCRequestFilter;
 import uk.gov.pay.publicauth.filters.LoggingMDCResponseFilter;
+import uk.gov.pay.publicauth.filters.RateLimitFilter;
+import uk.gov.pay.publicauth.filters.RequestHandleScopeFilter;
 import uk.gov.pay.publicauth.resources.HealthCheckResource;
 import uk.gov.pay.publicauth.resources.PublicAuthResource;
+import uk.gov.pay.publicauth.service.AuthCache;
+import uk.gov.pay.publicauth.service.AuthFailureLogger;
+import uk.gov.pay.publicauth.service.CryptoExecutor;
+import uk.gov.pay.publicauth.service.DatabaseCircuitBreaker;
+import uk.gov.pay.publicauth.service.HealthCheckScheduler;
+import uk.gov.pay.publicauth.service.LastUsedRecorder;
+import uk.gov.pay.publicauth.service.RejectedTokenCache;
+import uk.gov.pay.publicauth.service.RevokedTokenArchiver;
+import uk.gov.pay.publicauth.service.StaleIfError;
+import uk.gov.pay.publicauth.service.TokenIndex;
 import uk.gov.pay.publicauth.service.TokenService;
 import uk.gov.pay.publicauth.util.DependentResourceWaitCommand;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.EnumSet.of;
@@ -82,28 +108,51 @@ public class PublicAuthApp extends Application<PublicAuthConfiguration> {
 
         jdbi = new JdbiFactory().build(environment, dataSourceFactory, "postgresql");
         initialiseMetrics(conf, environment);
-        AuthTokenDao authTokenDao = new AuthTokenDao(jdbi);
-        TokenService tokenService = new TokenService(conf.getTokensConfiguration(), authTokenDao);
+        RequestHandleScope requestHandleScope = new RequestHandleScope(jdbi);
+        AuthTokenDao authTokenDao = new AuthTokenDao(requestHandleScope);
+        RejectedTokenCache rejectedTokenCache = new RejectedTokenCache(conf.getRejectedTokenCacheConfiguration(), environment.metrics());
+        AuthFailureLogger authFailureLogger = initialiseAuthFailureLogging(conf.getAuthFailureLoggingConfiguration(), environment);
+        ExecutorService snapshotWriter = environment.lifecycle().executorService("tokenindexsnapshot").minThreads(1).maxThreads(1).build();
+        TokenIndex tokenIndex = new TokenIndex(conf.getTokenIndexConfiguration(), authTokenDao, rejectedTokenCache, snapshotWriter,
+                environment.metrics());
+        LastUsedRecorder lastUsedRecorder = new LastUsedRecorder(authTokenDao);
+        initialiseTokenIndex(conf.getTokenIndexConfiguration(), tokenIndex, environment);
+        AuthCache authCache = initialiseAuthCache(conf.getAuthCacheConfiguration(), conf.getStaleIfErrorConfiguration(), authTokenDao,
+                rejectedTokenCache, environment);
+        initialiseLastUsedRecorder(conf.getLastUsedRecorderConfiguration(), lastUsedRecorder, environment);
+        initialiseRevokedTokenArchiver(conf, authTokenDao, environment);
+        StaleIfError staleIfError = new StaleIfError(conf.getStaleIfErrorConfiguration(),
+                new DatabaseCircuitBreaker(conf.getStaleIfErrorConfiguration(), environment.metrics()), tokenIndex, authCache, environment.metrics());
+        CryptoExecutor cryptoExecutor = new CryptoExecutor(conf.getCryptoExecutorConfiguration(), environment.metrics());
+        environment.lifecycle().manage(cryptoExecutor);
+        TokenService tokenService = new TokenService(conf.getTokensConfiguration(), authTokenDao, rejectedTokenCache, authFailureLogger,
+                tokenIndex, lastUsedRecorder, authCache, staleIfError, cryptoExecutor);
 
+        initialiseRateLimiting(conf.getRateLimitConfiguration(), environment);
         environment.jersey().register(new AuthDynamicFeature(
                 new OAuthCredentialAuthFilter.Builder<Token>()
                         .setAuthenticator(new TokenAuthenticator(tokenService))
                         .setPrefix("Bearer")
+                        .setUnauthorizedHandler(new StacklessUnauthorizedHandler())
                         .buildAuthFilter()));
         environment.jersey().register(new AuthValueFactoryProvider.Binder<>(Token.class));
         environment.jersey().register(new PublicAuthResource(tokenService));
-        environment.jersey().register(new HealthCheckResource(environment));
+        environment.healthChecks().register("database", new DatabaseHealthCheck(conf.getDataSourceFactory()));
+        environment.jersey().register(new HealthCheckResource(initialiseHealthCheckScheduler(conf.getHealthCheckSchedulerConfiguration(), environment)));
         environment.jersey().register(new ValidationExceptionMapper());
         environment.jersey().register(new TokenNotFoundExceptionMapper());
         environment.jersey().register(new TokenInvalidExceptionMapper());
         environment.jersey().register(new TokenRevokedExceptionMapper());
-        environment.healthChecks().register("database", new DatabaseHealthCheck(conf.getDataSourceFactory()));
+        environment.jersey().register(new DatabaseUnavailableExceptionMapper());
+        environment.jersey().register(new ServiceBusyExceptionMapper());
 
         environment.jersey().register(new LoggingMDCRequestFilter());
         environment.jersey().register(new LoggingMDCResponseFilter());
         
         environment.servlets().addFilter("LoggingFilter", new LoggingFilter())
                 .addMappingForUrlPatterns(of(REQUEST), true, "/v1" + "/*");
+        environment.servlets().addFilter("RequestHandleScopeFilter", new RequestHandleScopeFilter(requestHandleScope))
+                .addMappingForUrlPatterns(of(REQUEST), true, "/v1/frontend" + "/*");
     }
 
     private void initialiseMetrics(PublicAuthConfiguration configuration, Environment environment) {
@@ -121,6 +170,116 @@ public class PublicAuthApp extends Application<PublicAuthConfiguration> {
         environment.admin().addServlet("prometheusMetrics", new MetricsServlet(collectorRegistry)).addMapping("/metrics");
     }
 
+    private void initialiseTokenIndex(TokenIndexConfiguration tokenIndexConfiguration, TokenIndex tokenIndex,
+                                      Environment environment) {
+        if (!tokenIndexConfiguration.isEnabled()) {
+            return;
+        }
+
+        long syncIntervalMillis = tokenIndexConfiguration.getSyncInterval().toMilliseconds();
+        environment
+                .lifecycle()
+                .scheduledExecutorService("tokenindexsync")
+                .threads(1)
+                .build()
+                .scheduleWithFixedDelay(tokenIndex::sync, 0, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void initialiseLastUsedRecorder(LastUsedRecorderConfiguration lastUsedRecorderConfiguration, LastUsedRecorder lastUsedRecorder,
+                                            Environment environment) {
+        // Tokens authenticated from the token index or the auth cache have their last used time recorded in batches
+        long flushIntervalMillis = lastUsedRecorderConfiguration.getFlushInterval().toMilliseconds();
+        environment
+                .lifecycle()
+                .scheduledExecutorService("lastusedflush")
+                .threads(1)
+                .build()
+                .scheduleWithFixedDelay(lastUsedRecorder::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        environment.lifecycle().manage(lastUsedRecorder);
+    }
+
+    private void initialiseRevokedTokenArchiver(PublicAuthConfiguration conf, AuthTokenDao authTokenDao, Environment environment) {
+        RevokedTokenArchiveConfiguration revokedTokenArchiveConfiguration = conf.getRevokedTokenArchiveConfiguration();
+        if (!revokedTokenArchiveConfiguration.isEnabled()) {
+            return;
+        }
+
+        // Once archived, a token no longer shows up as changed to the token index, so a snapshot, or a stale
+        // result, from before it was revoked must be too old to be used by the time it is archived
+        long archiveAfterMillis = revokedTokenArchiveConfiguration.getArchiveAfter().toMilliseconds();
+        if (archiveAfterMillis <= conf.getTokenIndexConfiguration().getSnapshotMaxAge().toMilliseconds()
+                || archiveAfterMillis <= conf.getStaleIfErrorConfiguration().getMaxStaleness().toMilliseconds()) {
+            throw new IllegalArgumentException("revokedTokenArchive.archiveAfter must be longer than tokenIndex.snapshotMaxAge and staleIfError.maxStaleness");
+        }
+
+        RevokedTokenArchiver revokedTokenArchiver = new RevokedTokenArchiver(revokedTokenArchiveConfiguration, authTokenDao, environment.metrics());
+        long intervalMillis = revokedTokenArchiveConfiguration.getInterval().toMilliseconds();
+        environment
+                .lifecycle()
+                .scheduledExecutorService("revokedtokenarchiver")
+                .threads(1)
+                .build()
+                .scheduleWithFixedDelay(revokedTokenArchiver::archive, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private AuthCache initialiseAuthCache(AuthCacheConfiguration authCacheConfiguration, StaleIfErrorConfiguration staleIfErrorConfiguration,
+                                          AuthTokenDao authTokenDao, RejectedTokenCache rejectedTokenCache, Environment environment) {
+        ExecutorService refreshExecutor = environment
+                .lifecycle()
+                .executorService("authcacherefresh")
+                .minThreads(authCacheConfiguration.getRefreshThreads())
+                .maxThreads(authCacheConfiguration.getRefreshThreads())
+                .workQueue(new ArrayBlockingQueue<>(authCacheConfiguration.getRefreshQueueSize()))
+                .build();
+        return new AuthCache(authCacheConfiguration, staleIfErrorConfiguration, authTokenDao, rejectedTokenCache, refreshExecutor,
+                environment.metrics());
+    }
+
+    private HealthCheckScheduler initialiseHealthCheckScheduler(HealthCheckSchedulerConfiguration healthCheckSchedulerConfiguration, Environment environment) {
+        HealthCheckScheduler healthCheckScheduler = new HealthCheckScheduler(environment.healthChecks(), healthCheckSchedulerConfiguration);
+
+        long intervalMillis = healthCheckSchedulerConfiguration.getInterval().toMilliseconds();
+        environment
+                .lifecycle()
+                .scheduledExecutorService("healthcheckscheduler")
+                .threads(1)
+                .build()
+                .scheduleWithFixedDelay(healthCheckScheduler::runHealthChecks, 0, intervalMillis, TimeUnit.MILLISECONDS);
+
+        return healthCheckScheduler;
+    }
+
+    private AuthFailureLogger initialiseAuthFailureLogging(AuthFailureLoggingConfiguration authFailureLoggingConfiguration, Environment environment) {
+        AuthFailureLogger authFailureLogger = new AuthFailureLogger(authFailureLoggingConfiguration, environment.metrics());
+
+        long summaryIntervalMillis = authFailureLoggingConfiguration.getSummaryInterval().toMilliseconds();
+        environment
+                .lifecycle()
+                .scheduledExecutorService("authfailuresummary")
+                .threads(1)
+                .build()
+                .scheduleAtFixedRate(authFailureLogger::logSummary, summaryIntervalMillis, summaryIntervalMillis, TimeUnit.MILLISECONDS);
+
+        return authFailureLogger;
+    }
+
+    private void initialiseRateLimiting(RateLimitConfiguration rateLimitConfiguration, Environment environment) {
+        if (!rateLimitConfiguration.isEnabled()) {
+            return;
+        }
+
+        RateLimitFilter rateLimitFilter = new RateLimitFilter(rateLimitConfiguration, environment.metrics());
+        environment.jersey().register(rateLimitFilter);
+
+        long evictionIntervalMillis = rateLimitConfiguration.getIdleBucketEvictionInterval().toMilliseconds();
+        environment
+                .lifecycle()
+                .scheduledExecutorService("ratelimitbucketevictor")
+                .threads(1)
+                .build()
+                .scheduleAtFixedRate(rateLimitFilter::evictIdleBuckets, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
     public Jdbi getJdbi() {
         return jdbi;
     }
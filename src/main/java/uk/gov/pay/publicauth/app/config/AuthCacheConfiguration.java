@@ -0,0 +1,67 @@
+package uk.gov.pay.publicauth.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class AuthCacheConfiguration {
+
+    @JsonProperty("enabled")
+    private boolean enabled = false;
+
+    @Min(1)
+    @JsonProperty("maximumSize")
+    private int maximumSize = 10_000;
+
+    @Min(1)
+    @Max(99)
+    @JsonProperty("windowPercent")
+    private int windowPercent = 1;
+
+    @NotNull
+    @JsonProperty("expireAfterWrite")
+    private Duration expireAfterWrite = Duration.seconds(10);
+
+    @NotNull
+    @JsonProperty("refreshAfterWrite")
+    private Duration refreshAfterWrite = Duration.seconds(8);
+
+    @Min(1)
+    @JsonProperty("refreshThreads")
+    private int refreshThreads = 2;
+
+    @Min(1)
+    @JsonProperty("refreshQueueSize")
+    private int refreshQueueSize = 100;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public int getWindowPercent() {
+        return windowPercent;
+    }
+
+    public Duration getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+
+    public Duration getRefreshAfterWrite() {
+        return refreshAfterWrite;
+    }
+
+    public int getRefreshThreads() {
+        return refreshThreads;
+    }
+
+    public int getRefreshQueueSize() {
+        return refreshQueueSize;
+    }
+}
@@ -0,0 +1,26 @@
+package uk.gov.pay.publicauth.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class AuthFailureLoggingConfiguration {
+
+    @Min(0)
+    @JsonProperty("fullLogsPerInterval")
+    private int fullLogsPerInterval = 10;
+
+    @NotNull
+    @JsonProperty("summaryInterval")
+    private Duration summaryInterval = Duration.minutes(1);
+
+    public int getFullLogsPerInterval() {
+        return fullLogsPerInterval;
+    }
+
+    public Duration getSummaryInterval() {
+        return summaryInterval;
+    }
+}
@@ -0,0 +1,34 @@
+package uk.gov.pay.publicauth.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import jakarta.validation.constraints.Min;
+
+public class CryptoExecutorConfiguration {
+
+    @JsonProperty("enabled")
+    private boolean enabled = false;
+
+    @Min(0)
+    @JsonProperty("threads")
+    private int threads = 0;
+
+    @Min(1)
+    @JsonProperty("queueSize")
+    private int queueSize = 200;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the number of threads, where 0 means one per available processor
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+}
@@ -0,0 +1,25 @@
+package uk.gov.pay.publicauth.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import jakarta.validation.constraints.NotNull;
+
+public class HealthCheckSchedulerConfiguration {
+
+    @NotNull
+    @JsonProperty("interval")
+    private Duration interval = Duration.seconds(10);
+
+    @NotNull
+    @JsonProperty("stalenessLimit")
+    private Duration stalenessLimit = Duration.seconds(30);
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public Duration getStalenessLimit() {
+        return stalenessLimit;
+    }
+}
@@ -0,0 +1,17 @@
+package uk.gov.pay.publicauth.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import jakarta.validation.constraints.NotNull;
+
+public class LastUsedRecorderConfiguration {
+
+    @NotNull
+    @JsonProperty("flushInterval")
+    private Duration flushInterval = Duration.seconds(10);
+
+    public Duration getFlushInterval() {
+        return flushInterval;
+    }
+}
@@ -22,6 +22,56 @@ public class PublicAuthConfiguration extends Configuration {
     @JsonProperty("tokensConfig")
     private TokensConfiguration TokensConfiguration;
 
+    @Valid
+    @NotNull
+    @JsonProperty("rateLimit")
+    private RateLimitConfiguration rateLimitConfiguration = new RateLimitConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty("rejectedTokenCache")
+    private RejectedTokenCacheConfiguration rejectedTokenCacheConfiguration = new RejectedTokenCacheConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty("authFailureLogging")
+    private AuthFailureLoggingConfiguration authFailureLoggingConfiguration = new AuthFailureLoggingConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty("healthCheckScheduler")
+    private HealthCheckSchedulerConfiguration healthCheckSchedulerConfiguration = new HealthCheckSchedulerConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty("tokenIndex")
+    private TokenIndexConfiguration tokenIndexConfiguration = new TokenIndexConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty("lastUsedRecorder")
+    private LastUsedRecorderConfiguration lastUsedRecorderConfiguration = new LastUsedRecorderConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty("authCache")
+    private AuthCacheConfiguration authCacheConfiguration = new AuthCacheConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty("staleIfError")
+    private StaleIfErrorConfiguration staleIfErrorConfiguration = new StaleIfErrorConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty("cryptoExecutor")
+    private CryptoExecutorConfiguration cryptoExecutorConfiguration = new CryptoExecutorConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty("revokedTokenArchive")
+    private RevokedTokenArchiveConfiguration revokedTokenArchiveConfiguration = new RevokedTokenArchiveConfiguration();
+
     @JsonProperty("ecsContainerMetadataUriV4")
     private URI ecsContainerMetadataUriV4;
 
@@ -33,6 +83,46 @@ public class PublicAuthConfiguration extends Configuration {
         return TokensConfiguration;
     }
 
+    public RateLimitConfiguration getRateLimitConfiguration() {
+        return rateLimitConfiguration;
+    }
+
+    public RejectedTokenCacheConfiguration getRejectedTokenCacheConfiguration() {
+        return rejectedTokenCacheConfiguration;
+    }
+
+    public AuthFailureLoggingConfiguration getAuthFailureLoggingConfiguration() {
+        return authFailureLoggingConfiguration;
+    }
+
+    public HealthCheckSchedulerConfiguration getHealthCheckSchedulerConfiguration() {
+        return healthCheckSchedulerConfiguration;
+    }
+
+    public TokenIndexConfiguration getTokenIndexConfiguration() {
+        return tokenIndexConfiguration;
+    }
+
+    public LastUsedRecorderConfiguration getLastUsedRecorderConfiguration() {
+        return lastUsedRecorderConfiguration;
+    }
+
+    public AuthCacheConfiguration getAuthCacheConfiguration() {
+        return authCacheConfiguration;
+    }
+
+    public StaleIfErrorConfiguration getStaleIfErrorConfiguration() {
+        return staleIfErrorConfiguration;
+    }
+
+    public CryptoExecutorConfiguration getCryptoExecutorConfiguration() {
+        return cryptoExecutorConfiguration;
+    }
+
+    public RevokedTokenArchiveConfiguration getRevokedTokenArchiveConfiguration() {
+        return revokedTokenArchiveConfiguration;
+    }
+
     public Optional<URI> getEcsContainerMetadataUriV4() {
         return Optional.ofNullable(ecsContainerMetadataUriV4);
     }
@@ -0,0 +1,65 @@
+package uk.gov.pay.publicauth.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class RateLimitConfiguration {
+
+    @JsonProperty("enabled")
+    private boolean enabled = false;
+
+    @Min(1)
+    @JsonProperty("perClientAddressPermitsPerSecond")
+    private double perClientAddressPermitsPerSecond = 200;
+
+    @Min(1)
+    @JsonProperty("perClientAddressBurst")
+    private int perClientAddressBurst = 400;
+
+    @Min(1)
+    @JsonProperty("perTokenPermitsPerSecond")
+    private double perTokenPermitsPerSecond = 100;
+
+    @Min(1)
+    @JsonProperty("perTokenBurst")
+    private int perTokenBurst = 200;
+
+    @Min(1)
+    @JsonProperty("maxBuckets")
+    private int maxBuckets = 100_000;
+
+    @NotNull
+    @JsonProperty("idleBucketEvictionInterval")
+    private Duration idleBucketEvictionInterval = Duration.seconds(30);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getPerClientAddressPermitsPerSecond() {
+        return perClientAddressPermitsPerSecond;
+    }
+
+    public int getPerClientAddressBurst() {
+        return perClientAddressBurst;
+    }
+
+    public double getPerTokenPermitsPerSecond() {
+        return perTokenPermitsPerSecond;
+    }
+
+    public int getPerTokenBurst() {
+        return perTokenBurst;
+    }
+
+    public int getMaxBuckets() {
+        return maxBuckets;
+    }
+
+    public Duration getIdleBucketEvictionInterval() {
+        return idleBucketEvictionInterval;
+    }
+}
@@ -0,0 +1,33 @@
+package uk.gov.pay.publicauth.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class RejectedTokenCacheConfiguration {
+
+    @JsonProperty("enabled")
+    private boolean enabled = true;
+
+    @Min(0)
+    @JsonProperty("maximumSize")
+    private long maximumSize = 10_000;
+
+    @NotNull
+    @JsonProperty("expireAfterWrite")
+    private Duration expireAfterWrite = Duration.minutes(10);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public Duration getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+}
@@ -0,0 +1,41 @@
+package uk.gov.pay.publicauth.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class RevokedTokenArchiveConfiguration {
+
+    @JsonProperty("enabled")
+    private boolean enabled = false;
+
+    @NotNull
+    @JsonProperty("archiveAfter")
+    private Duration archiveAfter = Duration.days(7);
+
+    @NotNull
+    @JsonProperty("interval")
+    private Duration interval = Duration.minutes(1);
+
+    @Min(1)
+    @JsonProperty("batchSize")
+    private int batchSize = 100;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration getArchiveAfter() {
+        return archiveAfter;
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+}
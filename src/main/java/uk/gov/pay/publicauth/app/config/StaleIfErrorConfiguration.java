@@ -0,0 +1,41 @@
+package uk.gov.pay.publicauth.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class StaleIfErrorConfiguration {
+
+    @JsonProperty("enabled")
+    private boolean enabled = false;
+
+    @NotNull
+    @JsonProperty("maxStaleness")
+    private Duration maxStaleness = Duration.minutes(5);
+
+    @Min(1)
+    @JsonProperty("failureThreshold")
+    private int failureThreshold = 5;
+
+    @NotNull
+    @JsonProperty("openDuration")
+    private Duration openDuration = Duration.seconds(10);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+}
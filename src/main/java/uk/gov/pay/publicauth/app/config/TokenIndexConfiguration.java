@@ -0,0 +1,65 @@
+package uk.gov.pay.publicauth.app.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import jakarta.validation.constraints.NotNull;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+public class TokenIndexConfiguration {
+
+    @JsonProperty("enabled")
+    private boolean enabled = false;
+
+    @JsonProperty("offHeap")
+    private boolean offHeap = false;
+
+    @NotNull
+    @JsonProperty("syncInterval")
+    private Duration syncInterval = Duration.seconds(1);
+
+    @NotNull
+    @JsonProperty("maxSyncLag")
+    private Duration maxSyncLag = Duration.seconds(30);
+
+    @JsonProperty("snapshotFile")
+    private Path snapshotFile;
+
+    @NotNull
+    @JsonProperty("snapshotInterval")
+    private Duration snapshotInterval = Duration.minutes(5);
+
+    @NotNull
+    @JsonProperty("snapshotMaxAge")
+    private Duration snapshotMaxAge = Duration.hours(1);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public Duration getSyncInterval() {
+        return syncInterval;
+    }
+
+    public Duration getMaxSyncLag() {
+        return maxSyncLag;
+    }
+
+    public Optional<Path> getSnapshotFile() {
+        return Optional.ofNullable(snapshotFile);
+    }
+
+    public Duration getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public Duration getSnapshotMaxAge() {
+        return snapshotMaxAge;
+    }
+}
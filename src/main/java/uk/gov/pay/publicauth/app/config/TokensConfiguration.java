@@ -1,10 +1,13 @@
 package uk.gov.pay.publicauth.app.config;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.annotation.Nulls;
 import io.dropwizard.core.Configuration;
 
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
+import java.util.Map;
 
 public class TokensConfiguration extends Configuration {
 
@@ -18,6 +21,17 @@ public class TokensConfiguration extends Configuration {
     @JsonProperty("apiKeyHmacSecret")
     private String apiKeyHmacSecret;
 
+    @NotNull
+    @JsonProperty("apiKeyHmacSecrets")
+    @JsonSetter(nulls = Nulls.AS_EMPTY)
+    private Map<String, String> apiKeyHmacSecrets = Map.of();
+
+    @JsonProperty("apiKeyHmacKeyId")
+    private String apiKeyHmacKeyId;
+
+    @JsonProperty("apiKeyChecksumEnabled")
+    private boolean apiKeyChecksumEnabled = false;
+
     public String getEncryptDBSalt() {
         return encryptDBSalt;
     }
@@ -25,4 +39,23 @@ public class TokensConfiguration extends Configuration {
     public String getApiKeyHmacSecret() {
         return apiKeyHmacSecret;
     }
+
+    /**
+     * @return further HMAC secrets by key id, a single base32hex character, for keys that carry one
+     */
+    public Map<String, String> getApiKeyHmacSecrets() {
+        return apiKeyHmacSecrets;
+    }
+
+    /**
+     * @return the key id of the secret new keys are signed with, or null to sign them with
+     * {@link #getApiKeyHmacSecret()} and no key id
+     */
+    public String getApiKeyHmacKeyId() {
+        return apiKeyHmacKeyId;
+    }
+
+    public boolean isApiKeyChecksumEnabled() {
+        return apiKeyChecksumEnabled;
+    }
 }
@@ -0,0 +1,38 @@
+package uk.gov.pay.publicauth.auth;
+
+import io.dropwizard.auth.DefaultUnauthorizedHandler;
+import io.dropwizard.auth.UnauthorizedHandler;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Answers malformed keys and keys failing their HMAC with the same 401 as
+ * {@link DefaultUnauthorizedHandler}, but thrown without a stack trace, like
+ * {@link uk.gov.pay.publicauth.exception.TokenInvalidException} for keys rejected later on.
+ */
+public class StacklessUnauthorizedHandler implements UnauthorizedHandler {
+
+    private final UnauthorizedHandler defaultHandler = new DefaultUnauthorizedHandler();
+
+    @Override
+    public Response buildResponse(String prefix, String realm) {
+        return defaultHandler.buildResponse(prefix, realm);
+    }
+
+    @Override
+    public WebApplicationException buildException(String prefix, String realm) {
+        return new UnauthorizedException(buildResponse(prefix, realm));
+    }
+
+    private static class UnauthorizedException extends WebApplicationException {
+
+        UnauthorizedException(Response response) {
+            super(response);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
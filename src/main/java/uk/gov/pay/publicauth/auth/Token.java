@@ -1,19 +1,48 @@
 package uk.gov.pay.publicauth.auth;
 
+import uk.gov.pay.publicauth.model.ApiKeyDigest;
+import uk.gov.pay.publicauth.model.ServiceMode;
 import uk.gov.pay.publicauth.model.TokenHash;
 
 import java.security.Principal;
+import java.util.Optional;
 
 public class Token implements Principal {
 
     private final TokenHash name;
+    private final ServiceMode expectedServiceMode;
+    private final ApiKeyDigest apiKeyDigest;
 
     public Token(TokenHash name) {
+        this(name, null);
+    }
+
+    public Token(TokenHash name, ServiceMode expectedServiceMode) {
+        this(name, expectedServiceMode, null);
+    }
+
+    public Token(TokenHash name, ServiceMode expectedServiceMode, ApiKeyDigest apiKeyDigest) {
         this.name = name;
+        this.expectedServiceMode = expectedServiceMode;
+        this.apiKeyDigest = apiKeyDigest;
     }
 
     @Override
     public String getName() {
         return name.getValue();
     }
+
+    /**
+     * @return the service mode the key's prefix suggests the token is stored under, if it has a prefix
+     */
+    public Optional<ServiceMode> getExpectedServiceMode() {
+        return Optional.ofNullable(expectedServiceMode);
+    }
+
+    /**
+     * @return the digest of the key this token was extracted from, so a rejection can be remembered against it
+     */
+    public Optional<ApiKeyDigest> getApiKeyDigest() {
+        return Optional.ofNullable(apiKeyDigest);
+    }
 }
@@ -1,6 +1,7 @@
 package uk.gov.pay.publicauth.dao;
 
 import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.gov.pay.publicauth.model.CreateTokenRequest;
@@ -11,70 +12,186 @@ import uk.gov.pay.publicauth.model.TokenLink;
 import uk.gov.pay.publicauth.model.TokenSource;
 import uk.gov.pay.publicauth.model.TokenState;
 
-import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiConsumer;
 
 public class AuthTokenDao {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthTokenDao.class);
 
-    private static final String TOKEN_SELECT =
-            "SELECT token_link, description, account_id, token_type, type, issued, revoked, last_used, created_by, service_mode, service_external_id FROM tokens ";
+    // last_used lives in the narrow token_usage table, so statements on tokens fetch it with a subquery
+    private static final String LAST_USED =
+            "(SELECT token_usage.last_used FROM token_usage WHERE token_usage.token_id = tokens.token_id) AS last_used";
+    private static final String TOKEN_COLUMNS =
+            "token_link, token_link_uuid, description, account_id, token_type, type, issued, revoked, " + LAST_USED + ", created_by, service_mode, service_external_id ";
+    private static final String TOKEN_COLUMN_NAMES =
+            "token_link, token_link_uuid, description, account_id, token_type, type, issued, revoked, last_used, created_by, service_mode, service_external_id ";
+    private static final String RECORD_USE =
+            "INSERT INTO token_usage(token_id, last_used) SELECT token_id, (now() at time zone 'utc') ";
+    private static final String REPLACING_PREVIOUS_USE =
+            "ON CONFLICT (token_id) DO UPDATE SET last_used = EXCLUDED.last_used";
 
-    private final Jdbi jdbi;
+    private static final String TOKEN_SELECT = "SELECT " + TOKEN_COLUMNS + "FROM tokens ";
+    // Tokens revoked long ago are moved to tokens_revoked_archive, which has the same columns, last_used included
+    private static final String UNION_ARCHIVED_TOKEN_SELECT = "UNION ALL SELECT " + TOKEN_COLUMN_NAMES + "FROM tokens_revoked_archive ";
+    private static final String RETURNING_TOKEN = "RETURNING " + TOKEN_COLUMNS;
+    private static final String RETURNING_TOKEN_AND_HASH = "RETURNING token_hash, " + TOKEN_COLUMNS;
+    private static final int STREAM_FETCH_SIZE = 1000;
+
+    private final RequestHandleScope requestHandleScope;
 
     public AuthTokenDao(Jdbi jdbi) {
-        this.jdbi = jdbi;
+        this(new RequestHandleScope(jdbi));
+    }
+
+    public AuthTokenDao(RequestHandleScope requestHandleScope) {
+        this.requestHandleScope = requestHandleScope;
     }
 
     public Optional<TokenEntity> findTokenByHash(TokenHash tokenHash) {
-        return jdbi.withHandle(handle ->
+        return requestHandleScope.withHandle(handle ->
                     handle.createQuery(TOKEN_SELECT +
-                            "WHERE token_hash = :token_hash")
-                            .bind("token_hash", tokenHash.getValue())
+                            "WHERE token_hash_digest = :token_hash_digest " +
+                            UNION_ARCHIVED_TOKEN_SELECT +
+                            "WHERE token_hash_digest = :token_hash_digest")
+                            .bind("token_hash_digest", tokenHash.getDigest())
                             .map(new TokenMapper())
                             .findFirst());
     }
 
+    /**
+     * Finds the token and, unless it has been revoked, records it as used, in a single statement.
+     * The returned entity carries the last used time from before this use. A token that has been
+     * archived is returned as it is, revoked.
+     */
+    public Optional<TokenEntity> findTokenByHashAndUpdateLastUsedTime(TokenHash tokenHash) {
+        return findTokenByHashAndUpdateLastUsedTime(
+                "SELECT token_id, " + TOKEN_COLUMNS + "FROM tokens WHERE token_hash_digest = :token_hash_digest", tokenHash, Map.of());
+    }
+
+    /**
+     * As {@link #findTokenByHashAndUpdateLastUsedTime(TokenHash)}, but looks in the partition for the given
+     * service mode first. The other partitions are only read if the token is not there, so a token in the
+     * expected mode is found without touching the others.
+     */
+    public Optional<TokenEntity> findTokenByHashAndUpdateLastUsedTime(TokenHash tokenHash, ServiceMode expectedServiceMode) {
+        return findTokenByHashAndUpdateLastUsedTime(
+                "SELECT token_id, " + TOKEN_COLUMNS + "FROM tokens WHERE token_hash_digest = :token_hash_digest AND service_mode = :service_mode " +
+                        "UNION ALL SELECT token_id, " + TOKEN_COLUMNS + "FROM tokens WHERE token_hash_digest = :token_hash_digest AND service_mode <> :service_mode " +
+                        "LIMIT 1",
+                tokenHash, Map.of("service_mode", expectedServiceMode));
+    }
+
+    private Optional<TokenEntity> findTokenByHashAndUpdateLastUsedTime(String tokenSelect, TokenHash tokenHash, Map<String, Object> bindings) {
+        return requestHandleScope.withHandle(handle ->
+                handle.createQuery("WITH token AS (" + tokenSelect + "), " +
+                                "used AS (" + RECORD_USE + "FROM token WHERE token.revoked IS NULL " + REPLACING_PREVIOUS_USE + ") " +
+                                "SELECT " + TOKEN_COLUMN_NAMES + "FROM token " +
+                                UNION_ARCHIVED_TOKEN_SELECT + "WHERE token_hash_digest = :token_hash_digest AND NOT EXISTS (SELECT 1 FROM token)")
+                        .bind("token_hash_digest", tokenHash.getDigest())
+                        .bindMap(bindings)
+                        .map(new TokenMapper())
+                        .findFirst());
+    }
+
     public void updateLastUsedTime(TokenHash tokenHash) {
-        jdbi.withHandle(handle ->
-                handle.createUpdate("UPDATE tokens SET last_used=(now() at time zone 'utc') WHERE token_hash=:token_hash")
-                        .bind("token_hash", tokenHash.getValue())
+        requestHandleScope.withHandle(handle ->
+                handle.createUpdate(RECORD_USE + "FROM tokens WHERE token_hash_digest=:token_hash_digest " + REPLACING_PREVIOUS_USE)
+                        .bind("token_hash_digest", tokenHash.getDigest())
                         .execute());
     }
+
+    public int updateLastUsedTime(Collection<TokenHash> tokenHashes) {
+        return requestHandleScope.withHandle(handle ->
+                handle.createUpdate(RECORD_USE + "FROM tokens WHERE token_hash_digest = ANY(:token_hash_digests) AND revoked IS NULL " + REPLACING_PREVIOUS_USE)
+                        .registerArrayType(byte[].class, "bytea")
+                        .bindArray("token_hash_digests", byte[].class, tokenHashes.stream().map(TokenHash::getDigest).toList())
+                        .execute());
+    }
+
+    /**
+     * Streams every token that has not been revoked to the consumer, as of a single snapshot.
+     *
+     * @return the change marker to pass to {@link #findTokenChangesSince} to pick up everything
+     * changed after that snapshot
+     */
+    public long streamActiveTokens(BiConsumer<TokenHash, TokenEntity> consumer) {
+        return streamTokens("WHERE revoked IS NULL", Map.of(), consumer);
+    }
+
+    /**
+     * Streams every token, revoked or not, that changed in a transaction not yet visible when the
+     * given change marker was taken. Tokens changed shortly before may be streamed again.
+     * <p> The version column holds the id of the last transaction that changed the token, and the
+     * marker is the oldest transaction still running at the time of the snapshot, so anything that
+     * committed after the snapshot has a version at least as large as the marker. </p>
+     *
+     * @return the change marker to pass to the next call
+     */
+    public long findTokenChangesSince(long changeMarker, BiConsumer<TokenHash, TokenEntity> consumer) {
+        return streamTokens("WHERE version >= :change_marker", Map.of("change_marker", changeMarker), consumer);
+    }
+
+    private long streamTokens(String where, Map<String, Object> bindings, BiConsumer<TokenHash, TokenEntity> consumer) {
+        return requestHandleScope.withHandle(handle -> handle.inTransaction(TransactionIsolationLevel.REPEATABLE_READ, transaction -> {
+            long changeMarker = transaction.createQuery("SELECT pg_snapshot_xmin(pg_current_snapshot())::text::bigint")
+                    .mapTo(Long.class)
+                    .one();
+            transaction.createQuery("SELECT token_hash, " + TOKEN_COLUMNS + "FROM tokens " + where)
+                    .bindMap(bindings)
+                    .setFetchSize(STREAM_FETCH_SIZE)
+                    .map(new TokenWithHashMapper())
+                    .forEach(token -> consumer.accept(token.getKey(), token.getValue()));
+            return changeMarker;
+        }));
+    }
     
     public Optional<TokenEntity> findTokenBy(String accountId, TokenLink tokenLink) {
-        return jdbi.withHandle(handle ->
+        return requestHandleScope.withHandle(handle ->
                 handle.createQuery(TOKEN_SELECT +
                                 "WHERE account_id = :account_id " +
-                                "AND token_link = :token_link")
+                                "AND " + tokenLinkIs(tokenLink) +
+                                UNION_ARCHIVED_TOKEN_SELECT +
+                                "WHERE account_id = :account_id " +
+                                "AND " + tokenLinkIs(tokenLink))
                         .bind("account_id", accountId)
-                        .bind("token_link", tokenLink.toString())
+                        .bind("token_link", tokenLinkValue(tokenLink))
                         .map(new TokenMapper())
                         .findFirst());
     }
     
     public Optional<TokenEntity> findTokenBy(String serviceExternalId, ServiceMode serviceMode, TokenLink tokenLink) {
-        return jdbi.withHandle(handle ->
+        return requestHandleScope.withHandle(handle ->
                 handle.createQuery(TOKEN_SELECT +
                                 "WHERE service_external_id = :service_external_id " +
-                                "AND service_mode = :service_mode")
+                                "AND service_mode = :service_mode " +
+                                "AND " + tokenLinkIs(tokenLink) +
+                                UNION_ARCHIVED_TOKEN_SELECT +
+                                "WHERE service_external_id = :service_external_id " +
+                                "AND service_mode = :service_mode " +
+                                "AND " + tokenLinkIs(tokenLink))
                         .bind("service_external_id", serviceExternalId)
                         .bind("service_mode", serviceMode)
-                        .bind("token_link", tokenLink.toString())
+                        .bind("token_link", tokenLinkValue(tokenLink))
                         .map(new TokenMapper())
                         .findFirst());
     }
 
     public List<TokenEntity> findTokensBy(String accountId, TokenState tokenState, TokenSource tokenSource) {
         String revokedClause = getRevokedClause(tokenState);
+        String archivedTokens = getArchivedTokensSelect(tokenState,
+                "WHERE account_id = :account_id " +
+                "AND type = :type ");
 
-        return jdbi.withHandle(handle ->
+        return requestHandleScope.withHandle(handle ->
                 handle.createQuery(TOKEN_SELECT +
                         "WHERE account_id = :account_id " +
                         "AND type = :type " +
                         revokedClause +
+                        archivedTokens +
                         "ORDER BY issued DESC")
                         .bind("account_id", accountId)
                         .bind("type", tokenSource)
@@ -86,15 +203,27 @@ public class AuthTokenDao {
         return tokenState.equals(TokenState.REVOKED) ? "AND revoked IS NOT NULL " : "AND revoked IS NULL ";
     }
 
+    /**
+     * Every archived token is revoked, so the archive only needs reading when listing revoked tokens.
+     */
+    private static String getArchivedTokensSelect(TokenState tokenState, String where) {
+        return tokenState.equals(TokenState.REVOKED) ? UNION_ARCHIVED_TOKEN_SELECT + where : "";
+    }
+
     public List<TokenEntity>  findTokensBy(String serviceExternalId, ServiceMode serviceMode, TokenState tokenState, TokenSource tokenSource) {
         String revokedClause = getRevokedClause(tokenState);
+        String archivedTokens = getArchivedTokensSelect(tokenState,
+                "WHERE service_external_id = :service_external_id " +
+                "AND type = :type " +
+                "AND service_mode = :service_mode ");
 
-        return jdbi.withHandle(handle ->
+        return requestHandleScope.withHandle(handle ->
                 handle.createQuery(TOKEN_SELECT +
                                 "WHERE service_external_id = :service_external_id " +
                                 "AND type = :type " +
                                 "AND service_mode = :service_mode " +
                                 revokedClause +
+                                archivedTokens +
                                 "ORDER BY issued DESC")
                         .bind("service_external_id", serviceExternalId)
                         .bind("service_mode", serviceMode)
@@ -103,18 +232,19 @@ public class AuthTokenDao {
                         .list());
     }
 
-    public boolean updateTokenDescription(TokenLink tokenLink, String newDescription) {
-        int rowsUpdated = jdbi.withHandle(handle ->
-                handle.createUpdate("UPDATE tokens SET description=:description WHERE token_link=:token_link AND revoked IS NULL")
+    public Optional<TokenEntity> updateTokenDescription(TokenLink tokenLink, String newDescription) {
+        return requestHandleScope.withHandle(handle ->
+                handle.createQuery("UPDATE tokens SET description=:description WHERE " + tokenLinkIs(tokenLink) + "AND revoked IS NULL " + RETURNING_TOKEN)
                         .bind("description", newDescription)
-                        .bind("token_link", tokenLink.toString()).execute());
-        return rowsUpdated > 0;
+                        .bind("token_link", tokenLinkValue(tokenLink))
+                        .map(new TokenMapper())
+                        .findFirst());
     }
 
-    public void storeToken(TokenHash tokenHash, CreateTokenRequest createTokenRequest) {
-        Integer rowsUpdated = jdbi.withHandle(handle ->
-                handle.createUpdate("INSERT INTO tokens(token_hash, token_link, type, description, account_id, created_by, token_type, service_mode, service_external_id) " +
-                        "VALUES (:token_hash,:token_link,:type,:description,:account_id,:created_by,:token_type,:service_mode,:service_external_id)")
+    public TokenEntity storeToken(TokenHash tokenHash, CreateTokenRequest createTokenRequest) {
+        Optional<TokenEntity> storedToken = requestHandleScope.withHandle(handle ->
+                handle.createQuery("INSERT INTO tokens(token_hash, token_link, type, description, account_id, created_by, token_type, service_mode, service_external_id) " +
+                        "VALUES (:token_hash,:token_link,:type,:description,:account_id,:created_by,:token_type,:service_mode,:service_external_id) " + RETURNING_TOKEN)
                         .bind("token_hash", tokenHash.getValue())
                         .bind("token_link", createTokenRequest.getTokenLink().toString())
                         .bind("type", createTokenRequest.getTokenSource())
@@ -124,72 +254,130 @@ public class AuthTokenDao {
                         .bind("token_type", createTokenRequest.getTokenPaymentType())
                         .bind("service_mode", createTokenRequest.getServiceMode())
                         .bind("service_external_id", createTokenRequest.getServiceExternalId())
-                        .execute());
-        if (rowsUpdated != 1) {
-            LOGGER.error("Unable to store new token for account '{}'. '{}' rows were updated", createTokenRequest.getAccountId(), rowsUpdated);
-            LOGGER.error("Unable to store new token for service '{}' in mode {}. '{}' rows were updated", createTokenRequest.getServiceExternalId(), createTokenRequest.getServiceMode(), rowsUpdated);
-            throw new RuntimeException(String.format("Unable to store new token for account %s | service %s in mode %s", createTokenRequest.getAccountId(), createTokenRequest.getServiceExternalId(), createTokenRequest.getServiceMode()));
-        }
+                        .map(new TokenMapper())
+                        .findFirst());
+        return storedToken.orElseThrow(() -> {
+            LOGGER.error("Unable to store new token for account '{}'. No rows were inserted", createTokenRequest.getAccountId());
+            LOGGER.error("Unable to store new token for service '{}' in mode {}. No rows were inserted", createTokenRequest.getServiceExternalId(), createTokenRequest.getServiceMode());
+            return new RuntimeException(String.format("Unable to store new token for account %s | service %s in mode %s", createTokenRequest.getAccountId(), createTokenRequest.getServiceExternalId(), createTokenRequest.getServiceMode()));
+        });
     }
 
-    public Optional<LocalDateTime> revokeSingleToken(String accountId, TokenHash tokenHash) {
-        return Optional.ofNullable(jdbi.withHandle(handle ->
-                handle.createQuery("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE account_id=:account_id AND token_hash=:token_hash AND revoked IS NULL RETURNING revoked")
+    public Optional<TokenEntity> revokeSingleToken(String accountId, TokenHash tokenHash) {
+        return requestHandleScope.withHandle(handle ->
+                handle.createQuery("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE account_id=:account_id AND token_hash_digest=:token_hash_digest AND revoked IS NULL " + RETURNING_TOKEN)
                         .bind("account_id", accountId)
-                        .bind("token_hash", tokenHash.getValue())
-                        .mapTo(LocalDateTime.class)
-                        .first()));
+                        .bind("token_hash_digest", tokenHash.getDigest())
+                        .map(new TokenMapper())
+                        .findFirst());
     }
 
-    public Optional<LocalDateTime> revokeSingleToken(String accountId, TokenLink tokenLink) {
-        return jdbi.withHandle(handle ->
-                handle.createQuery("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE account_id=:account_id AND token_link=:token_link AND revoked IS NULL RETURNING revoked")
+    /**
+     * Revokes the token and passes it, along with its hash, to the consumer, so anything holding on to the
+     * hash can forget it.
+     */
+    public Optional<TokenEntity> revokeSingleToken(String accountId, TokenLink tokenLink, BiConsumer<TokenHash, TokenEntity> revokedTokenConsumer) {
+        return revokedToken(requestHandleScope.withHandle(handle ->
+                handle.createQuery("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE account_id=:account_id AND " + tokenLinkIs(tokenLink) + "AND revoked IS NULL " + RETURNING_TOKEN_AND_HASH)
                         .bind("account_id", accountId)
-                        .bind("token_link", tokenLink.toString())
-                        .mapTo(LocalDateTime.class)
-                        .findFirst());
+                        .bind("token_link", tokenLinkValue(tokenLink))
+                        .map(new TokenWithHashMapper())
+                        .findFirst()), revokedTokenConsumer);
     }
     
-    public Optional<LocalDateTime> revokeSingleToken(String serviceExternalId, ServiceMode serviceMode, TokenHash tokenHash) {
-        return Optional.ofNullable(jdbi.withHandle(handle ->
-                handle.createQuery("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE service_external_id=:service_external_id AND service_mode=:service_mode AND token_hash=:token_hash AND revoked IS NULL RETURNING revoked")
+    public Optional<TokenEntity> revokeSingleToken(String serviceExternalId, ServiceMode serviceMode, TokenHash tokenHash) {
+        return requestHandleScope.withHandle(handle ->
+                handle.createQuery("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE service_external_id=:service_external_id AND service_mode=:service_mode AND token_hash_digest=:token_hash_digest AND revoked IS NULL " + RETURNING_TOKEN)
                         .bind("service_external_id", serviceExternalId)
                         .bind("service_mode", serviceMode)
-                        .bind("token_hash", tokenHash.getValue())
-                        .mapTo(LocalDateTime.class)
-                        .first()));
+                        .bind("token_hash_digest", tokenHash.getDigest())
+                        .map(new TokenMapper())
+                        .findFirst());
     }
 
-    public Optional<LocalDateTime> revokeSingleToken(String serviceExternalId, ServiceMode serviceMode, TokenLink tokenLink) {
-        return jdbi.withHandle(handle ->
-                handle.createQuery("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE service_external_id=:service_external_id AND service_mode=:service_mode AND token_link=:token_link AND revoked IS NULL RETURNING revoked")
+    public Optional<TokenEntity> revokeSingleToken(String serviceExternalId, ServiceMode serviceMode, TokenLink tokenLink,
+                                                   BiConsumer<TokenHash, TokenEntity> revokedTokenConsumer) {
+        return revokedToken(requestHandleScope.withHandle(handle ->
+                handle.createQuery("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE service_external_id=:service_external_id AND service_mode=:service_mode AND " + tokenLinkIs(tokenLink) + "AND revoked IS NULL " + RETURNING_TOKEN_AND_HASH)
                         .bind("service_external_id", serviceExternalId)
                         .bind("service_mode", serviceMode)
-                        .bind("token_link", tokenLink.toString())
-                        .mapTo(LocalDateTime.class)
-                        .findFirst());
+                        .bind("token_link", tokenLinkValue(tokenLink))
+                        .map(new TokenWithHashMapper())
+                        .findFirst()), revokedTokenConsumer);
     }
 
-    public int revokeTokens(String accountId) {
-        return jdbi.withHandle(handle ->
-                handle.createUpdate("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE account_id=:account_id AND revoked IS NULL")
+    /**
+     * Revokes every token of the account, passing each one, along with its hash, to the consumer.
+     *
+     * @return the number of tokens revoked
+     */
+    public int revokeTokens(String accountId, BiConsumer<TokenHash, TokenEntity> revokedTokenConsumer) {
+        return revokedTokens(requestHandleScope.withHandle(handle ->
+                handle.createQuery("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE account_id=:account_id AND revoked IS NULL " + RETURNING_TOKEN_AND_HASH)
                         .bind("account_id", accountId)
-                        .execute());
+                        .map(new TokenWithHashMapper())
+                        .list()), revokedTokenConsumer);
     }
     
-    public int revokeTokens(String serviceExternalId, ServiceMode serviceMode) {
-        return jdbi.withHandle(handle ->
-                handle.createUpdate("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE service_external_id=:service_external_id AND service_mode=:service_mode AND revoked IS NULL")
+    public int revokeTokens(String serviceExternalId, ServiceMode serviceMode, BiConsumer<TokenHash, TokenEntity> revokedTokenConsumer) {
+        return revokedTokens(requestHandleScope.withHandle(handle ->
+                handle.createQuery("UPDATE tokens SET revoked=(now() at time zone 'utc') WHERE service_external_id=:service_external_id AND service_mode=:service_mode AND revoked IS NULL " + RETURNING_TOKEN_AND_HASH)
                         .bind("service_external_id", serviceExternalId)
                         .bind("service_mode", serviceMode)
-                        .execute());
+                        .map(new TokenWithHashMapper())
+                        .list()), revokedTokenConsumer);
+    }
+
+    private static Optional<TokenEntity> revokedToken(Optional<Map.Entry<TokenHash, TokenEntity>> revokedToken,
+                                                 BiConsumer<TokenHash, TokenEntity> revokedTokenConsumer) {
+        revokedToken.ifPresent(token -> revokedTokenConsumer.accept(token.getKey(), token.getValue()));
+        return revokedToken.map(Map.Entry::getValue);
+    }
+
+    private static int revokedTokens(List<Map.Entry<TokenHash, TokenEntity>> revokedTokens, BiConsumer<TokenHash, TokenEntity> revokedTokenConsumer) {
+        revokedTokens.forEach(token -> revokedTokenConsumer.accept(token.getKey(), token.getValue()));
+        return revokedTokens.size();
     }
 
     public Optional<TokenEntity> findTokenByTokenLink(TokenLink tokenLink) {
-        return jdbi.withHandle(handle ->
-                handle.createQuery(TOKEN_SELECT + "WHERE token_link = :token_link")
-                        .bind("token_link", tokenLink.toString())
+        return requestHandleScope.withHandle(handle ->
+                handle.createQuery(TOKEN_SELECT + "WHERE " + tokenLinkIs(tokenLink) +
+                                UNION_ARCHIVED_TOKEN_SELECT + "WHERE " + tokenLinkIs(tokenLink))
+                        .bind("token_link", tokenLinkValue(tokenLink))
                         .map(new TokenMapper())
                         .findFirst());
     }
+
+    /**
+     * Moves up to a batch of the tokens revoked more than the given time ago into tokens_revoked_archive,
+     * along with their last used time. Tokens locked by another transaction, such as another node's archiver,
+     * are skipped, so archivers on several nodes never wait on each other.
+     *
+     * @return the number of tokens archived, which is less than the batch size once none are left to archive
+     */
+    public int archiveRevokedTokens(long revokedForSeconds, int batchSize) {
+        return requestHandleScope.withHandle(handle ->
+                handle.createUpdate("WITH archived AS (" +
+                                "DELETE FROM tokens WHERE token_id IN (" +
+                                "SELECT token_id FROM tokens WHERE revoked < (now() at time zone 'utc') - :revoked_for_seconds * interval '1 second' " +
+                                "LIMIT :batch_size FOR UPDATE SKIP LOCKED) " +
+                                "RETURNING token_id, token_hash, token_hash_digest, " + TOKEN_COLUMNS + ") " +
+                                "INSERT INTO tokens_revoked_archive(token_id, token_hash, token_hash_digest, " + TOKEN_COLUMN_NAMES + ") " +
+                                "SELECT token_id, token_hash, token_hash_digest, " + TOKEN_COLUMN_NAMES + "FROM archived")
+                        .bind("revoked_for_seconds", revokedForSeconds)
+                        .bind("batch_size", batchSize)
+                        .execute());
+    }
+
+    /**
+     * Links that are UUIDs, which is all of those issued, are looked up by the native uuid column. Anything
+     * else can only be in the text column.
+     */
+    private static String tokenLinkIs(TokenLink tokenLink) {
+        return tokenLink.asUuid().isPresent() ? "token_link_uuid = :token_link " : "token_link = :token_link ";
+    }
+
+    private static Object tokenLinkValue(TokenLink tokenLink) {
+        return tokenLink.asUuid().<Object>map(uuid -> uuid).orElse(tokenLink.toString());
+    }
 }
@@ -0,0 +1,60 @@
+package uk.gov.pay.publicauth.dao;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleCallback;
+import org.jdbi.v3.core.Jdbi;
+
+/**
+ * Lets every DAO call made while handling one request share a single JDBI handle, and so a
+ * single pooled connection, instead of checking one out per statement.
+ * <p> The handle is only opened when the first statement runs, so a request that never reaches
+ * the database, or does other work before it does, does not hold a connection. Outside a scope,
+ * each call gets a handle of its own as usual. </p>
+ */
+public class RequestHandleScope {
+
+    private final Jdbi jdbi;
+    private final ThreadLocal<Scope> currentScope = new ThreadLocal<>();
+
+    public RequestHandleScope(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    public <R> R withHandle(HandleCallback<R, RuntimeException> callback) {
+        Scope scope = currentScope.get();
+        if (scope == null) {
+            return jdbi.withHandle(callback);
+        }
+        return callback.withHandle(scope.handle());
+    }
+
+    public void begin() {
+        currentScope.set(new Scope());
+    }
+
+    public void end() {
+        Scope scope = currentScope.get();
+        currentScope.remove();
+        if (scope != null) {
+            scope.close();
+        }
+    }
+
+    private final class Scope {
+
+        private Handle handle;
+
+        Handle handle() {
+            if (handle == null) {
+                handle = jdbi.open();
+            }
+            return handle;
+        }
+
+        void close() {
+            if (handle != null) {
+                handle.close();
+            }
+        }
+    }
+}
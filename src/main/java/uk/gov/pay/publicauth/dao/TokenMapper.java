@@ -15,6 +15,7 @@ import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Optional;
+import java.util.UUID;
 
 
 public class TokenMapper implements RowMapper<TokenEntity> {
@@ -22,7 +23,7 @@ public class TokenMapper implements RowMapper<TokenEntity> {
     @Override
     public TokenEntity map(ResultSet rs, StatementContext ctx) throws SQLException {
         TokenEntity.Builder tokenBuilder = new TokenEntity.Builder()
-                .withTokenLink(TokenLink.of(rs.getString("token_link")))
+                .withTokenLink(getTokenLink(rs))
                 .withDescription(rs.getString("description"))
                 .withAccountId(rs.getString("account_id"))
                 .withTokenSource(TokenSource.valueOf(rs.getString("type")))
@@ -43,6 +44,11 @@ public class TokenMapper implements RowMapper<TokenEntity> {
         return tokenBuilder.build();
     }
 
+    private TokenLink getTokenLink(ResultSet rs) throws SQLException {
+        UUID tokenLinkUuid = rs.getObject("token_link_uuid", UUID.class);
+        return TokenLink.of(tokenLinkUuid != null ? tokenLinkUuid.toString() : rs.getString("token_link"));
+    }
+
     private Optional<ZonedDateTime> getZonedDateTime(ResultSet rs, String columnLabel) throws SQLException {
         LocalDateTime dateTime = rs.getObject(columnLabel, LocalDateTime.class);
 
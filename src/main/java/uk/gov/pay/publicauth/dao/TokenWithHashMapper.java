@@ -0,0 +1,24 @@
+package uk.gov.pay.publicauth.dao;
+
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+import uk.gov.pay.publicauth.model.TokenEntity;
+import uk.gov.pay.publicauth.model.TokenHash;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Maps a row that also has the token_hash column to the token and its hash, for callers that key
+ * something on the hash.
+ */
+class TokenWithHashMapper implements RowMapper<Map.Entry<TokenHash, TokenEntity>> {
+
+    private final TokenMapper tokenMapper = new TokenMapper();
+
+    @Override
+    public Map.Entry<TokenHash, TokenEntity> map(ResultSet rs, StatementContext ctx) throws SQLException {
+        return Map.entry(TokenHash.of(rs.getString("token_hash")), tokenMapper.map(rs, ctx));
+    }
+}
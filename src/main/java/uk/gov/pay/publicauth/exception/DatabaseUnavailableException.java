@@ -0,0 +1,8 @@
+package uk.gov.pay.publicauth.exception;
+
+public class DatabaseUnavailableException extends RuntimeException {
+
+    public DatabaseUnavailableException(String message) {
+        super(message);
+    }
+}
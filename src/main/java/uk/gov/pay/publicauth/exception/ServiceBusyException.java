@@ -0,0 +1,8 @@
+package uk.gov.pay.publicauth.exception;
+
+public class ServiceBusyException extends RuntimeException {
+
+    public ServiceBusyException(String message) {
+        super(message);
+    }
+}
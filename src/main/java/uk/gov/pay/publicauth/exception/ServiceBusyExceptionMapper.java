@@ -0,0 +1,20 @@
+package uk.gov.pay.publicauth.exception;
+
+import com.google.common.collect.ImmutableMap;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.ExceptionMapper;
+
+import static jakarta.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+public class ServiceBusyExceptionMapper implements ExceptionMapper<ServiceBusyException> {
+
+    @Override
+    public Response toResponse(ServiceBusyException exception) {
+        return Response.status(SERVICE_UNAVAILABLE)
+                .entity(ImmutableMap.of("message", exception.getMessage()))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+    }
+}
@@ -1,8 +1,12 @@
 package uk.gov.pay.publicauth.exception;
 
+/**
+ * Thrown on the authentication path for every rejected key, so it is built without a stack trace:
+ * it is always mapped straight to a 401 and the trace through Jersey and JDBI would never be read.
+ */
 public class TokenInvalidException extends RuntimeException {
     
     public TokenInvalidException(String message) {
-        super(message);
+        super(message, null, false, false);
     }
 }
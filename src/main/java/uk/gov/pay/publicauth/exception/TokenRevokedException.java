@@ -4,11 +4,14 @@ import uk.gov.pay.publicauth.model.TokenLink;
 
 import static java.lang.String.format;
 
+/**
+ * Like {@link TokenInvalidException}, built without a stack trace as it only ever becomes a 401.
+ */
 public class TokenRevokedException extends RuntimeException {
     private TokenLink tokenLink;
 
     public TokenRevokedException(TokenLink tokenLink) {
-        super(format("Token with token_link %s has been revoked", tokenLink));
+        super(format("Token with token_link %s has been revoked", tokenLink), null, false, false);
         this.tokenLink = tokenLink;
     }
 
@@ -0,0 +1,101 @@
+package uk.gov.pay.publicauth.filters;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import jakarta.annotation.Priority;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import uk.gov.pay.publicauth.app.config.RateLimitConfiguration;
+
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Turns away requests to {@link RateLimited} resources when either the client address or the
+ * presented bearer token has used up its bucket. Runs before authentication, so a rejected
+ * request never reaches the HMAC check, BCrypt or the database.
+ */
+@RateLimited
+@Priority(Priorities.AUTHENTICATION - 100)
+public class RateLimitFilter implements ContainerRequestFilter {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+    private static final String X_FORWARDED_FOR = "X-Forwarded-For";
+    private static final HashFunction KEY_HASH = Hashing.farmHashFingerprint64();
+
+    private final TokenBucketRateLimiter clientAddressLimiter;
+    private final TokenBucketRateLimiter bearerTokenLimiter;
+    private final Counter clientAddressRejections;
+    private final Counter bearerTokenRejections;
+
+    @Context
+    HttpServletRequest request;
+
+    public RateLimitFilter(RateLimitConfiguration config, MetricRegistry metricRegistry) {
+        this(new TokenBucketRateLimiter(config.getPerClientAddressPermitsPerSecond(), config.getPerClientAddressBurst(), config.getMaxBuckets()),
+                new TokenBucketRateLimiter(config.getPerTokenPermitsPerSecond(), config.getPerTokenBurst(), config.getMaxBuckets()),
+                metricRegistry);
+    }
+
+    RateLimitFilter(TokenBucketRateLimiter clientAddressLimiter, TokenBucketRateLimiter bearerTokenLimiter, MetricRegistry metricRegistry) {
+        this.clientAddressLimiter = clientAddressLimiter;
+        this.bearerTokenLimiter = bearerTokenLimiter;
+        this.clientAddressRejections = metricRegistry.counter("rate-limit.rejected.client-address");
+        this.bearerTokenRejections = metricRegistry.counter("rate-limit.rejected.token");
+        metricRegistry.gauge("rate-limit.buckets", () -> () -> clientAddressLimiter.size() + bearerTokenLimiter.size());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        String clientAddress = clientAddress(requestContext);
+        if (clientAddress != null && !clientAddressLimiter.tryAcquire(key(clientAddress))) {
+            clientAddressRejections.inc();
+            requestContext.abortWith(tooManyRequests());
+            return;
+        }
+
+        String authorization = requestContext.getHeaderString(HttpHeaders.AUTHORIZATION);
+        if (authorization != null && authorization.startsWith(BEARER_PREFIX)
+                && !bearerTokenLimiter.tryAcquire(key(authorization))) {
+            bearerTokenRejections.inc();
+            requestContext.abortWith(tooManyRequests());
+        }
+    }
+
+    public void evictIdleBuckets() {
+        clientAddressLimiter.evictIdleBuckets();
+        bearerTokenLimiter.evictIdleBuckets();
+    }
+
+    /**
+     * The load balancer appends the address it received the request from to X-Forwarded-For,
+     * so the last entry is the one a client cannot forge.
+     */
+    private String clientAddress(ContainerRequestContext requestContext) {
+        String forwardedFor = requestContext.getHeaderString(X_FORWARDED_FOR);
+        if (forwardedFor != null && !forwardedFor.isBlank()) {
+            return forwardedFor.substring(forwardedFor.lastIndexOf(',') + 1).trim();
+        }
+        return request == null ? null : request.getRemoteAddr();
+    }
+
+    private static long key(String value) {
+        return KEY_HASH.hashString(value, US_ASCII).asLong();
+    }
+
+    private static Response tooManyRequests() {
+        return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                .entity(Map.of("message", "Too many requests"))
+                .type(MediaType.APPLICATION_JSON)
+                .build();
+    }
+}
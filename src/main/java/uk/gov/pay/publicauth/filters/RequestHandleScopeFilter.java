@@ -0,0 +1,29 @@
+package uk.gov.pay.publicauth.filters;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import uk.gov.pay.publicauth.dao.RequestHandleScope;
+
+import java.io.IOException;
+
+public class RequestHandleScopeFilter implements Filter {
+
+    private final RequestHandleScope requestHandleScope;
+
+    public RequestHandleScopeFilter(RequestHandleScope requestHandleScope) {
+        this.requestHandleScope = requestHandleScope;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        requestHandleScope.begin();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            requestHandleScope.end();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package uk.gov.pay.publicauth.filters;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory token buckets keyed by a 64-bit key.
+ * <p> Each bucket is a single {@link AtomicLong} holding the time at which it will next be full
+ * (the "theoretical arrival time" of the generic cell rate algorithm, which behaves exactly like a
+ * token bucket). Taking a token is one compare-and-set, so callers never block each other. </p>
+ * <p> A bucket whose next-full time has passed holds no state worth keeping, so
+ * {@link #evictIdleBuckets()} removes it. The number of buckets is also capped: once the cap
+ * is reached, idle buckets are evicted on demand, at most once per burst tolerance since no bucket
+ * can go idle sooner, and a key that still finds no room is rejected. Flooding the limiter with
+ * new keys therefore cannot get requests past it, and keys that already have a bucket keep their
+ * own limit throughout. </p>
+ */
+public class TokenBucketRateLimiter {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final ConcurrentHashMap<Long, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextOnDemandEvictionAt;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final int maxBuckets;
+    private final LongSupplier nanoClock;
+
+    public TokenBucketRateLimiter(double permitsPerSecond, int burst, int maxBuckets) {
+        this(permitsPerSecond, burst, maxBuckets, System::nanoTime);
+    }
+
+    TokenBucketRateLimiter(double permitsPerSecond, int burst, int maxBuckets, LongSupplier nanoClock) {
+        this.emissionIntervalNanos = Math.max(1, (long) (NANOS_PER_SECOND / permitsPerSecond));
+        this.burstToleranceNanos = emissionIntervalNanos * burst;
+        this.maxBuckets = maxBuckets;
+        this.nanoClock = nanoClock;
+        this.nextOnDemandEvictionAt = new AtomicLong(nanoClock.getAsLong());
+    }
+
+    public boolean tryAcquire(long key) {
+        long now = nanoClock.getAsLong();
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.mappingCount() >= maxBuckets && !evictIdleBucketsOnDemand(now)) {
+                return false;
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        while (true) {
+            long fullAt = bucket.get();
+            long nextFullAt = Math.max(fullAt, now) + emissionIntervalNanos;
+            if (nextFullAt - now > burstToleranceNanos) {
+                return false;
+            }
+            if (bucket.compareAndSet(fullAt, nextFullAt)) {
+                return true;
+            }
+        }
+    }
+
+    public void evictIdleBuckets() {
+        evictIdleBuckets(nanoClock.getAsLong());
+    }
+
+    private void evictIdleBuckets(long now) {
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    /**
+     * @return whether there is room for another bucket, after evicting idle ones if this thread
+     * is the first to find the cap reached since the last on-demand eviction
+     */
+    private boolean evictIdleBucketsOnDemand(long now) {
+        long evictAt = nextOnDemandEvictionAt.get();
+        if (now - evictAt >= 0 && nextOnDemandEvictionAt.compareAndSet(evictAt, now + burstToleranceNanos)) {
+            evictIdleBuckets(now);
+        }
+        return buckets.mappingCount() < maxBuckets;
+    }
+
+    public long size() {
+        return buckets.mappingCount();
+    }
+}
@@ -0,0 +1,47 @@
+package uk.gov.pay.publicauth.model;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The SHA-256 of the token part of a presented API key. Unlike a {@link TokenHash} it costs
+ * next to nothing to compute, so it can identify a key before any BCrypt work is done.
+ */
+public class ApiKeyDigest {
+    private final byte[] digest;
+
+    private ApiKeyDigest(byte[] digest) {
+        this.digest = digest;
+    }
+
+    public static ApiKeyDigest of(String token) {
+        try {
+            return new ApiKeyDigest(MessageDigest.getInstance("SHA-256").digest(token.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other != null && other.getClass() == ApiKeyDigest.class) {
+            ApiKeyDigest that = (ApiKeyDigest) other;
+            return Arrays.equals(this.digest, that.digest);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(digest);
+    }
+
+    //make sure we never log anything derived from the key
+    @Override
+    public String toString() {
+        return "api_key_digest";
+    }
+}
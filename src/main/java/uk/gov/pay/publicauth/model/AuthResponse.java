@@ -37,6 +37,15 @@ public class AuthResponse {
         this.serviceExternalId = tokenEntity.getServiceExternalId();
     }
 
+    public AuthResponse(String accountId, TokenLink tokenLink, TokenPaymentType tokenPaymentType,
+                        ServiceMode serviceMode, String serviceExternalId) {
+        this.accountId = accountId;
+        this.tokenLink = tokenLink;
+        this.tokenPaymentType = tokenPaymentType;
+        this.serviceMode = serviceMode;
+        this.serviceExternalId = serviceExternalId;
+    }
+
     public String getAccountId() {
         return accountId;
     }
@@ -7,7 +7,6 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotNull;
 
 import static io.swagger.v3.oas.annotations.media.Schema.RequiredMode.REQUIRED;
-import static java.util.UUID.randomUUID;
 import static uk.gov.pay.publicauth.model.TokenPaymentType.CARD;
 import static uk.gov.pay.publicauth.model.TokenSource.API;
 
@@ -26,7 +25,7 @@ public class CreateTokenRequest {
     @Schema(hidden = true)
     private final TokenSource tokenSource;
     @Schema(hidden = true)
-    private final TokenLink tokenLink = TokenLink.of(randomUUID().toString());
+    private final TokenLink tokenLink = TokenLink.of(UuidV7Generator.newUuid().toString());
     @Schema(hidden = true)
     private final TokenAccountType tokenAccountType;
     @Schema(hidden = true)
@@ -0,0 +1,58 @@
+package uk.gov.pay.publicauth.model;
+
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import static java.security.DrbgParameters.Capability.RESEED_ONLY;
+
+/**
+ * A buffer of random bytes from its own DRBG instance, handed out a draw at a time and refilled in one call
+ * once too few unused bytes are left for the next draw. Each thread has one, from {@link #forCurrentThread()},
+ * shared by everything on that thread that needs random bytes, so there is no contention on a shared
+ * {@link SecureRandom} and a thread holds a single DRBG however many generators it uses.
+ */
+public final class RandomBytes {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private static final ThreadLocal<RandomBytes> FOR_THREAD = ThreadLocal.withInitial(() -> new RandomBytes(BUFFER_SIZE));
+
+    private final SecureRandom random = newDrbg();
+    private final byte[] bytes;
+    private int offset;
+
+    RandomBytes(int size) {
+        this.bytes = new byte[size];
+        this.offset = bytes.length;
+    }
+
+    public static RandomBytes forCurrentThread() {
+        return FOR_THREAD.get();
+    }
+
+    /**
+     * @return the offset in {@link #bytes()} of the next {@code length} unused random bytes
+     */
+    public int nextDraw(int length) {
+        if (bytes.length - offset < length) {
+            random.nextBytes(bytes);
+            offset = 0;
+        }
+        int draw = offset;
+        offset += length;
+        return draw;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    private static SecureRandom newDrbg() {
+        try {
+            return SecureRandom.getInstance("DRBG", DrbgParameters.instantiation(256, RESEED_ONLY, null));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("DRBG SecureRandom is not available", e);
+        }
+    }
+}
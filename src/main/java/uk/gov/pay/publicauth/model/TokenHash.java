@@ -1,9 +1,14 @@
 package uk.gov.pay.publicauth.model;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Objects;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public class TokenHash {
     private final String tokenHash;
+    private volatile byte[] digest;
 
     private TokenHash (String tokenHash) {
         this.tokenHash = Objects.requireNonNull(tokenHash);
@@ -36,4 +41,28 @@ public class TokenHash {
     public String getValue() {
         return tokenHash;
     }
+
+    /**
+     * The digest is computed on first use and kept, so it is hashed at most once per instance however many
+     * queries bind it. Threads racing on the first use each compute the same value.
+     *
+     * @return the SHA-256 of the hash, which is what the token_hash_digest column holds and is indexed on.
+     * The array is shared between callers and must not be modified.
+     */
+    public byte[] getDigest() {
+        byte[] digest = this.digest;
+        if (digest == null) {
+            digest = sha256(tokenHash);
+            this.digest = digest;
+        }
+        return digest;
+    }
+
+    private static byte[] sha256(String tokenHash) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(tokenHash.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
 }
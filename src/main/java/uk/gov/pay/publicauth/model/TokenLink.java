@@ -1,6 +1,8 @@
 package uk.gov.pay.publicauth.model;
 
 import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
 
 public class TokenLink {
     private final String tokenLink;
@@ -13,6 +15,23 @@ public class TokenLink {
         return new TokenLink(tokenLink);
     }
 
+    /**
+     * @return the link as a UUID, unless it is not exactly the lowercase string form of one, in which case it
+     * has no value in the token_link_uuid column either
+     */
+    public Optional<UUID> asUuid() {
+        if (tokenLink.length() != 36) {
+            return Optional.empty();
+        }
+        try {
+            UUID uuid = UUID.fromString(tokenLink);
+            // UUID.fromString accepts upper case and shortened groups, which would not come back out as the same link
+            return uuid.toString().equals(tokenLink) ? Optional.of(uuid) : Optional.empty();
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
     @Override
     public boolean equals(Object other) {
         if (other != null && other.getClass() == TokenLink.class) {
@@ -2,29 +2,35 @@ package uk.gov.pay.publicauth.resources;
 
 import com.codahale.metrics.health.HealthCheck;
 import com.google.common.collect.ImmutableMap;
-import io.dropwizard.core.setup.Environment;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.publicauth.service.HealthCheckScheduler;
 
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.Response;
 import java.util.Map;
+import java.util.Optional;
 import java.util.SortedMap;
 import java.util.stream.Collectors;
 
+import static com.google.common.net.HttpHeaders.AGE;
 import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
 
 @Path("/")
 public class HealthCheckResource {
 
-    private final Environment environment;
+    private static final Logger LOGGER = LoggerFactory.getLogger(HealthCheckResource.class);
 
-    public HealthCheckResource(Environment environment) {
-        this.environment = environment;
+    private final HealthCheckScheduler healthCheckScheduler;
+
+    public HealthCheckResource(HealthCheckScheduler healthCheckScheduler) {
+        this.healthCheckScheduler = healthCheckScheduler;
     }
 
     @GET
@@ -33,6 +39,7 @@ public class HealthCheckResource {
     @Operation(
             tags = "Other",
             summary = "Healthcheck endpoint for webhooks. Check database, and deadlocks",
+            description = "Serves the latest results of health checks run in the background. The Age header gives their age in seconds.",
             responses = {
                     @ApiResponse(responseCode = "200", content = @Content(schema = @Schema(example = "{" +
                             "    \"postgres\": {" +
@@ -44,11 +51,16 @@ public class HealthCheckResource {
                             "        \"message\": \"Healthy\"" +
                             "    }" +
                             "}")), description = "OK"),
-                    @ApiResponse(responseCode = "503", description = "Service unavailable. If any healthchecks fail")
+                    @ApiResponse(responseCode = "503", description = "Service unavailable. If any healthchecks fail, or the latest results are stale or not yet available")
             }
     )
     public Response healthCheck() {
-        SortedMap<String, HealthCheck.Result> results = environment.healthChecks().runHealthChecks();
+        Optional<HealthCheckScheduler.Results> latestResults = healthCheckScheduler.getLatestResults();
+        if (latestResults.isEmpty()) {
+            return Response.status(503).entity(Map.of()).build();
+        }
+
+        SortedMap<String, HealthCheck.Result> results = latestResults.get().getResults();
 
         Map<String, Map<String, Boolean>> response = results.entrySet()
                 .stream()
@@ -56,9 +68,13 @@ public class HealthCheckResource {
                         healthCheck -> ImmutableMap.of("healthy", healthCheck.getValue().isHealthy())));
 
         boolean allHealthy = results.values().stream().allMatch(HealthCheck.Result::isHealthy);
+        boolean stale = latestResults.get().isStale();
+        if (stale) {
+            LOGGER.warn("Health check results are stale, last run {} seconds ago", latestResults.get().getAgeInSeconds());
+        }
 
-        Response.ResponseBuilder res = allHealthy ? Response.ok() : Response.status(503);
+        Response.ResponseBuilder res = allHealthy && !stale ? Response.ok() : Response.status(503);
 
-        return res.entity(response).build();
+        return res.header(AGE, latestResults.get().getAgeInSeconds()).entity(response).build();
     }
 }
@@ -18,6 +18,7 @@ import org.slf4j.LoggerFactory;
 import uk.gov.pay.publicauth.auth.Token;
 import uk.gov.pay.publicauth.exception.TokenNotFoundException;
 import uk.gov.pay.publicauth.exception.ValidationException;
+import uk.gov.pay.publicauth.filters.RateLimited;
 import uk.gov.pay.publicauth.model.AuthResponse;
 import uk.gov.pay.publicauth.model.CreateTokenRequest;
 import uk.gov.pay.publicauth.model.ServiceMode;
@@ -75,6 +76,7 @@ public class PublicAuthResource {
 
     @Path("/v1/api/auth")
     @Timed
+    @RateLimited
     @Produces(APPLICATION_JSON)
     @GET
     @Operation(
@@ -82,11 +84,13 @@ public class PublicAuthResource {
             security = {@SecurityRequirement(name = "BearerAuth")},
             responses = {
                     @ApiResponse(responseCode = "200", description = "OK", content = @Content(schema = @Schema(implementation = AuthResponse.class))),
-                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+                    @ApiResponse(responseCode = "401", description = "Unauthorized"),
+                    @ApiResponse(responseCode = "429", description = "Too many requests from this client or for this token"),
+                    @ApiResponse(responseCode = "503", description = "Too many requests are waiting to be authenticated, or the database is unavailable and there is no recent result for this token")
             }
     )
     public AuthResponse authenticate(@Parameter(hidden = true) @Auth Token token) {
-        return tokenService.authenticate(TokenHash.of(token.getName()));
+        return tokenService.authenticate(token);
     }
 
     @Path("/v1/frontend/auth")
@@ -277,7 +281,7 @@ public class PublicAuthResource {
         validatePayloadHasFields(payload, Collections.emptyList(), asList(TOKEN_LINK_FIELD, TOKEN_FIELD));
 
         if (payload.hasNonNull(TOKEN_FIELD)) {
-            return tokenService.extractEncryptedTokenFrom(payload.get(TOKEN_FIELD).asText())
+            return tokenService.extractEncryptedTokenToRevoke(payload.get(TOKEN_FIELD).asText())
                     .map(token -> tokenService.revokeToken(accountId, TokenHash.of(token.getName())))
                     .map(this::buildRevokedTokenResponse)
                     .orElseThrow(() -> new TokenNotFoundException("Could not extract encrypted token while revoking token"));
@@ -313,7 +317,7 @@ public class PublicAuthResource {
         validatePayloadHasFields(payload, Collections.emptyList(), asList(TOKEN_LINK_FIELD, TOKEN_FIELD));
 
         if (payload.hasNonNull(TOKEN_FIELD)) {
-            return tokenService.extractEncryptedTokenFrom(payload.get(TOKEN_FIELD).asText())
+            return tokenService.extractEncryptedTokenToRevoke(payload.get(TOKEN_FIELD).asText())
                     .map(token -> tokenService.revokeToken(serviceExternalId, serviceMode, TokenHash.of(token.getName())))
                     .map(this::buildRevokedTokenResponse)
                     .orElseThrow(() -> new TokenNotFoundException("Could not extract encrypted token while revoking token"));
@@ -0,0 +1,218 @@
+package uk.gov.pay.publicauth.service;
+
+import uk.gov.pay.publicauth.model.ServiceMode;
+
+import java.util.Optional;
+import java.util.zip.CRC32C;
+
+import static uk.gov.pay.publicauth.service.RandomIdGenerator.RANDOM_ID_LENGTH;
+import static uk.gov.pay.publicauth.service.RandomIdGenerator.RANDOM_ID_MAX_LENGTH;
+import static uk.gov.pay.publicauth.service.RandomIdGenerator.RANDOM_ID_MIN_LENGTH;
+
+/**
+ * Layout of the API keys we issue and accept.
+ * <p> Versioned keys have a fixed layout, so every segment sits at a known index:
+ * <pre>
+ *   [PREFIX] VERSION RANDOM_ID         HMAC
+ *   0 or 9   1       26 characters     32 characters
+ * </pre>
+ * The prefix, version and random id together form the token that is hashed and signed.
+ * Versioned keys are always longer than any legacy key with the same prefix, so the two
+ * can be told apart from the length and the version character alone. </p>
+ * <p> Version 2 keys append a checksum, the CRC32C of everything before it in 7 base32hex characters:
+ * <pre>
+ *   [PREFIX] VERSION RANDOM_ID         HMAC              CHECKSUM
+ *   0 or 9   1       26 characters     32 characters     7 characters
+ * </pre>
+ * The checksum is not a secret and proves nothing about who issued the key, but it costs
+ * nanoseconds to check, so mistyped, truncated and random keys are turned away before the HMAC. </p>
+ * <p> Version 3 keys add a key id, a single base32hex character naming the secret the HMAC was made with,
+ * so that secrets can be rotated without trying more than one per key:
+ * <pre>
+ *   [PREFIX] VERSION KEY_ID RANDOM_ID         HMAC              CHECKSUM
+ *   0 or 9   1       1      26 characters     32 characters     7 characters
+ * </pre>
+ * Keys of every other version were made with the default secret. </p>
+ * <p> Legacy keys are {@code [PREFIX] RANDOM_ID HMAC} where the random id has a variable length.
+ * They are still accepted, but can only be checked against the overall length bounds. </p>
+ * <p> Parsing only does index arithmetic over the incoming string and never copies it, so
+ * malformed keys are rejected before any hashing takes place. </p>
+ */
+final class ApiKeyFormat {
+
+    static final String PREFIX_TEST = "api_test_";
+    static final String PREFIX_LIVE = "api_live_";
+
+    static final int HMAC_SHA1_LENGTH = 32;
+    static final int CHECKSUM_LENGTH = 7;
+    static final int MALFORMED = -1;
+    static final int CHECKSUM_MISMATCH = -2;
+
+    static final char VERSION_1 = '1';
+    static final int VERSION_1_LENGTH = 1 + RANDOM_ID_LENGTH + HMAC_SHA1_LENGTH;
+    static final char VERSION_2 = '2';
+    static final int VERSION_2_LENGTH = VERSION_1_LENGTH + CHECKSUM_LENGTH;
+    static final char VERSION_3 = '3';
+    static final int VERSION_3_LENGTH = VERSION_2_LENGTH + 1;
+
+    static final int DEFAULT_KEY_ID = -1;
+    static final int MAX_KEY_IDS = 32;
+
+    private static final char[] BASE32_HEX_ALPHABET = "0123456789abcdefghijklmnopqrstuv".toCharArray();
+
+    private static final int PREFIX_LENGTH = PREFIX_LIVE.length();
+    private static final int LEGACY_MIN_LENGTH = HMAC_SHA1_LENGTH + RANDOM_ID_MIN_LENGTH;
+    private static final int LEGACY_MAX_LENGTH = PREFIX_LENGTH + HMAC_SHA1_LENGTH + RANDOM_ID_MAX_LENGTH;
+
+    private static final ThreadLocal<Checksum> CHECKSUM = ThreadLocal.withInitial(Checksum::new);
+
+    private ApiKeyFormat() {
+    }
+
+    static String token(String prefix, String randomId, boolean withChecksum) {
+        return prefix + (withChecksum ? VERSION_2 : VERSION_1) + randomId;
+    }
+
+    static String token(String prefix, int keyId, String randomId) {
+        return prefix + VERSION_3 + BASE32_HEX_ALPHABET[keyId] + randomId;
+    }
+
+    static String apiKey(String token, String hmac, boolean withChecksum) {
+        String apiKey = token + hmac;
+        if (withChecksum) {
+            char[] checksum = new char[CHECKSUM_LENGTH];
+            long crc = crc32c(apiKey, apiKey.length());
+            for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+                checksum[i] = checksumCharacter(crc, i);
+            }
+            return apiKey + new String(checksum);
+        }
+        return apiKey;
+    }
+
+    /**
+     * @return the index at which the {@link #HMAC_SHA1_LENGTH} characters of HMAC start, everything
+     * before it being the token, {@link #CHECKSUM_MISMATCH} if the key carries a checksum that does not
+     * match or {@link #MALFORMED} if the key cannot be one we issued
+     */
+    static int hmacIndex(String apiKey) {
+        int length = apiKey.length();
+        int prefixLength = prefixLength(apiKey);
+
+        if (length == prefixLength + VERSION_1_LENGTH && apiKey.charAt(prefixLength) == VERSION_1) {
+            return allBase32Hex(apiKey, prefixLength + 1, length) ? length - HMAC_SHA1_LENGTH : MALFORMED;
+        }
+
+        if ((length == prefixLength + VERSION_2_LENGTH && apiKey.charAt(prefixLength) == VERSION_2)
+                || (length == prefixLength + VERSION_3_LENGTH && apiKey.charAt(prefixLength) == VERSION_3)) {
+            if (!allBase32Hex(apiKey, prefixLength + 1, length)) {
+                return MALFORMED;
+            }
+            int checksumIndex = length - CHECKSUM_LENGTH;
+            return checksumMatches(apiKey, checksumIndex) ? checksumIndex - HMAC_SHA1_LENGTH : CHECKSUM_MISMATCH;
+        }
+
+        if (length >= LEGACY_MIN_LENGTH && length <= LEGACY_MAX_LENGTH) {
+            return length - HMAC_SHA1_LENGTH;
+        }
+        return MALFORMED;
+    }
+
+    /**
+     * @param apiKey a key {@link #hmacIndex} has accepted
+     * @return the id, from 0 to {@link #MAX_KEY_IDS} - 1, of the secret the key was signed with, or
+     * {@link #DEFAULT_KEY_ID} if the key does not carry one
+     */
+    static int keyId(String apiKey) {
+        int prefixLength = prefixLength(apiKey);
+        if (apiKey.length() == prefixLength + VERSION_3_LENGTH && apiKey.charAt(prefixLength) == VERSION_3) {
+            return keyIdOf(apiKey.charAt(prefixLength + 1));
+        }
+        return DEFAULT_KEY_ID;
+    }
+
+    /**
+     * @return the key id written as the base32hex character {@code c}, or {@link #DEFAULT_KEY_ID} if
+     * {@code c} is not a lowercase base32hex character
+     */
+    static int keyIdOf(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'v') {
+            return c - 'a' + 10;
+        }
+        return DEFAULT_KEY_ID;
+    }
+
+    /**
+     * @return the service mode the key's prefix names, if it has one. The prefix is chosen from the account
+     * type the key was issued for, which is expected to, but need not, match the service mode it is stored under
+     */
+    static Optional<ServiceMode> serviceMode(String apiKey) {
+        if (apiKey.startsWith(PREFIX_LIVE)) {
+            return Optional.of(ServiceMode.LIVE);
+        }
+        if (apiKey.startsWith(PREFIX_TEST)) {
+            return Optional.of(ServiceMode.TEST);
+        }
+        return Optional.empty();
+    }
+
+    private static int prefixLength(String apiKey) {
+        if (apiKey.startsWith(PREFIX_LIVE) || apiKey.startsWith(PREFIX_TEST)) {
+            return PREFIX_LENGTH;
+        }
+        return 0;
+    }
+
+    private static boolean checksumMatches(String apiKey, int checksumIndex) {
+        long crc = crc32c(apiKey, checksumIndex);
+        for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+            if (apiKey.charAt(checksumIndex + i) != checksumCharacter(crc, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long crc32c(String apiKey, int end) {
+        return CHECKSUM.get().crc32c(apiKey, end);
+    }
+
+    private static char checksumCharacter(long crc, int index) {
+        return BASE32_HEX_ALPHABET[(int) (crc >>> (5 * (CHECKSUM_LENGTH - 1 - index))) & 0x1f];
+    }
+
+    private static boolean allBase32Hex(String apiKey, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = apiKey.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'v')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Per-thread CRC32C and the buffer the key is copied into, so checking a checksum allocates nothing
+     * and the CRC is computed over one array rather than a character at a time.
+     */
+    private static final class Checksum {
+
+        private final CRC32C crc32c = new CRC32C();
+        private byte[] bytes = new byte[PREFIX_LENGTH + VERSION_3_LENGTH];
+
+        long crc32c(String apiKey, int end) {
+            if (end > bytes.length) {
+                bytes = new byte[end];
+            }
+            for (int i = 0; i < end; i++) {
+                bytes[i] = (byte) apiKey.charAt(i);
+            }
+            crc32c.reset();
+            crc32c.update(bytes, 0, end);
+            return crc32c.getValue();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package uk.gov.pay.publicauth.service;
+
+import com.google.common.io.BaseEncoding;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.DEFAULT_KEY_ID;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.MAX_KEY_IDS;
+
+/**
+ * Makes the HMAC of a token with the secret named by a key id, so that the secret can be rotated: new keys
+ * are signed with the newest secret while keys signed with older ones, and legacy keys signed with the
+ * default secret, are still accepted.
+ * <p> A key carries the id of its secret, so exactly one HMAC is computed for it however many secrets are
+ * configured. Each thread keeps a {@link Mac} per secret, initialised with its key the first time the thread
+ * uses it and found by id in an array afterwards, so there is no per-request provider lookup or key
+ * setup. </p>
+ */
+final class ApiKeySigner {
+
+    private static final String ALGORITHM = "HmacSHA1";
+    private static final BaseEncoding ENCODING = BaseEncoding.base32Hex().lowerCase().omitPadding();
+
+    // Slot 0 is the default secret, slot keyId + 1 the secret with that key id
+    private final SecretKeySpec[] secrets = new SecretKeySpec[MAX_KEY_IDS + 1];
+    private final ThreadLocal<Mac[]> macs = ThreadLocal.withInitial(() -> new Mac[MAX_KEY_IDS + 1]);
+
+    ApiKeySigner(String defaultSecret, Map<String, String> secretsByKeyId) {
+        secrets[0] = new SecretKeySpec(defaultSecret.getBytes(UTF_8), ALGORITHM);
+        secretsByKeyId.forEach((keyId, secret) -> {
+            int id = keyId.length() == 1 ? ApiKeyFormat.keyIdOf(keyId.charAt(0)) : DEFAULT_KEY_ID;
+            if (id == DEFAULT_KEY_ID) {
+                throw new IllegalArgumentException("API key HMAC key id must be a single lowercase base32hex character: " + keyId);
+            }
+            secrets[id + 1] = new SecretKeySpec(secret.getBytes(UTF_8), ALGORITHM);
+        });
+    }
+
+    boolean hasSecret(int keyId) {
+        return secrets[keyId + 1] != null;
+    }
+
+    /**
+     * @return the HMAC-SHA1 of the token in lowercase base32hex without padding
+     */
+    String sign(int keyId, String token) {
+        return ENCODING.encode(mac(keyId + 1).doFinal(token.getBytes(UTF_8)));
+    }
+
+    private Mac mac(int slot) {
+        Mac[] threadMacs = macs.get();
+        Mac mac = threadMacs[slot];
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+                mac.init(secrets[slot]);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Could not initialise " + ALGORITHM, e);
+            }
+            threadMacs[slot] = mac;
+        }
+        return mac;
+    }
+}
@@ -0,0 +1,356 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import uk.gov.pay.publicauth.app.config.AuthCacheConfiguration;
+import uk.gov.pay.publicauth.app.config.StaleIfErrorConfiguration;
+import uk.gov.pay.publicauth.dao.AuthTokenDao;
+import uk.gov.pay.publicauth.model.AuthResponse;
+import uk.gov.pay.publicauth.model.TokenEntity;
+import uk.gov.pay.publicauth.model.TokenHash;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of successful authentications, for when the {@link TokenIndex} is not holding every token.
+ * <p> Traffic is a few very hot keys and a long tail of keys seen once, so entries are not simply evicted in
+ * least recently used order, which would let the tail flush out the hot keys. Instead, as in W-TinyLFU,
+ * a new entry first goes into a small window kept in LRU order. When it leaves the window it is only
+ * admitted to the main cache, which is split into probation and protected segments, if a
+ * {@link FrequencySketch} says it has been seen more often than the entry it would evict. </p>
+ * <p> Entries expire a fixed time after they are written, which bounds how long a token revoked through
+ * another node can still authenticate here. When stale-if-error is enabled, expired entries are kept for
+ * up to its maximum staleness, so that {@link #findStale} can answer while the database is unavailable. </p>
+ * <p> So that a busy token does not periodically expire and make one request wait for the database, a hit
+ * on an entry older than the refresh time reloads it from the database in the background, on a bounded
+ * executor. The reloaded entry is only stored if the entry it replaces is still in the cache, so a refresh
+ * cannot bring back a token that was invalidated while it was being reloaded. </p>
+ * <p> Lookups only read a {@link ConcurrentHashMap}; keeping the policy up to date after a hit is skipped
+ * when another thread holds the policy lock, as losing some accesses only makes the frequencies a little
+ * less precise. </p>
+ */
+public class AuthCache {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int REMOVED = 3;
+
+    private final boolean enabled;
+    private final long expireAfterWriteNanos;
+    private final long retainForNanos;
+    private final long refreshAfterWriteNanos;
+    private final AuthTokenDao authTokenDao;
+    private final RejectedTokenCache rejectedTokenCache;
+    private final Executor refreshExecutor;
+    private final LongSupplier nanoClock;
+    private final int maximumWindowSize;
+    private final int maximumMainSize;
+    private final int maximumProtectedSize;
+
+    private final Map<TokenHash, Node> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final Node window = Node.sentinel();
+    private final Node probation = Node.sentinel();
+    private final Node protectedSegment = Node.sentinel();
+    private int windowSize;
+    private int probationSize;
+    private int protectedSize;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter admissionRejections;
+    private final Counter sketchResets;
+    private final Counter refreshes;
+    private final Counter refreshFailures;
+    private final Timer refreshLatency;
+
+    public AuthCache(AuthCacheConfiguration config, StaleIfErrorConfiguration staleIfErrorConfig, AuthTokenDao authTokenDao,
+                     RejectedTokenCache rejectedTokenCache, Executor refreshExecutor, MetricRegistry metricRegistry) {
+        this(config, staleIfErrorConfig, authTokenDao, rejectedTokenCache, refreshExecutor, metricRegistry, System::nanoTime);
+    }
+
+    AuthCache(AuthCacheConfiguration config, StaleIfErrorConfiguration staleIfErrorConfig, AuthTokenDao authTokenDao,
+              RejectedTokenCache rejectedTokenCache, Executor refreshExecutor, MetricRegistry metricRegistry, LongSupplier nanoClock) {
+        this.enabled = config.isEnabled();
+        this.expireAfterWriteNanos = config.getExpireAfterWrite().toNanoseconds();
+        this.retainForNanos = staleIfErrorConfig.isEnabled()
+                ? Math.max(expireAfterWriteNanos, staleIfErrorConfig.getMaxStaleness().toNanoseconds())
+                : expireAfterWriteNanos;
+        this.refreshAfterWriteNanos = config.getRefreshAfterWrite().toNanoseconds();
+        this.authTokenDao = authTokenDao;
+        this.rejectedTokenCache = rejectedTokenCache;
+        this.refreshExecutor = refreshExecutor;
+        this.nanoClock = nanoClock;
+        int maximumSize = config.getMaximumSize();
+        this.maximumWindowSize = Math.max(1, maximumSize * config.getWindowPercent() / 100);
+        this.maximumMainSize = Math.max(1, maximumSize - maximumWindowSize);
+        this.maximumProtectedSize = maximumMainSize * 4 / 5;
+        this.sketch = new FrequencySketch(maximumSize);
+        this.hits = metricRegistry.counter("tokens.auth-cache.hits");
+        this.misses = metricRegistry.counter("tokens.auth-cache.misses");
+        this.admissionRejections = metricRegistry.counter("tokens.auth-cache.admission-rejections");
+        this.sketchResets = metricRegistry.counter("tokens.auth-cache.sketch-resets");
+        this.refreshes = metricRegistry.counter("tokens.auth-cache.refreshes");
+        this.refreshFailures = metricRegistry.counter("tokens.auth-cache.refresh-failures");
+        this.refreshLatency = metricRegistry.timer("tokens.auth-cache.refresh-latency");
+        metricRegistry.gauge("tokens.auth-cache.size", () -> entries::size);
+        metricRegistry.register("tokens.auth-cache.hit-ratio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+            }
+        });
+    }
+
+    public Optional<AuthResponse> find(TokenHash tokenHash) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Node node = entries.get(tokenHash);
+        if (node != null) {
+            long age = nanoClock.getAsLong() - node.writtenAtNanos;
+            if (age > retainForNanos) {
+                invalidate(node);
+            }
+            if (age > expireAfterWriteNanos) {
+                node = null;
+            } else if (age > refreshAfterWriteNanos) {
+                refresh(node);
+            }
+        }
+        if (policyLock.tryLock()) {
+            try {
+                recordAccess(tokenHash, node);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        if (node == null) {
+            misses.inc();
+            return Optional.empty();
+        }
+        hits.inc();
+        return Optional.of(node.authResponse);
+    }
+
+    /**
+     * Finds an entry even if it has expired, as long as it was written no longer ago than the given maximum
+     * staleness, for answering when the database cannot be asked. Does not count as a hit or a miss.
+     */
+    public Optional<AuthResponse> findStale(TokenHash tokenHash, long maxStalenessNanos) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Node node = entries.get(tokenHash);
+        if (node == null || nanoClock.getAsLong() - node.writtenAtNanos > Math.min(maxStalenessNanos, retainForNanos)) {
+            return Optional.empty();
+        }
+        return Optional.of(node.authResponse);
+    }
+
+    public void put(TokenHash tokenHash, AuthResponse authResponse) {
+        if (!enabled) {
+            return;
+        }
+        Node node = new Node(tokenHash, authResponse, nanoClock.getAsLong());
+        policyLock.lock();
+        try {
+            Node previous = entries.put(tokenHash, node);
+            if (previous != null) {
+                unlink(previous);
+            }
+            linkFirst(window, node, WINDOW);
+            if (windowSize > maximumWindowSize) {
+                admitFromWindow();
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public void invalidate(TokenHash tokenHash) {
+        if (!enabled) {
+            return;
+        }
+        Node node = entries.get(tokenHash);
+        if (node != null) {
+            invalidate(node);
+        }
+    }
+
+    private void invalidate(Node node) {
+        policyLock.lock();
+        try {
+            if (entries.remove(node.tokenHash, node)) {
+                unlink(node);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void refresh(Node node) {
+        if (!node.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> reload(node));
+        } catch (RejectedExecutionException e) {
+            // The queue is full; the entry is still valid and a later hit will try again
+            node.refreshing.set(false);
+            refreshFailures.inc();
+        }
+    }
+
+    private void reload(Node node) {
+        long startedAtNanos = nanoClock.getAsLong();
+        try {
+            Optional<TokenEntity> tokenEntity = authTokenDao.findTokenByHash(node.tokenHash);
+            refreshes.inc();
+            refreshLatency.update(nanoClock.getAsLong() - startedAtNanos, TimeUnit.NANOSECONDS);
+            if (tokenEntity.isEmpty()) {
+                rejectedTokenCache.recordNotFound(node.tokenHash);
+                invalidate(node);
+            } else if (tokenEntity.get().getRevokedDate() != null) {
+                rejectedTokenCache.recordRevoked(node.tokenHash, tokenEntity.get().getTokenLink());
+                invalidate(node);
+            } else {
+                replace(node, new AuthResponse(tokenEntity.get()), startedAtNanos);
+            }
+        } catch (RuntimeException e) {
+            // The entry stays until it expires, so a failed refresh costs no more than not refreshing
+            refreshFailures.inc();
+        } finally {
+            node.refreshing.set(false);
+        }
+    }
+
+    private void replace(Node node, AuthResponse authResponse, long writtenAtNanos) {
+        policyLock.lock();
+        try {
+            if (entries.get(node.tokenHash) == node) {
+                node.authResponse = authResponse;
+                node.writtenAtNanos = writtenAtNanos;
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void recordAccess(TokenHash tokenHash, Node node) {
+        if (sketch.increment(TokenColumns.fingerprint(tokenHash.getValue()))) {
+            sketchResets.inc();
+        }
+        if (node == null || node.segment == REMOVED) {
+            return;
+        }
+        if (node.segment == PROBATION) {
+            unlink(node);
+            linkFirst(protectedSegment, node, PROTECTED);
+            if (protectedSize > maximumProtectedSize) {
+                Node demoted = protectedSegment.previous;
+                unlink(demoted);
+                linkFirst(probation, demoted, PROBATION);
+            }
+        } else {
+            Node head = node.segment == WINDOW ? window : protectedSegment;
+            int segment = node.segment;
+            unlink(node);
+            linkFirst(head, node, segment);
+        }
+    }
+
+    private void admitFromWindow() {
+        Node candidate = window.previous;
+        unlink(candidate);
+        if (probationSize + protectedSize < maximumMainSize) {
+            linkFirst(probation, candidate, PROBATION);
+            return;
+        }
+        Node victim = probationSize > 0 ? probation.previous : protectedSegment.previous;
+        if (frequency(candidate) > frequency(victim)) {
+            evict(victim);
+            linkFirst(probation, candidate, PROBATION);
+        } else {
+            evict(candidate);
+            admissionRejections.inc();
+        }
+    }
+
+    private int frequency(Node node) {
+        return sketch.frequency(TokenColumns.fingerprint(node.tokenHash.getValue()));
+    }
+
+    private void evict(Node node) {
+        if (node.segment != REMOVED) {
+            unlink(node);
+        }
+        entries.remove(node.tokenHash, node);
+    }
+
+    private void linkFirst(Node head, Node node, int segment) {
+        node.segment = segment;
+        node.previous = head;
+        node.next = head.next;
+        head.next.previous = node;
+        head.next = node;
+        adjustSize(segment, 1);
+    }
+
+    private void unlink(Node node) {
+        if (node.segment == REMOVED) {
+            return;
+        }
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        node.previous = null;
+        node.next = null;
+        adjustSize(node.segment, -1);
+        node.segment = REMOVED;
+    }
+
+    private void adjustSize(int segment, int delta) {
+        switch (segment) {
+            case WINDOW -> windowSize += delta;
+            case PROBATION -> probationSize += delta;
+            case PROTECTED -> protectedSize += delta;
+            default -> throw new IllegalStateException("Unknown segment " + segment);
+        }
+    }
+
+    private static final class Node {
+
+        private final TokenHash tokenHash;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile AuthResponse authResponse;
+        private volatile long writtenAtNanos;
+        private int segment = REMOVED;
+        private Node previous;
+        private Node next;
+
+        private Node(TokenHash tokenHash, AuthResponse authResponse, long writtenAtNanos) {
+            this.tokenHash = tokenHash;
+            this.authResponse = authResponse;
+            this.writtenAtNanos = writtenAtNanos;
+        }
+
+        private static Node sentinel() {
+            Node sentinel = new Node(null, null, 0);
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+            return sentinel;
+        }
+    }
+}
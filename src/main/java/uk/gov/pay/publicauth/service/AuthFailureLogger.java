@@ -0,0 +1,80 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.publicauth.app.config.AuthFailureLoggingConfiguration;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Logs keys rejected before they reach the database without letting an attack turn into a logging storm.
+ * <p> The first {@code fullLogsPerInterval} failures in each interval are logged in full. After that,
+ * failures are only counted, and {@link #logSummary()}, run once per interval, emits a single line with
+ * the counts by reason. Every failure is also counted in a {@code tokens.rejected.<reason>} metric. </p>
+ */
+public class AuthFailureLogger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuthFailureLogger.class);
+
+    public enum Reason {
+        MALFORMED("malformed", "key is not in a recognised layout"),
+        CHECKSUM("checksum", "key does not match its checksum"),
+        HMAC("hmac", "token does not match the given Hmac");
+
+        private final String metricName;
+        private final String description;
+
+        Reason(String metricName, String description) {
+            this.metricName = metricName;
+            this.description = description;
+        }
+    }
+
+    private final Logger logger;
+    private final int fullLogsPerInterval;
+    private final AtomicInteger loggedThisInterval = new AtomicInteger();
+    private final Map<Reason, LongAdder> countsThisInterval = new EnumMap<>(Reason.class);
+    private final Map<Reason, Counter> counters = new EnumMap<>(Reason.class);
+
+    public AuthFailureLogger(AuthFailureLoggingConfiguration config, MetricRegistry metricRegistry) {
+        this(config, metricRegistry, LOGGER);
+    }
+
+    AuthFailureLogger(AuthFailureLoggingConfiguration config, MetricRegistry metricRegistry, Logger logger) {
+        this.logger = logger;
+        this.fullLogsPerInterval = config.getFullLogsPerInterval();
+        for (Reason reason : Reason.values()) {
+            countsThisInterval.put(reason, new LongAdder());
+            counters.put(reason, metricRegistry.counter("tokens.rejected." + reason.metricName));
+        }
+    }
+
+    public void record(Reason reason) {
+        counters.get(reason).inc();
+        countsThisInterval.get(reason).increment();
+        // Checking before incrementing keeps the counter from contending or overflowing under an attack
+        if (loggedThisInterval.get() < fullLogsPerInterval && loggedThisInterval.getAndIncrement() < fullLogsPerInterval) {
+            logger.error("Authorisation failure - {}", reason.description);
+        }
+    }
+
+    public void logSummary() {
+        Map<Reason, Long> counts = Arrays.stream(Reason.values())
+                .collect(Collectors.toMap(reason -> reason, reason -> countsThisInterval.get(reason).sumThenReset(),
+                        (a, b) -> a, () -> new EnumMap<>(Reason.class)));
+        int logged = Math.min(loggedThisInterval.getAndSet(0), fullLogsPerInterval);
+        long total = counts.values().stream().mapToLong(Long::longValue).sum();
+
+        if (total > logged) {
+            logger.error("Authorisation failures - {} in the last interval, {} not logged individually. By reason: {}",
+                    total, total - logged, counts);
+        }
+    }
+}
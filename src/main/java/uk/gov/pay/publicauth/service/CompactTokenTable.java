@@ -0,0 +1,260 @@
+package uk.gov.pay.publicauth.service;
+
+import uk.gov.pay.publicauth.model.AuthResponse;
+import uk.gov.pay.publicauth.model.TokenEntity;
+import uk.gov.pay.publicauth.model.TokenHash;
+
+import java.util.Optional;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import static uk.gov.pay.publicauth.service.TokenColumns.EMPTY;
+import static uk.gov.pay.publicauth.service.TokenColumns.NONE;
+
+/**
+ * An open-addressing hash table of active tokens, keyed by a 64-bit fingerprint of the token hash, that
+ * stores each {@link TokenColumns column} in its own primitive array rather than holding a {@link TokenHash}
+ * and an {@link AuthResponse} per token.
+ * <p> There must be a single writer. Lookups read a slot under a {@link StampedLock} optimistic read and only
+ * take the read lock to retry if a write happened meanwhile, so probing allocates nothing. Only a hit builds
+ * the {@link AuthResponse} returned to the caller. The dictionary only grows, so a table should be
+ * replaced rather than cleared when it is reloaded. </p>
+ */
+class CompactTokenTable implements TokenTable {
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+
+    private final StampedLock lock = new StampedLock();
+    private final TokenColumns columns = new TokenColumns();
+    private volatile Slots slots;
+    private volatile int size;
+
+    CompactTokenTable() {
+        this(MIN_CAPACITY);
+    }
+
+    CompactTokenTable(int expectedSize) {
+        this.slots = new Slots(capacityFor(expectedSize));
+    }
+
+    @Override
+    public Optional<AuthResponse> find(TokenHash tokenHash) {
+        String value = tokenHash.getValue();
+        long fingerprint = TokenColumns.fingerprint(value);
+        long check = TokenColumns.check(value);
+
+        long stamp = lock.tryOptimisticRead();
+        Slots current = slots;
+        int slot = current.indexOf(fingerprint, check);
+        int accountId = NONE;
+        int serviceExternalId = NONE;
+        int attributes = 0;
+        long linkHigh = 0;
+        long linkLow = 0;
+        if (slot != NONE) {
+            accountId = current.accountIds[slot];
+            serviceExternalId = current.serviceExternalIds[slot];
+            attributes = current.attributes[slot];
+            linkHigh = current.linkHighs[slot];
+            linkLow = current.linkLows[slot];
+        }
+        if (!lock.validate(stamp)) {
+            // Retrying under the read lock keeps a busy writer from starving the lookup
+            stamp = lock.readLock();
+            try {
+                current = slots;
+                slot = current.indexOf(fingerprint, check);
+                if (slot != NONE) {
+                    accountId = current.accountIds[slot];
+                    serviceExternalId = current.serviceExternalIds[slot];
+                    attributes = current.attributes[slot];
+                    linkHigh = current.linkHighs[slot];
+                    linkLow = current.linkLows[slot];
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return slot == NONE ? Optional.empty()
+                : Optional.of(columns.toAuthResponse(accountId, serviceExternalId, attributes, linkHigh, linkLow));
+    }
+
+    @Override
+    public void put(TokenHash tokenHash, TokenEntity tokenEntity) {
+        put(columns.encode(tokenHash, tokenEntity));
+    }
+
+    @Override
+    public void put(TokenColumns.EncodedToken token) {
+        long stamp = lock.writeLock();
+        try {
+            Slots current = slots;
+            int slot = current.indexOf(token.fingerprint, token.check);
+            if (slot == NONE) {
+                if (size + 1 > current.capacity() * MAX_LOAD_FACTOR) {
+                    current = resize(current.capacity() * 2);
+                }
+                slot = current.emptySlotFor(token.fingerprint);
+                current.fingerprints[slot] = token.fingerprint;
+                current.checks[slot] = token.check;
+                size++;
+            }
+            current.accountIds[slot] = token.accountId;
+            current.serviceExternalIds[slot] = token.serviceExternalId;
+            current.attributes[slot] = token.attributes;
+            current.linkHighs[slot] = token.linkHigh;
+            current.linkLows[slot] = token.linkLow;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void remove(TokenHash tokenHash) {
+        String value = tokenHash.getValue();
+        long fingerprint = TokenColumns.fingerprint(value);
+        long check = TokenColumns.check(value);
+
+        long stamp = lock.writeLock();
+        try {
+            Slots current = slots;
+            int slot = current.indexOf(fingerprint, check);
+            if (slot != NONE) {
+                current.delete(slot);
+                size--;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(Consumer<TokenColumns.EncodedToken> consumer) {
+        Slots current = slots;
+        TokenColumns.EncodedToken token = new TokenColumns.EncodedToken();
+        for (int slot = 0; slot < current.capacity(); slot++) {
+            if (current.fingerprints[slot] != EMPTY) {
+                token.fingerprint = current.fingerprints[slot];
+                token.check = current.checks[slot];
+                token.accountId = current.accountIds[slot];
+                token.serviceExternalId = current.serviceExternalIds[slot];
+                token.attributes = current.attributes[slot];
+                token.linkHigh = current.linkHighs[slot];
+                token.linkLow = current.linkLows[slot];
+                consumer.accept(token);
+            }
+        }
+    }
+
+    @Override
+    public TokenColumns columns() {
+        return columns;
+    }
+
+    private Slots resize(int capacity) {
+        Slots previous = slots;
+        Slots resized = new Slots(capacity);
+        for (int i = 0; i < previous.capacity(); i++) {
+            if (previous.fingerprints[i] != EMPTY) {
+                int slot = resized.emptySlotFor(previous.fingerprints[i]);
+                resized.copyFrom(previous, i, slot);
+            }
+        }
+        slots = resized;
+        return resized;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD_FACTOR < expectedSize) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * The parallel arrays, swapped as a whole on resize so that a lookup always sees arrays of one length.
+     */
+    private static final class Slots {
+
+        private final long[] fingerprints;
+        private final long[] checks;
+        private final int[] accountIds;
+        private final int[] serviceExternalIds;
+        private final byte[] attributes;
+        private final long[] linkHighs;
+        private final long[] linkLows;
+        private final int mask;
+
+        Slots(int capacity) {
+            this.fingerprints = new long[capacity];
+            this.checks = new long[capacity];
+            this.accountIds = new int[capacity];
+            this.serviceExternalIds = new int[capacity];
+            this.attributes = new byte[capacity];
+            this.linkHighs = new long[capacity];
+            this.linkLows = new long[capacity];
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return fingerprints.length;
+        }
+
+        int indexOf(long fingerprint, long check) {
+            int slot = (int) fingerprint & mask;
+            // Bounded by the capacity so that a lookup racing a writer cannot spin on a half-written table
+            for (int probes = 0; probes <= mask; probes++) {
+                long current = fingerprints[slot];
+                if (current == EMPTY) {
+                    return NONE;
+                }
+                if (current == fingerprint && checks[slot] == check) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return NONE;
+        }
+
+        int emptySlotFor(long fingerprint) {
+            int slot = (int) fingerprint & mask;
+            while (fingerprints[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        void copyFrom(Slots other, int from, int to) {
+            fingerprints[to] = other.fingerprints[from];
+            checks[to] = other.checks[from];
+            accountIds[to] = other.accountIds[from];
+            serviceExternalIds[to] = other.serviceExternalIds[from];
+            attributes[to] = other.attributes[from];
+            linkHighs[to] = other.linkHighs[from];
+            linkLows[to] = other.linkLows[from];
+        }
+
+        void delete(int slot) {
+            // Shifts later entries of the probe sequence back, so no tombstones are needed
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (fingerprints[next] != EMPTY) {
+                int home = (int) fingerprints[next] & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    copyFrom(this, next, hole);
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            fingerprints[hole] = EMPTY;
+            checks[hole] = 0;
+        }
+    }
+}
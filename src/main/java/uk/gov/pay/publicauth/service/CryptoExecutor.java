@@ -0,0 +1,91 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import uk.gov.pay.publicauth.app.config.CryptoExecutorConfiguration;
+import uk.gov.pay.publicauth.exception.ServiceBusyException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs CPU-bound hashing, BCrypt in particular, on a fixed pool of threads, by default one per processor,
+ * rather than on whichever request thread needs it.
+ * <p> However many requests arrive at once, no more hashes are computed at a time than there are threads,
+ * so a burst of key hashing cannot take the CPU from requests that only need a cached lookup. Work waits
+ * in a bounded queue; when that is full, {@link #call} fails straight away with a
+ * {@link ServiceBusyException} rather than letting the backlog, and every caller's wait, grow. </p>
+ * <p> When disabled, work runs on the calling thread as before. </p>
+ */
+public class CryptoExecutor implements Managed {
+
+    private final boolean enabled;
+    private final ThreadPoolExecutor executor;
+    private final Timer waitTime;
+    private final Counter rejections;
+
+    public CryptoExecutor(CryptoExecutorConfiguration config, MetricRegistry metricRegistry) {
+        this.enabled = config.isEnabled();
+        int threads = config.getThreads() > 0 ? config.getThreads() : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getQueueSize()), new CryptoThreadFactory());
+        this.waitTime = metricRegistry.timer("tokens.crypto.wait-time");
+        this.rejections = metricRegistry.counter("tokens.crypto.rejections");
+        metricRegistry.gauge("tokens.crypto.queue-depth", () -> () -> executor.getQueue().size());
+    }
+
+    public <T> T call(Supplier<T> work) {
+        if (!enabled) {
+            return work.get();
+        }
+        long submittedAtNanos = System.nanoTime();
+        Future<T> result;
+        try {
+            result = executor.submit(() -> {
+                waitTime.update(System.nanoTime() - submittedAtNanos, TimeUnit.NANOSECONDS);
+                return work.get();
+            });
+        } catch (RejectedExecutionException e) {
+            rejections.inc();
+            throw new ServiceBusyException("Too many requests are waiting to be authenticated");
+        }
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for hashing to complete", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        executor.shutdown();
+    }
+
+    private static final class CryptoThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "crypto-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
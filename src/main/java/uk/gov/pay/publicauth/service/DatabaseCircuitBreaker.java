@@ -0,0 +1,83 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.publicauth.app.config.StaleIfErrorConfiguration;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops authentication sending queries to a database that keeps failing, for example during a failover,
+ * so requests are answered straight away instead of each waiting for a connection that will not come.
+ * <p> After the configured number of consecutive failures the breaker opens and {@link #allowRequest()}
+ * is false for the open duration. After that a single trial request is let through: if it succeeds the
+ * breaker closes, and if it fails the breaker stays open for another open duration. </p>
+ */
+public class DatabaseCircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseCircuitBreaker.class);
+
+    private final boolean enabled;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final LongSupplier nanoClock;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean trialInFlight = new AtomicBoolean();
+    private volatile long openUntilNanos;
+
+    private final Counter opened;
+
+    public DatabaseCircuitBreaker(StaleIfErrorConfiguration config, MetricRegistry metricRegistry) {
+        this(config, metricRegistry, System::nanoTime);
+    }
+
+    DatabaseCircuitBreaker(StaleIfErrorConfiguration config, MetricRegistry metricRegistry, LongSupplier nanoClock) {
+        this.enabled = config.isEnabled();
+        this.failureThreshold = config.getFailureThreshold();
+        this.openDurationNanos = config.getOpenDuration().toNanoseconds();
+        this.nanoClock = nanoClock;
+        this.opened = metricRegistry.counter("tokens.database-circuit.opened");
+        metricRegistry.gauge("tokens.database-circuit.open", () -> () -> isOpen() ? 1 : 0);
+    }
+
+    public boolean allowRequest() {
+        if (!isOpen()) {
+            return true;
+        }
+        if (nanoClock.getAsLong() - openUntilNanos < 0) {
+            return false;
+        }
+        return trialInFlight.compareAndSet(false, true);
+    }
+
+    public void recordSuccess() {
+        if (consecutiveFailures.getAndSet(0) >= failureThreshold) {
+            LOGGER.info("Database circuit closed after a successful query");
+        }
+        trialInFlight.set(false);
+    }
+
+    public void recordFailure() {
+        if (!enabled) {
+            return;
+        }
+        int failures = consecutiveFailures.incrementAndGet();
+        boolean trialFailed = trialInFlight.getAndSet(false);
+        if (failures >= failureThreshold) {
+            openUntilNanos = nanoClock.getAsLong() + openDurationNanos;
+        }
+        if (failures == failureThreshold || trialFailed) {
+            opened.inc();
+            LOGGER.warn("Database circuit opened after {} consecutive failed queries", failures);
+        }
+    }
+
+    private boolean isOpen() {
+        return enabled && consecutiveFailures.get() >= failureThreshold;
+    }
+}
@@ -0,0 +1,278 @@
+package uk.gov.pay.publicauth.service;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * BCrypt with a single salt, producing exactly the same hashes as jBCrypt's {@code BCrypt.hashpw} for that
+ * salt, without its allocation.
+ * <p> jBCrypt parses the salt string and allocates a fresh copy of the Blowfish state, over 4 KB, plus
+ * several byte and character buffers and a {@link StringBuilder}, for every hash. Here the salt is parsed
+ * once, when the hasher is created, along with the fixed start of every hash. Each thread keeps its own
+ * Blowfish state, key buffer and output buffer, so the only allocation per hash is the resulting string. </p>
+ * <p> Only the {@code $2$} and {@code $2a$} versions that jBCrypt supports are accepted. </p>
+ */
+class FixedSaltBCrypt {
+
+    private static final int SALT_LENGTH = 16;
+    private static final int ENCODED_SALT_LENGTH = 22;
+    private static final int BLOWFISH_ROUNDS = 16;
+    private static final int HASH_BYTES = 23;
+    private static final int ENCODED_HASH_LENGTH = 31;
+
+    // "OrpheanBeholderScryDoubt", which is encrypted to produce the hash
+    private static final int[] CIPHERTEXT = {
+            0x4f727068, 0x65616e42, 0x65686f6c, 0x64657253, 0x63727944, 0x6f756274
+    };
+
+    private static final char[] BASE64_CODE =
+            "./ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    private static final byte[] BASE64_INDEX = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_INDEX, (byte) -1);
+        for (int i = 0; i < BASE64_CODE.length; i++) {
+            BASE64_INDEX[BASE64_CODE[i]] = (byte) i;
+        }
+    }
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private final byte[] salt;
+    private final int rounds;
+    private final boolean nullTerminated;
+    private final char[] prefix;
+
+    FixedSaltBCrypt(String encodedSalt) {
+        if (encodedSalt.length() < 7 || encodedSalt.charAt(0) != '$' || encodedSalt.charAt(1) != '2') {
+            throw new IllegalArgumentException("Invalid salt version");
+        }
+        int offset;
+        char minor = encodedSalt.charAt(2);
+        if (minor == '$') {
+            offset = 3;
+        } else if (minor == 'a' && encodedSalt.charAt(3) == '$') {
+            offset = 4;
+        } else {
+            throw new IllegalArgumentException("Invalid salt revision");
+        }
+        if (encodedSalt.length() < offset + 3 + ENCODED_SALT_LENGTH || encodedSalt.charAt(offset + 2) != '$') {
+            throw new IllegalArgumentException("Missing salt rounds");
+        }
+        int logRounds = Integer.parseInt(encodedSalt.substring(offset, offset + 2));
+        if (logRounds < 4 || logRounds > 30) {
+            throw new IllegalArgumentException("Bad number of rounds");
+        }
+
+        this.salt = decodeSalt(encodedSalt.substring(offset + 3, offset + 3 + ENCODED_SALT_LENGTH));
+        this.rounds = 1 << logRounds;
+        this.nullTerminated = minor == 'a';
+        // Built from the decoded salt, as jBCrypt does, which drops any unused bits of the last character
+        this.prefix = (encodedSalt.substring(0, offset + 3) + encode(salt)).toCharArray();
+    }
+
+    String hash(String password) {
+        State state = STATE.get();
+        int keyLength = state.setKey(password, nullTerminated);
+        int[] p = state.p;
+        int[] s = state.s;
+        byte[] key = state.key;
+
+        System.arraycopy(BlowfishTables.P, 0, p, 0, p.length);
+        System.arraycopy(BlowfishTables.S, 0, s, 0, s.length);
+        expandKey(state, key, keyLength, salt, salt.length);
+        for (int i = 0; i < rounds; i++) {
+            expandKey(state, key, keyLength, null, 0);
+            expandKey(state, salt, salt.length, null, 0);
+        }
+
+        int[] text = state.text;
+        System.arraycopy(CIPHERTEXT, 0, text, 0, text.length);
+        for (int i = 0; i < 64; i++) {
+            for (int j = 0; j < text.length; j += 2) {
+                encipher(p, s, text, j);
+            }
+        }
+
+        char[] output = state.output;
+        System.arraycopy(prefix, 0, output, 0, prefix.length);
+        encodeHash(text, output, prefix.length);
+        return new String(output, 0, prefix.length + ENCODED_HASH_LENGTH);
+    }
+
+    /**
+     * Mixes the key into the subkeys and then, with data (if any) mixed into each block, re-encrypts every
+     * subkey and S-box entry in turn. With no data this is Blowfish's own key schedule; with the salt as data
+     * it is the expensive key setup that BCrypt adds.
+     */
+    private static void expandKey(State state, byte[] key, int keyLength, byte[] data, int dataLength) {
+        int[] p = state.p;
+        int[] s = state.s;
+        int[] block = state.block;
+        int keyOffset = 0;
+        for (int i = 0; i < p.length; i++) {
+            int word = 0;
+            for (int j = 0; j < 4; j++) {
+                word = (word << 8) | (key[keyOffset] & 0xff);
+                keyOffset = (keyOffset + 1) % keyLength;
+            }
+            p[i] ^= word;
+        }
+
+        int dataOffset = 0;
+        block[0] = 0;
+        block[1] = 0;
+        for (int i = 0; i < p.length + s.length; i += 2) {
+            if (data != null) {
+                for (int half = 0; half < 2; half++) {
+                    int word = 0;
+                    for (int j = 0; j < 4; j++) {
+                        word = (word << 8) | (data[dataOffset] & 0xff);
+                        dataOffset = (dataOffset + 1) % dataLength;
+                    }
+                    block[half] ^= word;
+                }
+            }
+            encipher(p, s, block, 0);
+            if (i < p.length) {
+                p[i] = block[0];
+                p[i + 1] = block[1];
+            } else {
+                s[i - p.length] = block[0];
+                s[i - p.length + 1] = block[1];
+            }
+        }
+    }
+
+    private static void encipher(int[] p, int[] s, int[] block, int offset) {
+        int left = block[offset] ^ p[0];
+        int right = block[offset + 1];
+        for (int i = 1; i < BLOWFISH_ROUNDS; i += 2) {
+            right ^= feistel(s, left) ^ p[i];
+            left ^= feistel(s, right) ^ p[i + 1];
+        }
+        block[offset] = right ^ p[BLOWFISH_ROUNDS + 1];
+        block[offset + 1] = left;
+    }
+
+    private static int feistel(int[] s, int x) {
+        return ((s[x >>> 24] + s[0x100 | ((x >>> 16) & 0xff)]) ^ s[0x200 | ((x >>> 8) & 0xff)]) + s[0x300 | (x & 0xff)];
+    }
+
+    private static void encodeHash(int[] text, char[] output, int offset) {
+        int out = offset;
+        for (int i = 0; i < HASH_BYTES; i += 3) {
+            int b1 = byteOf(text, i);
+            output[out++] = BASE64_CODE[b1 >>> 2];
+            if (i + 1 >= HASH_BYTES) {
+                output[out] = BASE64_CODE[(b1 & 0x03) << 4];
+                return;
+            }
+            int b2 = byteOf(text, i + 1);
+            output[out++] = BASE64_CODE[((b1 & 0x03) << 4) | (b2 >>> 4)];
+            if (i + 2 >= HASH_BYTES) {
+                output[out] = BASE64_CODE[(b2 & 0x0f) << 2];
+                return;
+            }
+            int b3 = byteOf(text, i + 2);
+            output[out++] = BASE64_CODE[((b2 & 0x0f) << 2) | (b3 >>> 6)];
+            output[out++] = BASE64_CODE[b3 & 0x3f];
+        }
+    }
+
+    private static int byteOf(int[] words, int index) {
+        return (words[index >>> 2] >>> (24 - 8 * (index & 3))) & 0xff;
+    }
+
+    private static String encode(byte[] bytes) {
+        StringBuilder encoded = new StringBuilder();
+        for (int i = 0; i < bytes.length; i += 3) {
+            int b1 = bytes[i] & 0xff;
+            encoded.append(BASE64_CODE[b1 >>> 2]);
+            if (i + 1 >= bytes.length) {
+                encoded.append(BASE64_CODE[(b1 & 0x03) << 4]);
+                break;
+            }
+            int b2 = bytes[i + 1] & 0xff;
+            encoded.append(BASE64_CODE[((b1 & 0x03) << 4) | (b2 >>> 4)]);
+            if (i + 2 >= bytes.length) {
+                encoded.append(BASE64_CODE[(b2 & 0x0f) << 2]);
+                break;
+            }
+            int b3 = bytes[i + 2] & 0xff;
+            encoded.append(BASE64_CODE[((b2 & 0x0f) << 2) | (b3 >>> 6)]);
+            encoded.append(BASE64_CODE[b3 & 0x3f]);
+        }
+        return encoded.toString();
+    }
+
+    private static byte[] decodeSalt(String encoded) {
+        byte[] decoded = new byte[SALT_LENGTH];
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < encoded.length() && length < SALT_LENGTH; i++) {
+            char c = encoded.charAt(i);
+            int value = c < BASE64_INDEX.length ? BASE64_INDEX[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid salt character");
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                decoded[length++] = (byte) (bits >>> bitCount);
+            }
+        }
+        return decoded;
+    }
+
+    private static final class State {
+
+        private final int[] p = new int[BlowfishTables.P.length];
+        private final int[] s = new int[BlowfishTables.S.length];
+        private final int[] block = new int[2];
+        private final int[] text = new int[CIPHERTEXT.length];
+        private final char[] output = new char[64];
+        private byte[] key = new byte[64];
+
+        /**
+         * Puts the password into the key buffer in UTF-8, as jBCrypt does, growing the buffer if needed.
+         *
+         * @return the length of the key
+         */
+        int setKey(String password, boolean nullTerminated) {
+            int length = password.length() + (nullTerminated ? 1 : 0);
+            ensureKeyCapacity(length);
+            for (int i = 0; i < password.length(); i++) {
+                char c = password.charAt(i);
+                if (c >= 0x80) {
+                    return setKeyFromUtf8(password, nullTerminated);
+                }
+                key[i] = (byte) c;
+            }
+            if (nullTerminated) {
+                key[password.length()] = 0;
+            }
+            return length;
+        }
+
+        private int setKeyFromUtf8(String password, boolean nullTerminated) {
+            byte[] utf8 = password.getBytes(UTF_8);
+            int length = utf8.length + (nullTerminated ? 1 : 0);
+            ensureKeyCapacity(length);
+            System.arraycopy(utf8, 0, key, 0, utf8.length);
+            if (nullTerminated) {
+                key[utf8.length] = 0;
+            }
+            return length;
+        }
+
+        private void ensureKeyCapacity(int length) {
+            if (key.length < length) {
+                key = new byte[Math.max(length, key.length * 2)];
+            }
+        }
+    }
+}
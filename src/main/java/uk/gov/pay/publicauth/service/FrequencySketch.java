@@ -0,0 +1,76 @@
+package uk.gov.pay.publicauth.service;
+
+/**
+ * A count-min sketch of how often each key has been seen recently, for the admission policy of the
+ * {@link AuthCache}.
+ * <p> Each key maps to four 4-bit counters, so a frequency is at most 15 and the estimate is the smallest
+ * of the four. Once as many increments have been counted as ten times the cache size, every counter is
+ * halved, so that keys which were popular a while ago gradually stop outranking keys popular now. </p>
+ * <p> Not thread-safe. </p>
+ */
+class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    FrequencySketch(int maximumSize) {
+        int tableSize = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1;
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = 10 * Math.max(maximumSize, 1);
+    }
+
+    int frequency(long keyHash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long hash = rehash(keyHash, i);
+            int shift = ((int) hash & 15) << 2;
+            frequency = Math.min(frequency, (int) ((table[index(hash)] >>> shift) & 0xf));
+        }
+        return frequency;
+    }
+
+    /**
+     * @return whether the increment caused the counters to be halved
+     */
+    boolean increment(long keyHash) {
+        boolean incremented = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long hash = rehash(keyHash, i);
+            int index = index(hash);
+            int shift = ((int) hash & 15) << 2;
+            if (((table[index] >>> shift) & 0xf) < 15) {
+                table[index] += 1L << shift;
+                incremented = true;
+            }
+        }
+        if (incremented && ++size == sampleSize) {
+            reset();
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size /= 2;
+    }
+
+    private int index(long hash) {
+        return (int) (hash >>> 32) & tableMask;
+    }
+
+    private static long rehash(long keyHash, int i) {
+        long hash = (keyHash + SEEDS[i]) * SEEDS[i];
+        return hash ^ (hash >>> 29);
+    }
+}
@@ -0,0 +1,74 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.publicauth.app.config.HealthCheckSchedulerConfiguration;
+
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the registered health checks in the background and keeps the latest results, so that
+ * {@code /healthcheck} probes are answered from memory instead of each one borrowing a database
+ * connection from the pool that serves authentication.
+ * <p> {@link #runHealthChecks()} is meant to be scheduled at a fixed interval. Results older than
+ * the staleness limit are still returned, but are reported as stale so the probe fails. </p>
+ */
+public class HealthCheckScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HealthCheckScheduler.class);
+
+    private final HealthCheckRegistry healthCheckRegistry;
+    private final long stalenessLimitNanos;
+    private final LongSupplier nanoClock;
+    private volatile Results latestResults;
+
+    public HealthCheckScheduler(HealthCheckRegistry healthCheckRegistry, HealthCheckSchedulerConfiguration config) {
+        this(healthCheckRegistry, config, System::nanoTime);
+    }
+
+    HealthCheckScheduler(HealthCheckRegistry healthCheckRegistry, HealthCheckSchedulerConfiguration config, LongSupplier nanoClock) {
+        this.healthCheckRegistry = healthCheckRegistry;
+        this.stalenessLimitNanos = config.getStalenessLimit().toNanoseconds();
+        this.nanoClock = nanoClock;
+    }
+
+    public void runHealthChecks() {
+        try {
+            latestResults = new Results(healthCheckRegistry.runHealthChecks(), nanoClock.getAsLong());
+        } catch (RuntimeException e) {
+            // Letting this escape would cancel the schedule and leave the last results to go stale
+            LOGGER.error("Failed to run health checks", e);
+        }
+    }
+
+    public Optional<Results> getLatestResults() {
+        return Optional.ofNullable(latestResults);
+    }
+
+    public class Results {
+
+        private final SortedMap<String, HealthCheck.Result> results;
+        private final long completedAtNanos;
+
+        private Results(SortedMap<String, HealthCheck.Result> results, long completedAtNanos) {
+            this.results = results;
+            this.completedAtNanos = completedAtNanos;
+        }
+
+        public SortedMap<String, HealthCheck.Result> getResults() {
+            return results;
+        }
+
+        public long getAgeInSeconds() {
+            return (nanoClock.getAsLong() - completedAtNanos) / 1_000_000_000L;
+        }
+
+        public boolean isStale() {
+            return nanoClock.getAsLong() - completedAtNanos > stalenessLimitNanos;
+        }
+    }
+}
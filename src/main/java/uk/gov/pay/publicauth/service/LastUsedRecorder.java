@@ -0,0 +1,56 @@
+package uk.gov.pay.publicauth.service;
+
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.publicauth.dao.AuthTokenDao;
+import uk.gov.pay.publicauth.model.TokenHash;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records that tokens have been used without a database write per request. Uses are collected
+ * in memory and {@link #flush()}, scheduled at a fixed interval, updates them in statements of
+ * at most {@value #FLUSH_CHUNK_SIZE} tokens, so last_used is accurate to within that interval.
+ */
+public class LastUsedRecorder implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LastUsedRecorder.class);
+    static final int FLUSH_CHUNK_SIZE = 1000;
+
+    private final AuthTokenDao authTokenDao;
+    private final Set<TokenHash> usedTokens = ConcurrentHashMap.newKeySet();
+
+    public LastUsedRecorder(AuthTokenDao authTokenDao) {
+        this.authTokenDao = authTokenDao;
+    }
+
+    public void record(TokenHash tokenHash) {
+        usedTokens.add(tokenHash);
+    }
+
+    public void flush() {
+        if (usedTokens.isEmpty()) {
+            return;
+        }
+        List<TokenHash> tokenHashes = new ArrayList<>(usedTokens);
+        usedTokens.removeAll(tokenHashes);
+        for (int from = 0; from < tokenHashes.size(); from += FLUSH_CHUNK_SIZE) {
+            List<TokenHash> chunk = tokenHashes.subList(from, Math.min(from + FLUSH_CHUNK_SIZE, tokenHashes.size()));
+            try {
+                authTokenDao.updateLastUsedTime(chunk);
+            } catch (RuntimeException e) {
+                // Losing a round of last used times is better than letting an exception cancel the schedule
+                LOGGER.error("Failed to record last used time for {} tokens", chunk.size(), e);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        flush();
+    }
+}
@@ -0,0 +1,254 @@
+package uk.gov.pay.publicauth.service;
+
+import uk.gov.pay.publicauth.model.AuthResponse;
+import uk.gov.pay.publicauth.model.TokenEntity;
+import uk.gov.pay.publicauth.model.TokenHash;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Optional;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static uk.gov.pay.publicauth.service.TokenColumns.EMPTY;
+import static uk.gov.pay.publicauth.service.TokenColumns.NONE;
+
+/**
+ * The same open-addressing table as {@link CompactTokenTable}, but with every slot held in native memory,
+ * so that neither heap occupancy nor garbage collection work grows with the number of tokens. Only the
+ * dictionary of account ids, service external ids and non-UUID token links stays on the heap.
+ * <p> Each slot is a fixed {@value #SLOT_SIZE}-byte record. There must be a single writer. Reads are
+ * optimistic reads that retry: they take no lock, but repeat until a {@link StampedLock} stamp shows no
+ * write touched the slot while they read it. A resize copies into a new segment while readers keep using
+ * the old one, and then swaps it in under the write lock, so every read begun on the old segment retries
+ * on the new one. The old segment is then freed straight away rather than once the garbage collector
+ * notices it; a read still touching it fails and retries like any other. A table that is no longer used
+ * must be {@link #release() released}, or its memory is never freed. </p>
+ */
+class OffHeapTokenTable implements TokenTable {
+
+    private static final long MIN_CAPACITY = 1024;
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+
+    private static final long FINGERPRINT = 0;
+    private static final long CHECK = 8;
+    private static final long LINK_HIGH = 16;
+    private static final long LINK_LOW = 24;
+    private static final long ACCOUNT_ID = 32;
+    private static final long SERVICE_EXTERNAL_ID = 36;
+    private static final long ATTRIBUTES = 40;
+    private static final long SLOT_SIZE = 48;
+
+    private final StampedLock lock = new StampedLock();
+    private final TokenColumns columns = new TokenColumns();
+    private volatile Slots slots = new Slots(MIN_CAPACITY);
+    private volatile int size;
+
+    @Override
+    public Optional<AuthResponse> find(TokenHash tokenHash) {
+        String value = tokenHash.getValue();
+        long fingerprint = TokenColumns.fingerprint(value);
+        long check = TokenColumns.check(value);
+
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            Slots current = slots;
+            try {
+                long offset = current.offsetOf(fingerprint, check);
+                int accountId = NONE;
+                int serviceExternalId = NONE;
+                int attributes = 0;
+                long linkHigh = 0;
+                long linkLow = 0;
+                if (offset != NONE) {
+                    MemorySegment segment = current.segment;
+                    accountId = segment.get(JAVA_INT, offset + ACCOUNT_ID);
+                    serviceExternalId = segment.get(JAVA_INT, offset + SERVICE_EXTERNAL_ID);
+                    attributes = segment.get(JAVA_BYTE, offset + ATTRIBUTES);
+                    linkHigh = segment.get(JAVA_LONG, offset + LINK_HIGH);
+                    linkLow = segment.get(JAVA_LONG, offset + LINK_LOW);
+                }
+                if (lock.validate(stamp)) {
+                    return offset == NONE ? Optional.empty()
+                            : Optional.of(columns.toAuthResponse(accountId, serviceExternalId, attributes, linkHigh, linkLow));
+                }
+            } catch (IllegalStateException e) {
+                // A segment freed by a resize part way through has already been replaced; one freed by release has not
+                if (slots == current) {
+                    throw e;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public void put(TokenHash tokenHash, TokenEntity tokenEntity) {
+        put(columns.encode(tokenHash, tokenEntity));
+    }
+
+    @Override
+    public void put(TokenColumns.EncodedToken token) {
+        Slots current = slots;
+        long offset = current.offsetOf(token.fingerprint, token.check);
+        boolean added = offset == NONE;
+        if (added && size + 1 > current.capacity * MAX_LOAD_FACTOR) {
+            // Only this thread writes, so the copy can be made while readers carry on with the old segment
+            Slots resized = current.resizedTo(current.capacity * 2);
+            long stamp = lock.writeLock();
+            try {
+                slots = resized;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            current.free();
+            current = resized;
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            MemorySegment segment = current.segment;
+            if (added) {
+                offset = current.emptyOffsetFor(token.fingerprint);
+                segment.set(JAVA_LONG, offset + FINGERPRINT, token.fingerprint);
+                segment.set(JAVA_LONG, offset + CHECK, token.check);
+                size++;
+            }
+            segment.set(JAVA_INT, offset + ACCOUNT_ID, token.accountId);
+            segment.set(JAVA_INT, offset + SERVICE_EXTERNAL_ID, token.serviceExternalId);
+            segment.set(JAVA_BYTE, offset + ATTRIBUTES, token.attributes);
+            segment.set(JAVA_LONG, offset + LINK_HIGH, token.linkHigh);
+            segment.set(JAVA_LONG, offset + LINK_LOW, token.linkLow);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void remove(TokenHash tokenHash) {
+        String value = tokenHash.getValue();
+        Slots current = slots;
+        long offset = current.offsetOf(TokenColumns.fingerprint(value), TokenColumns.check(value));
+        if (offset == NONE) {
+            return;
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            current.delete(offset);
+            size--;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(Consumer<TokenColumns.EncodedToken> consumer) {
+        Slots current = slots;
+        MemorySegment segment = current.segment;
+        TokenColumns.EncodedToken token = new TokenColumns.EncodedToken();
+        for (long offset = 0; offset < current.capacity * SLOT_SIZE; offset += SLOT_SIZE) {
+            long fingerprint = segment.get(JAVA_LONG, offset + FINGERPRINT);
+            if (fingerprint != EMPTY) {
+                token.fingerprint = fingerprint;
+                token.check = segment.get(JAVA_LONG, offset + CHECK);
+                token.accountId = segment.get(JAVA_INT, offset + ACCOUNT_ID);
+                token.serviceExternalId = segment.get(JAVA_INT, offset + SERVICE_EXTERNAL_ID);
+                token.attributes = segment.get(JAVA_BYTE, offset + ATTRIBUTES);
+                token.linkHigh = segment.get(JAVA_LONG, offset + LINK_HIGH);
+                token.linkLow = segment.get(JAVA_LONG, offset + LINK_LOW);
+                consumer.accept(token);
+            }
+        }
+    }
+
+    @Override
+    public TokenColumns columns() {
+        return columns;
+    }
+
+    @Override
+    public void release() {
+        slots.free();
+    }
+
+    private static final class Slots {
+
+        private final Arena arena;
+        private final MemorySegment segment;
+        private final long capacity;
+        private final long mask;
+
+        Slots(long capacity) {
+            this.arena = Arena.ofShared();
+            this.segment = arena.allocate(capacity * SLOT_SIZE, JAVA_LONG.byteAlignment());
+            this.segment.fill((byte) 0);
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+        }
+
+        void free() {
+            arena.close();
+        }
+
+        long offsetOf(long fingerprint, long check) {
+            long slot = fingerprint & mask;
+            // Bounded by the capacity so that a read racing the writer cannot spin on a half-written table
+            for (long probes = 0; probes <= mask; probes++) {
+                long offset = slot * SLOT_SIZE;
+                long current = segment.get(JAVA_LONG, offset + FINGERPRINT);
+                if (current == EMPTY) {
+                    return NONE;
+                }
+                if (current == fingerprint && segment.get(JAVA_LONG, offset + CHECK) == check) {
+                    return offset;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return NONE;
+        }
+
+        long emptyOffsetFor(long fingerprint) {
+            long slot = fingerprint & mask;
+            while (segment.get(JAVA_LONG, slot * SLOT_SIZE + FINGERPRINT) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            return slot * SLOT_SIZE;
+        }
+
+        Slots resizedTo(long newCapacity) {
+            Slots resized = new Slots(newCapacity);
+            for (long offset = 0; offset < capacity * SLOT_SIZE; offset += SLOT_SIZE) {
+                long fingerprint = segment.get(JAVA_LONG, offset + FINGERPRINT);
+                if (fingerprint != EMPTY) {
+                    MemorySegment.copy(segment, offset, resized.segment, resized.emptyOffsetFor(fingerprint), SLOT_SIZE);
+                }
+            }
+            return resized;
+        }
+
+        void delete(long offset) {
+            // Shifts later entries of the probe sequence back, so no tombstones are needed
+            long hole = offset / SLOT_SIZE;
+            long next = (hole + 1) & mask;
+            long fingerprint;
+            while ((fingerprint = segment.get(JAVA_LONG, next * SLOT_SIZE + FINGERPRINT)) != EMPTY) {
+                long home = fingerprint & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    MemorySegment.copy(segment, next * SLOT_SIZE, segment, hole * SLOT_SIZE, SLOT_SIZE);
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            segment.asSlice(hole * SLOT_SIZE, SLOT_SIZE).fill((byte) 0);
+        }
+    }
+}
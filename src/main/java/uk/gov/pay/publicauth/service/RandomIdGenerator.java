@@ -1,14 +1,25 @@
 package uk.gov.pay.publicauth.service;
 
-import java.math.BigInteger;
+import uk.gov.pay.publicauth.model.RandomBytes;
+
 import java.security.SecureRandom;
 
 class RandomIdGenerator {
 
-    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final char[] BASE32_HEX_ALPHABET = "0123456789abcdefghijklmnopqrstuv".toCharArray();
+
+    private static final int BITS_PER_CHARACTER = 5;
+    private static final int RANDOM_BITS = 130;
+    private static final int RANDOM_BYTES_PER_ID = 17; // 136 bits, the first 130 are used
 
+    static final int RANDOM_ID_LENGTH = RANDOM_BITS / BITS_PER_CHARACTER;
+
+    // Ids issued before the generator produced fixed-length output dropped leading zeros,
+    // so keys still in circulation may carry anything from 1 to RANDOM_ID_LENGTH characters
     static final int RANDOM_ID_MIN_LENGTH = 1;
-    static final int RANDOM_ID_MAX_LENGTH = 26; // 130 bits / 5bits
+    static final int RANDOM_ID_MAX_LENGTH = RANDOM_ID_LENGTH;
+
+    private static final ThreadLocal<char[]> ID_CHARACTERS = ThreadLocal.withInitial(() -> new char[RANDOM_ID_LENGTH]);
 
     /**
      * This method will generate a Base32Hex random string.
@@ -18,10 +29,22 @@ class RandomIdGenerator {
      * but each digit in a base 32 number can encode 5 bits, so 128 is rounded up to the next multiple of 5.
      * This encoding is compact and efficient, with 5 random bits per character. Compare this to a random UUID,
      * which only has 3.4 bits per character in standard layout, and only 122 random bits in total </p>
+     * <p> The bits come from the thread's own {@link RandomBytes}, so there is no contention on a shared
+     * {@link SecureRandom} and the only allocation per id is the resulting string. Leading zeros are kept, so every id is exactly {@link #RANDOM_ID_LENGTH} long. </p>
      *
      * @return a random number in base32 ((0-9 a-v) in string format)
      */
     static String newId() {
-        return new BigInteger(130, RANDOM).toString(32);
+        RandomBytes randomBytes = RandomBytes.forCurrentThread();
+        int offset = randomBytes.nextDraw(RANDOM_BYTES_PER_ID);
+        byte[] bytes = randomBytes.bytes();
+        char[] id = ID_CHARACTERS.get();
+        for (int i = 0; i < RANDOM_ID_LENGTH; i++) {
+            int bitOffset = i * BITS_PER_CHARACTER;
+            int index = offset + (bitOffset >>> 3);
+            int window = ((bytes[index] & 0xff) << 8) | (bytes[index + 1] & 0xff);
+            id[i] = BASE32_HEX_ALPHABET[(window >>> (11 - (bitOffset & 7))) & 0x1f];
+        }
+        return new String(id);
     }
 }
@@ -0,0 +1,91 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import uk.gov.pay.publicauth.app.config.RejectedTokenCacheConfiguration;
+import uk.gov.pay.publicauth.exception.TokenInvalidException;
+import uk.gov.pay.publicauth.exception.TokenRevokedException;
+import uk.gov.pay.publicauth.model.ApiKeyDigest;
+import uk.gov.pay.publicauth.model.TokenHash;
+import uk.gov.pay.publicauth.model.TokenLink;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers token hashes that were not found or were found revoked, so that keys presented
+ * over and over again after revocation are turned away without a database round trip.
+ * <p> Both outcomes are final: a revoked token is never reinstated and a hash that is not in the
+ * database will never be issued. Entries expire only to bound memory. This cache is deliberately
+ * separate from anything caching successful lookups, so rejected keys cannot evict valid ones. </p>
+ * <p> Finding a token hash means the presented key has already been through BCrypt. Once a key has been
+ * rejected by hash, it is also remembered by its {@link ApiKeyDigest}, which is checked before hashing,
+ * so a revoked key presented again costs a SHA-256 rather than a BCrypt. A token revoked by link or in
+ * bulk is only known by hash until its key is next presented. </p>
+ */
+public class RejectedTokenCache {
+
+    private static final TokenLink NOT_FOUND = TokenLink.of("");
+
+    private final boolean enabled;
+    private final Cache<TokenHash, TokenLink> rejections;
+    private final Cache<ApiKeyDigest, TokenLink> rejectedKeys;
+    private final Counter hits;
+
+    public RejectedTokenCache(RejectedTokenCacheConfiguration config, MetricRegistry metricRegistry) {
+        this.enabled = config.isEnabled();
+        this.rejections = Caffeine.newBuilder()
+                .maximumSize(config.getMaximumSize())
+                .expireAfterWrite(config.getExpireAfterWrite().toMilliseconds(), TimeUnit.MILLISECONDS)
+                .build();
+        this.rejectedKeys = Caffeine.newBuilder()
+                .maximumSize(config.getMaximumSize())
+                .expireAfterWrite(config.getExpireAfterWrite().toMilliseconds(), TimeUnit.MILLISECONDS)
+                .build();
+        this.hits = metricRegistry.counter("tokens.rejected-cache.hits");
+        metricRegistry.gauge("tokens.rejected-cache.size", () -> rejections::estimatedSize);
+        metricRegistry.gauge("tokens.rejected-cache.key-size", () -> rejectedKeys::estimatedSize);
+    }
+
+    public void rejectIfKnown(ApiKeyDigest apiKeyDigest) {
+        reject(rejectedKeys.getIfPresent(apiKeyDigest));
+    }
+
+    public void rejectIfKnown(TokenHash tokenHash) {
+        reject(rejections.getIfPresent(tokenHash));
+    }
+
+    private void reject(TokenLink tokenLink) {
+        if (tokenLink == null) {
+            return;
+        }
+        hits.inc();
+        if (tokenLink == NOT_FOUND) {
+            throw new TokenInvalidException("Token does not exist");
+        }
+        throw new TokenRevokedException(tokenLink);
+    }
+
+    public void recordRevoked(TokenHash tokenHash, TokenLink tokenLink) {
+        if (enabled) {
+            rejections.put(tokenHash, tokenLink);
+        }
+    }
+
+    public void recordNotFound(TokenHash tokenHash) {
+        if (enabled) {
+            rejections.put(tokenHash, NOT_FOUND);
+        }
+    }
+
+    /**
+     * Remembers the key the given hash was computed from, if that hash has been rejected.
+     */
+    public void recordKey(ApiKeyDigest apiKeyDigest, TokenHash tokenHash) {
+        TokenLink tokenLink = rejections.getIfPresent(tokenHash);
+        if (tokenLink != null) {
+            rejectedKeys.put(apiKeyDigest, tokenLink);
+        }
+    }
+}
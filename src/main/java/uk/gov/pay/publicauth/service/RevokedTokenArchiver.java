@@ -0,0 +1,45 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.publicauth.app.config.RevokedTokenArchiveConfiguration;
+import uk.gov.pay.publicauth.dao.AuthTokenDao;
+
+/**
+ * Moves tokens revoked longer ago than the configured period out of the tokens table and into
+ * tokens_revoked_archive, so the table and its indexes stay the size of the tokens that can still be used.
+ * <p> Each {@link #archive()}, scheduled at a fixed interval, moves tokens in small batches, each in its own
+ * statement, so rows are only locked briefly, until a batch comes back short. Lookups read the archive as
+ * well, so archived tokens are still found, and still found to be revoked. </p>
+ */
+public class RevokedTokenArchiver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RevokedTokenArchiver.class);
+
+    private final AuthTokenDao authTokenDao;
+    private final long archiveAfterSeconds;
+    private final int batchSize;
+    private final Counter archived;
+
+    public RevokedTokenArchiver(RevokedTokenArchiveConfiguration config, AuthTokenDao authTokenDao, MetricRegistry metricRegistry) {
+        this.authTokenDao = authTokenDao;
+        this.archiveAfterSeconds = config.getArchiveAfter().toSeconds();
+        this.batchSize = config.getBatchSize();
+        this.archived = metricRegistry.counter("tokens.revoked-archive.archived");
+    }
+
+    public void archive() {
+        try {
+            int archivedInBatch;
+            do {
+                archivedInBatch = authTokenDao.archiveRevokedTokens(archiveAfterSeconds, batchSize);
+                archived.inc(archivedInBatch);
+            } while (archivedInBatch == batchSize);
+        } catch (RuntimeException e) {
+            // The tokens are archived on the next run; an exception must not cancel the schedule
+            LOGGER.error("Failed to archive revoked tokens", e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import uk.gov.pay.publicauth.app.config.StaleIfErrorConfiguration;
+import uk.gov.pay.publicauth.exception.DatabaseUnavailableException;
+import uk.gov.pay.publicauth.model.AuthResponse;
+import uk.gov.pay.publicauth.model.TokenHash;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Keeps authentication working while the database is unavailable, by answering from the last known good
+ * result for a token rather than failing every request.
+ * <p> Database queries go through {@link #query}, which counts failures towards a
+ * {@link DatabaseCircuitBreaker} and, while it is open, fails straight away without a query. When a query
+ * has failed, {@link #findStale} looks for the token in the {@link TokenIndex} and then the
+ * {@link AuthCache}, accepting results up to the configured maximum staleness. </p>
+ * <p> A stale answer never overrides a revocation this node knows about. Whether a token was revoked by
+ * hash, by token link or along with every other token of its account or service, it is recorded in the
+ * {@link RejectedTokenCache}, which is checked before anything else, and removed from the auth cache. The
+ * index drops revoked tokens each time it syncs, and its stale answers are only used up to the maximum
+ * staleness after its last sync. </p>
+ * <p> A trial query let through by an open circuit always reports back to the breaker, whatever it throws,
+ * so the breaker is never left waiting on a trial that has ended. </p>
+ */
+public class StaleIfError {
+
+    private final boolean enabled;
+    private final long maxStalenessNanos;
+    private final DatabaseCircuitBreaker circuitBreaker;
+    private final TokenIndex tokenIndex;
+    private final AuthCache authCache;
+    private final Counter served;
+    private final Counter unavailable;
+
+    public StaleIfError(StaleIfErrorConfiguration config, DatabaseCircuitBreaker circuitBreaker, TokenIndex tokenIndex,
+                        AuthCache authCache, MetricRegistry metricRegistry) {
+        this.enabled = config.isEnabled();
+        this.maxStalenessNanos = config.getMaxStaleness().toNanoseconds();
+        this.circuitBreaker = circuitBreaker;
+        this.tokenIndex = tokenIndex;
+        this.authCache = authCache;
+        this.served = metricRegistry.counter("tokens.stale-if-error.served");
+        this.unavailable = metricRegistry.counter("tokens.stale-if-error.unavailable");
+    }
+
+    public <T> T query(Supplier<T> databaseQuery) {
+        if (!circuitBreaker.allowRequest()) {
+            throw new DatabaseUnavailableException("Database is unavailable");
+        }
+        boolean succeeded = false;
+        try {
+            T result = databaseQuery.get();
+            succeeded = true;
+            return result;
+        } finally {
+            if (succeeded) {
+                circuitBreaker.recordSuccess();
+            } else {
+                circuitBreaker.recordFailure();
+            }
+        }
+    }
+
+    public Optional<AuthResponse> findStale(TokenHash tokenHash) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Optional<AuthResponse> authResponse = tokenIndex.findStale(tokenHash, maxStalenessNanos)
+                .or(() -> authCache.findStale(tokenHash, maxStalenessNanos));
+        (authResponse.isPresent() ? served : unavailable).inc();
+        return authResponse;
+    }
+}
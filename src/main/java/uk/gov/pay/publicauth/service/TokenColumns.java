@@ -0,0 +1,150 @@
+package uk.gov.pay.publicauth.service;
+
+import uk.gov.pay.publicauth.model.AuthResponse;
+import uk.gov.pay.publicauth.model.ServiceMode;
+import uk.gov.pay.publicauth.model.TokenEntity;
+import uk.gov.pay.publicauth.model.TokenHash;
+import uk.gov.pay.publicauth.model.TokenLink;
+import uk.gov.pay.publicauth.model.TokenPaymentType;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Turns a token into the primitive columns stored by a {@link TokenTable}, and those columns back into
+ * an {@link AuthResponse}.
+ * <p> The token hash becomes a 64-bit fingerprint, used as the key, and a second independent 64-bit check
+ * word, compared on lookup so that two tokens sharing a fingerprint can never authenticate as each other.
+ * Account ids, service external ids and token links that are not UUIDs are dictionary-encoded; UUID token
+ * links are kept as two longs; mode and payment type share one byte. </p>
+ * <p> {@link #encode} has a single writer and reuses one {@link EncodedToken}. The dictionary only grows,
+ * so an index read from a validated slot can always be decoded. </p>
+ */
+class TokenColumns {
+
+    static final long EMPTY = 0;
+    static final int NONE = -1;
+
+    private static final int INITIAL_DICTIONARY_SIZE = 1024;
+    private static final int MODE_MASK = 0b11;
+    private static final int PAYMENT_TYPE_SHIFT = 2;
+    private static final int PAYMENT_TYPE_MASK = 0b11 << PAYMENT_TYPE_SHIFT;
+    private static final int LINK_IN_DICTIONARY = 1 << 4;
+
+    private static final ServiceMode[] SERVICE_MODES = ServiceMode.values();
+    private static final TokenPaymentType[] TOKEN_PAYMENT_TYPES = TokenPaymentType.values();
+
+    private final Map<String, Integer> dictionaryIndex = new HashMap<>();
+    private volatile String[] dictionary = new String[INITIAL_DICTIONARY_SIZE];
+    private int dictionarySize;
+    private final EncodedToken encoded = new EncodedToken();
+
+    static final class EncodedToken {
+        long fingerprint;
+        long check;
+        int accountId;
+        int serviceExternalId;
+        byte attributes;
+        long linkHigh;
+        long linkLow;
+    }
+
+    EncodedToken encode(TokenHash tokenHash, TokenEntity tokenEntity) {
+        String value = tokenHash.getValue();
+        encoded.fingerprint = fingerprint(value);
+        encoded.check = check(value);
+        encoded.accountId = encode(tokenEntity.getAccountId());
+        encoded.serviceExternalId = encode(tokenEntity.getServiceExternalId());
+        int mode = tokenEntity.getServiceMode() == null ? 0 : tokenEntity.getServiceMode().ordinal() + 1;
+        int paymentType = tokenEntity.getTokenPaymentType() == null ? 0 : tokenEntity.getTokenPaymentType().ordinal() + 1;
+        int attributes = mode | paymentType << PAYMENT_TYPE_SHIFT;
+        Optional<UUID> uuid = tokenEntity.getTokenLink().asUuid();
+        if (uuid.isPresent()) {
+            encoded.linkHigh = uuid.get().getMostSignificantBits();
+            encoded.linkLow = uuid.get().getLeastSignificantBits();
+        } else {
+            attributes |= LINK_IN_DICTIONARY;
+            encoded.linkHigh = 0;
+            encoded.linkLow = encode(tokenEntity.getTokenLink().toString());
+        }
+        encoded.attributes = (byte) attributes;
+        return encoded;
+    }
+
+    AuthResponse toAuthResponse(int accountId, int serviceExternalId, int attributes, long linkHigh, long linkLow) {
+        String[] strings = dictionary;
+        TokenLink tokenLink = (attributes & LINK_IN_DICTIONARY) != 0
+                ? TokenLink.of(strings[(int) linkLow])
+                : TokenLink.of(new UUID(linkHigh, linkLow).toString());
+        int mode = attributes & MODE_MASK;
+        int paymentType = (attributes & PAYMENT_TYPE_MASK) >>> PAYMENT_TYPE_SHIFT;
+        return new AuthResponse(
+                accountId == NONE ? null : strings[accountId],
+                tokenLink,
+                paymentType == 0 ? null : TOKEN_PAYMENT_TYPES[paymentType - 1],
+                mode == 0 ? null : SERVICE_MODES[mode - 1],
+                serviceExternalId == NONE ? null : strings[serviceExternalId]);
+    }
+
+    List<String> dictionary() {
+        return List.of(Arrays.copyOf(dictionary, dictionarySize));
+    }
+
+    /**
+     * Replaces an empty dictionary with one read back from {@link #dictionary()}, so that tokens encoded
+     * against it can be stored without being encoded again.
+     */
+    void restoreDictionary(List<String> strings) {
+        if (dictionarySize != 0) {
+            throw new IllegalStateException("Can only restore an empty dictionary");
+        }
+        strings.forEach(this::encode);
+    }
+
+    private int encode(String string) {
+        if (string == null) {
+            return NONE;
+        }
+        Integer index = dictionaryIndex.get(string);
+        if (index != null) {
+            return index;
+        }
+        String[] strings = dictionary;
+        if (dictionarySize == strings.length) {
+            strings = Arrays.copyOf(strings, strings.length * 2);
+        }
+        strings[dictionarySize] = string;
+        // Publishing the array after the entry is written makes the entry visible to lookups that see the slot
+        dictionary = strings;
+        dictionaryIndex.put(string, dictionarySize);
+        return dictionarySize++;
+    }
+
+    static long fingerprint(String tokenHash) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < tokenHash.length(); i++) {
+            hash = (hash ^ tokenHash.charAt(i)) * 0x100000001b3L;
+        }
+        long fingerprint = mix(hash);
+        // Zero marks an empty slot
+        return fingerprint == EMPTY ? 1 : fingerprint;
+    }
+
+    static long check(String tokenHash) {
+        long hash = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < tokenHash.length(); i++) {
+            hash = Long.rotateLeft(hash ^ tokenHash.charAt(i), 23) * 0xc2b2ae3d27d4eb4fL;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
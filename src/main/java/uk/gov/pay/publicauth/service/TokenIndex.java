@@ -0,0 +1,228 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.pay.publicauth.app.config.TokenIndexConfiguration;
+import uk.gov.pay.publicauth.dao.AuthTokenDao;
+import uk.gov.pay.publicauth.model.AuthResponse;
+import uk.gov.pay.publicauth.model.TokenHash;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A complete in-memory copy of every token that has not been revoked, so that authenticating a
+ * known token does not read from the database.
+ * <p> {@link #sync()} is meant to be scheduled at a short fixed interval. The first call loads every
+ * active token in one streaming scan; later calls apply only the tokens changed since, removing those
+ * that have been revoked. Only the sync thread writes to the index, which is held in a
+ * {@link CompactTokenTable} at no more than about a hundred bytes per token, or, when configured to be
+ * off-heap, in an {@link OffHeapTokenTable} that adds nothing to the heap per token. </p>
+ * <p> When a snapshot file is configured, the index is also written to it periodically. The sync thread only
+ * copies the index, so the copy is consistent with its change marker; writing, checksumming and flushing the
+ * file happen on a separate thread, so they do not hold up the next sync and eat into the maximum sync lag.
+ * A snapshot falls due again only once the last one has been written. After a restart the first sync loads that snapshot and
+ * catches up on the changes made since it was written, rather than scanning every active token. </p>
+ * <p> The index is only trusted while it is fresh: until the first load completes, or when the last
+ * successful sync is older than the configured maximum lag, every lookup misses and falls through to
+ * the database, so a failing sync cannot keep a revoked token authenticating. </p>
+ */
+public class TokenIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenIndex.class);
+
+    private final boolean enabled;
+    private final long maxSyncLagNanos;
+    private final AuthTokenDao authTokenDao;
+    private final RejectedTokenCache rejectedTokenCache;
+    private final LongSupplier nanoClock;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter syncFailures;
+    private final Supplier<TokenTable> newTable;
+    private final TokenIndexSnapshotFile snapshotFile;
+    private final Executor snapshotWriter;
+    private final long snapshotIntervalNanos;
+    private final Timer snapshotCopyTimer;
+    private final Timer snapshotWriteTimer;
+    private final AtomicBoolean snapshotWriting = new AtomicBoolean();
+
+    private volatile TokenTable tokens;
+    private volatile boolean loaded;
+    private volatile long lastSyncedAtNanos;
+    private long changeMarker;
+    private long nextSnapshotAtNanos;
+
+    public TokenIndex(TokenIndexConfiguration config, AuthTokenDao authTokenDao, RejectedTokenCache rejectedTokenCache,
+                      Executor snapshotWriter, MetricRegistry metricRegistry) {
+        this(config, authTokenDao, rejectedTokenCache, metricRegistry, System::nanoTime, config.getSnapshotFile()
+                .map(path -> new TokenIndexSnapshotFile(path, config.getSnapshotMaxAge()))
+                .orElse(null), snapshotWriter);
+    }
+
+    TokenIndex(TokenIndexConfiguration config, AuthTokenDao authTokenDao, RejectedTokenCache rejectedTokenCache,
+               MetricRegistry metricRegistry, LongSupplier nanoClock, TokenIndexSnapshotFile snapshotFile,
+               Executor snapshotWriter) {
+        this.enabled = config.isEnabled();
+        this.maxSyncLagNanos = config.getMaxSyncLag().toNanoseconds();
+        this.authTokenDao = authTokenDao;
+        this.rejectedTokenCache = rejectedTokenCache;
+        this.nanoClock = nanoClock;
+        this.newTable = config.isOffHeap() ? OffHeapTokenTable::new : CompactTokenTable::new;
+        this.tokens = newTable.get();
+        this.snapshotFile = snapshotFile;
+        this.snapshotWriter = snapshotWriter;
+        this.snapshotIntervalNanos = config.getSnapshotInterval().toNanoseconds();
+        this.hits = metricRegistry.counter("tokens.index.hits");
+        this.misses = metricRegistry.counter("tokens.index.misses");
+        this.syncFailures = metricRegistry.counter("tokens.index.sync-failures");
+        this.snapshotCopyTimer = metricRegistry.timer("tokens.index.snapshot-copy");
+        this.snapshotWriteTimer = metricRegistry.timer("tokens.index.snapshot-write");
+        metricRegistry.gauge("tokens.index.size", () -> () -> tokens.size());
+        metricRegistry.gauge("tokens.index.sync-lag-millis", () -> this::getSyncLagMillis);
+    }
+
+    public Optional<AuthResponse> find(TokenHash tokenHash) {
+        if (!enabled || !isFresh()) {
+            return Optional.empty();
+        }
+        Optional<AuthResponse> authResponse = tokens.find(tokenHash);
+        (authResponse.isPresent() ? hits : misses).inc();
+        return authResponse;
+    }
+
+    /**
+     * Finds a token even if the index is no longer fresh enough to be trusted, as long as it last synced
+     * no longer ago than the given maximum staleness, for answering when the database cannot be asked.
+     */
+    public Optional<AuthResponse> findStale(TokenHash tokenHash, long maxStalenessNanos) {
+        if (!enabled || !loaded || nanoClock.getAsLong() - lastSyncedAtNanos > maxStalenessNanos) {
+            return Optional.empty();
+        }
+        return tokens.find(tokenHash);
+    }
+
+    public void sync() {
+        try {
+            if (loaded) {
+                changeMarker = applyChangesSince(changeMarker, tokens);
+                lastSyncedAtNanos = nanoClock.getAsLong();
+            } else {
+                load();
+            }
+            writeSnapshotIfDue();
+        } catch (RuntimeException e) {
+            // Letting this escape would cancel the schedule, and the index would stop being trusted for good
+            syncFailures.inc();
+            LOGGER.error("Failed to sync the token index", e);
+        }
+    }
+
+    private void load() {
+        // A load that failed part way through may have left tokens revoked since then, so start afresh
+        Optional<TokenIndexSnapshotFile.Snapshot> snapshot = snapshotFile == null ? Optional.empty() : snapshotFile.read(newTable);
+        if (snapshot.isPresent()) {
+            TokenTable restored = snapshot.get().getTable();
+            long snapshotChangeMarker = snapshot.get().getChangeMarker();
+            long caughtUpChangeMarker;
+            try {
+                caughtUpChangeMarker = applyChangesSince(snapshotChangeMarker, restored);
+            } catch (RuntimeException e) {
+                restored.release();
+                throw e;
+            }
+            if (caughtUpChangeMarker >= snapshotChangeMarker) {
+                publish(restored, caughtUpChangeMarker);
+                nextSnapshotAtNanos = nanoClock.getAsLong() + snapshotIntervalNanos;
+                LOGGER.info("Loaded {} active tokens into the token index from the snapshot written at {}",
+                        restored.size(), snapshot.get().getWrittenAt());
+                return;
+            }
+            // Transaction ids only go backwards if the database was replaced, so the snapshot cannot be caught up
+            restored.release();
+            LOGGER.warn("Ignoring token index snapshot as it is ahead of the database");
+        }
+        TokenTable loading = newTable.get();
+        long loadedChangeMarker;
+        try {
+            loadedChangeMarker = authTokenDao.streamActiveTokens(loading::put);
+        } catch (RuntimeException e) {
+            loading.release();
+            throw e;
+        }
+        publish(loading, loadedChangeMarker);
+        nextSnapshotAtNanos = nanoClock.getAsLong();
+        LOGGER.info("Loaded {} active tokens into the token index", loading.size());
+    }
+
+    private long applyChangesSince(long since, TokenTable table) {
+        return authTokenDao.findTokenChangesSince(since, (tokenHash, tokenEntity) -> {
+            if (tokenEntity.getRevokedDate() == null) {
+                table.put(tokenHash, tokenEntity);
+            } else {
+                table.remove(tokenHash);
+                rejectedTokenCache.recordRevoked(tokenHash, tokenEntity.getTokenLink());
+            }
+        });
+    }
+
+    private void publish(TokenTable table, long changeMarker) {
+        // Lookups only read the table once the index has loaded, which only happens once, so none can be
+        // reading the table replaced here
+        TokenTable replaced = this.tokens;
+        this.tokens = table;
+        this.changeMarker = changeMarker;
+        this.lastSyncedAtNanos = nanoClock.getAsLong();
+        this.loaded = true;
+        replaced.release();
+    }
+
+    private void writeSnapshotIfDue() {
+        if (snapshotFile == null || nanoClock.getAsLong() - nextSnapshotAtNanos < 0 || !snapshotWriting.compareAndSet(false, true)) {
+            return;
+        }
+        nextSnapshotAtNanos = nanoClock.getAsLong() + snapshotIntervalNanos;
+        TokenIndexSnapshotFile.Contents contents;
+        try (Timer.Context ignored = snapshotCopyTimer.time()) {
+            contents = snapshotFile.copy(changeMarker, tokens);
+        } catch (RuntimeException e) {
+            snapshotWriting.set(false);
+            LOGGER.warn("Failed to copy token index for a snapshot", e);
+            return;
+        }
+        try {
+            snapshotWriter.execute(() -> writeSnapshot(contents));
+        } catch (RejectedExecutionException e) {
+            contents.close();
+            snapshotWriting.set(false);
+        }
+    }
+
+    private void writeSnapshot(TokenIndexSnapshotFile.Contents contents) {
+        try (contents; Timer.Context ignored = snapshotWriteTimer.time()) {
+            snapshotFile.write(contents);
+        } catch (IOException | RuntimeException e) {
+            // The index itself is unaffected, only the next restart will have to load from the database
+            LOGGER.warn("Failed to write token index snapshot", e);
+        } finally {
+            snapshotWriting.set(false);
+        }
+    }
+
+    private boolean isFresh() {
+        return loaded && nanoClock.getAsLong() - lastSyncedAtNanos <= maxSyncLagNanos;
+    }
+
+    private long getSyncLagMillis() {
+        return loaded ? TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - lastSyncedAtNanos) : -1;
+    }
+}
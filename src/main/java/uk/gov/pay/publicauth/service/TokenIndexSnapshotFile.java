@@ -0,0 +1,295 @@
+package uk.gov.pay.publicauth.service;
+
+import io.dropwizard.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_INT_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A memory-mapped file holding a copy of a {@link TokenTable} and the change marker it is current to, so
+ * that a restarted node can load its token index from local disk and only catch up on the changes since,
+ * rather than scanning every active token in the database.
+ * <p> The file holds a fixed-size header, one fixed-size record per token, in the encoded form the tables
+ * store, and then the dictionary those records refer to. It is written to a temporary file, which is only
+ * readable by its owner, and moved into place, so a reader never sees a partly written snapshot. A file
+ * that does not match the expected layout or checksum, or was written longer ago than the maximum age, is
+ * ignored. </p>
+ */
+class TokenIndexSnapshotFile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenIndexSnapshotFile.class);
+
+    private static final long MAGIC = 0x5041_5954_4F4B_4958L;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final long HEADER_MAGIC = 0;
+    private static final long HEADER_FORMAT_VERSION = 8;
+    private static final long HEADER_RECORD_SIZE = 12;
+    private static final long HEADER_CHANGE_MARKER = 16;
+    private static final long HEADER_WRITTEN_AT = 24;
+    private static final long HEADER_TOKEN_COUNT = 32;
+    private static final long HEADER_DICTIONARY_SIZE = 40;
+    private static final long HEADER_DICTIONARY_BYTES = 48;
+    private static final long HEADER_CHECKSUM = 56;
+    private static final long HEADER_SIZE = 64;
+
+    private static final long FINGERPRINT = 0;
+    private static final long CHECK = 8;
+    private static final long LINK_HIGH = 16;
+    private static final long LINK_LOW = 24;
+    private static final long ACCOUNT_ID = 32;
+    private static final long SERVICE_EXTERNAL_ID = 36;
+    private static final long ATTRIBUTES = 40;
+    private static final int RECORD_SIZE = 48;
+
+    private static final long CHECKSUM_CHUNK = 1 << 30;
+
+    private final Path path;
+    private final long maxAgeMillis;
+    private final LongSupplier wallClock;
+
+    TokenIndexSnapshotFile(Path path, Duration maxAge) {
+        this(path, maxAge, System::currentTimeMillis);
+    }
+
+    TokenIndexSnapshotFile(Path path, Duration maxAge, LongSupplier wallClock) {
+        this.path = path.toAbsolutePath();
+        this.maxAgeMillis = maxAge.toMilliseconds();
+        this.wallClock = wallClock;
+    }
+
+    void write(long changeMarker, TokenTable table) throws IOException {
+        try (Contents contents = copy(changeMarker, table)) {
+            write(contents);
+        }
+    }
+
+    /**
+     * Copies the table's records and dictionary, so the slow part of writing a snapshot can be left to
+     * another thread while the table carries on changing. Only the table's writer may call this.
+     */
+    Contents copy(long changeMarker, TokenTable table) {
+        long tokenCount = table.size();
+        Arena arena = Arena.ofShared();
+        try {
+            MemorySegment records = arena.allocate(tokenCount * RECORD_SIZE, JAVA_LONG.byteAlignment());
+            RecordWriter recordWriter = new RecordWriter(records);
+            table.forEach(recordWriter);
+            if (recordWriter.offset != records.byteSize()) {
+                throw new IllegalStateException("Token table changed while it was being copied for a snapshot");
+            }
+            return new Contents(arena, records, tokenCount, table.columns().dictionary(), changeMarker);
+        } catch (RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    void write(Contents contents) throws IOException {
+        List<byte[]> dictionary = contents.dictionary.stream().map(string -> string.getBytes(UTF_8)).toList();
+        long dictionaryBytes = dictionary.stream().mapToLong(bytes -> Integer.BYTES + bytes.length).sum();
+        long recordsEnd = HEADER_SIZE + contents.records.byteSize();
+        long size = recordsEnd + dictionaryBytes;
+
+        Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, READ, WRITE); Arena arena = Arena.ofConfined()) {
+                MemorySegment file = channel.map(READ_WRITE, 0, size, arena);
+
+                MemorySegment.copy(contents.records, 0, file, HEADER_SIZE, contents.records.byteSize());
+                long offset = recordsEnd;
+                for (byte[] bytes : dictionary) {
+                    file.set(JAVA_INT_UNALIGNED, offset, bytes.length);
+                    MemorySegment.copy(bytes, 0, file, JAVA_BYTE, offset + Integer.BYTES, bytes.length);
+                    offset += Integer.BYTES + bytes.length;
+                }
+
+                file.set(JAVA_LONG, HEADER_MAGIC, MAGIC);
+                file.set(JAVA_INT, HEADER_FORMAT_VERSION, FORMAT_VERSION);
+                file.set(JAVA_INT, HEADER_RECORD_SIZE, RECORD_SIZE);
+                file.set(JAVA_LONG, HEADER_CHANGE_MARKER, contents.changeMarker);
+                file.set(JAVA_LONG, HEADER_WRITTEN_AT, wallClock.getAsLong());
+                file.set(JAVA_LONG, HEADER_TOKEN_COUNT, contents.tokenCount);
+                file.set(JAVA_LONG, HEADER_DICTIONARY_SIZE, dictionary.size());
+                file.set(JAVA_LONG, HEADER_DICTIONARY_BYTES, dictionaryBytes);
+                file.set(JAVA_LONG, HEADER_CHECKSUM, checksum(file));
+                file.force();
+            }
+            Files.move(temporary, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        LOGGER.info("Wrote {} tokens to token index snapshot {}", contents.tokenCount, path);
+    }
+
+    Optional<Snapshot> read(Supplier<TokenTable> newTable) {
+        if (!Files.exists(path)) {
+            return Optional.empty();
+        }
+        TokenTable table = null;
+        try (FileChannel channel = FileChannel.open(path, READ); Arena arena = Arena.ofConfined()) {
+            MemorySegment file = channel.map(READ_ONLY, 0, channel.size(), arena);
+            if (file.byteSize() < HEADER_SIZE
+                    || file.get(JAVA_LONG, HEADER_MAGIC) != MAGIC
+                    || file.get(JAVA_INT, HEADER_FORMAT_VERSION) != FORMAT_VERSION
+                    || file.get(JAVA_INT, HEADER_RECORD_SIZE) != RECORD_SIZE) {
+                LOGGER.warn("Ignoring token index snapshot {} as it is not in a recognised format", path);
+                return Optional.empty();
+            }
+            long tokenCount = file.get(JAVA_LONG, HEADER_TOKEN_COUNT);
+            long dictionarySize = file.get(JAVA_LONG, HEADER_DICTIONARY_SIZE);
+            long dictionaryBytes = file.get(JAVA_LONG, HEADER_DICTIONARY_BYTES);
+            if (file.byteSize() != HEADER_SIZE + tokenCount * RECORD_SIZE + dictionaryBytes
+                    || file.get(JAVA_LONG, HEADER_CHECKSUM) != checksum(file)) {
+                LOGGER.warn("Ignoring token index snapshot {} as it is incomplete or corrupt", path);
+                return Optional.empty();
+            }
+            Instant writtenAt = Instant.ofEpochMilli(file.get(JAVA_LONG, HEADER_WRITTEN_AT));
+            if (wallClock.getAsLong() - writtenAt.toEpochMilli() > maxAgeMillis) {
+                LOGGER.info("Ignoring token index snapshot {} written at {} as it is too old", path, writtenAt);
+                return Optional.empty();
+            }
+
+            long offset = HEADER_SIZE + tokenCount * RECORD_SIZE;
+            List<String> dictionary = new ArrayList<>((int) dictionarySize);
+            for (long i = 0; i < dictionarySize; i++) {
+                int length = file.get(JAVA_INT_UNALIGNED, offset);
+                byte[] bytes = file.asSlice(offset + Integer.BYTES, length).toArray(JAVA_BYTE);
+                dictionary.add(new String(bytes, UTF_8));
+                offset += Integer.BYTES + length;
+            }
+            table = newTable.get();
+            table.columns().restoreDictionary(dictionary);
+
+            TokenColumns.EncodedToken token = new TokenColumns.EncodedToken();
+            for (long record = HEADER_SIZE; record < HEADER_SIZE + tokenCount * RECORD_SIZE; record += RECORD_SIZE) {
+                token.fingerprint = file.get(JAVA_LONG, record + FINGERPRINT);
+                token.check = file.get(JAVA_LONG, record + CHECK);
+                token.linkHigh = file.get(JAVA_LONG, record + LINK_HIGH);
+                token.linkLow = file.get(JAVA_LONG, record + LINK_LOW);
+                token.accountId = file.get(JAVA_INT, record + ACCOUNT_ID);
+                token.serviceExternalId = file.get(JAVA_INT, record + SERVICE_EXTERNAL_ID);
+                token.attributes = file.get(JAVA_BYTE, record + ATTRIBUTES);
+                table.put(token);
+            }
+            return Optional.of(new Snapshot(table, file.get(JAVA_LONG, HEADER_CHANGE_MARKER), writtenAt));
+        } catch (IOException | RuntimeException e) {
+            if (table != null) {
+                table.release();
+            }
+            LOGGER.warn("Could not read token index snapshot {}", path, e);
+            return Optional.empty();
+        }
+    }
+
+    private static long checksum(MemorySegment file) {
+        CRC32C crc = new CRC32C();
+        // Covers the header as well, other than the checksum itself, so a damaged change marker is caught
+        crc.update(file.asSlice(0, HEADER_CHECKSUM).asByteBuffer());
+        for (long offset = HEADER_SIZE; offset < file.byteSize(); offset += CHECKSUM_CHUNK) {
+            crc.update(file.asSlice(offset, Math.min(CHECKSUM_CHUNK, file.byteSize() - offset)).asByteBuffer());
+        }
+        return crc.getValue();
+    }
+
+    private static final class RecordWriter implements Consumer<TokenColumns.EncodedToken> {
+
+        private final MemorySegment records;
+        private long offset;
+
+        RecordWriter(MemorySegment records) {
+            this.records = records;
+        }
+
+        @Override
+        public void accept(TokenColumns.EncodedToken token) {
+            if (offset + RECORD_SIZE > records.byteSize()) {
+                throw new IllegalStateException("Token table changed while it was being copied for a snapshot");
+            }
+            records.set(JAVA_LONG, offset + FINGERPRINT, token.fingerprint);
+            records.set(JAVA_LONG, offset + CHECK, token.check);
+            records.set(JAVA_LONG, offset + LINK_HIGH, token.linkHigh);
+            records.set(JAVA_LONG, offset + LINK_LOW, token.linkLow);
+            records.set(JAVA_INT, offset + ACCOUNT_ID, token.accountId);
+            records.set(JAVA_INT, offset + SERVICE_EXTERNAL_ID, token.serviceExternalId);
+            records.set(JAVA_BYTE, offset + ATTRIBUTES, token.attributes);
+            offset += RECORD_SIZE;
+        }
+    }
+
+    /**
+     * A copy of a table's records and dictionary, held off-heap until closed.
+     */
+    static final class Contents implements AutoCloseable {
+
+        private final Arena arena;
+        private final MemorySegment records;
+        private final long tokenCount;
+        private final List<String> dictionary;
+        private final long changeMarker;
+
+        private Contents(Arena arena, MemorySegment records, long tokenCount, List<String> dictionary, long changeMarker) {
+            this.arena = arena;
+            this.records = records;
+            this.tokenCount = tokenCount;
+            this.dictionary = dictionary;
+            this.changeMarker = changeMarker;
+        }
+
+        @Override
+        public void close() {
+            arena.close();
+        }
+    }
+
+    static final class Snapshot {
+
+        private final TokenTable table;
+        private final long changeMarker;
+        private final Instant writtenAt;
+
+        Snapshot(TokenTable table, long changeMarker, Instant writtenAt) {
+            this.table = table;
+            this.changeMarker = changeMarker;
+            this.writtenAt = writtenAt;
+        }
+
+        TokenTable getTable() {
+            return table;
+        }
+
+        long getChangeMarker() {
+            return changeMarker;
+        }
+
+        Instant getWrittenAt() {
+            return writtenAt;
+        }
+    }
+}
@@ -1,9 +1,5 @@
 package uk.gov.pay.publicauth.service;
 
-import com.google.common.io.BaseEncoding;
-import org.apache.commons.codec.digest.HmacAlgorithms;
-import org.apache.commons.codec.digest.HmacUtils;
-import org.mindrot.jbcrypt.BCrypt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.gov.pay.publicauth.app.config.TokensConfiguration;
@@ -12,10 +8,12 @@ import uk.gov.pay.publicauth.dao.AuthTokenDao;
 import uk.gov.pay.publicauth.exception.TokenInvalidException;
 import uk.gov.pay.publicauth.exception.TokenNotFoundException;
 import uk.gov.pay.publicauth.exception.TokenRevokedException;
+import uk.gov.pay.publicauth.model.ApiKeyDigest;
 import uk.gov.pay.publicauth.model.AuthResponse;
 import uk.gov.pay.publicauth.model.CreateTokenRequest;
 import uk.gov.pay.publicauth.model.ServiceMode;
 import uk.gov.pay.publicauth.model.TokenAccountType;
+import uk.gov.pay.publicauth.model.TokenEntity;
 import uk.gov.pay.publicauth.model.TokenHash;
 import uk.gov.pay.publicauth.model.TokenLink;
 import uk.gov.pay.publicauth.model.TokenResponse;
@@ -23,36 +21,51 @@ import uk.gov.pay.publicauth.model.TokenSource;
 import uk.gov.pay.publicauth.model.TokenState;
 import uk.gov.pay.publicauth.model.Tokens;
 
-import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
-import static uk.gov.pay.publicauth.service.RandomIdGenerator.RANDOM_ID_MAX_LENGTH;
-import static uk.gov.pay.publicauth.service.RandomIdGenerator.RANDOM_ID_MIN_LENGTH;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.CHECKSUM_MISMATCH;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.DEFAULT_KEY_ID;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.HMAC_SHA1_LENGTH;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.MALFORMED;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.PREFIX_LIVE;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.PREFIX_TEST;
 import static uk.gov.pay.publicauth.service.RandomIdGenerator.newId;
 
 public class TokenService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TokenService.class);
 
-    private static final String PREFIX_TEST = "api_test_";
-    private static final String PREFIX_LIVE = "api_live_";
-
-    private static final int HMAC_SHA1_LENGTH = 32;
-    private static final int PREFIX_MAX_LENGTH = Math.max(PREFIX_LIVE.length(), PREFIX_TEST.length());
-    private static final int API_KEY_MIN_LENGTH = HMAC_SHA1_LENGTH + RANDOM_ID_MIN_LENGTH;
-    private static final int API_KEY_MAX_LENGTH = PREFIX_MAX_LENGTH + HMAC_SHA1_LENGTH + RANDOM_ID_MAX_LENGTH;
-
-    private final String encryptDBSalt;
-    private final String apiKeyHmacSecret;
+    private final FixedSaltBCrypt bcrypt;
+    private final ApiKeySigner apiKeySigner;
+    private final int apiKeyHmacKeyId;
+    private final boolean apiKeyChecksumEnabled;
     private final AuthTokenDao authTokenDao;
+    private final RejectedTokenCache rejectedTokenCache;
+    private final AuthFailureLogger authFailureLogger;
+    private final TokenIndex tokenIndex;
+    private final LastUsedRecorder lastUsedRecorder;
+    private final AuthCache authCache;
+    private final StaleIfError staleIfError;
+    private final CryptoExecutor cryptoExecutor;
 
-    public TokenService(TokensConfiguration config, AuthTokenDao authTokenDao) {
-        this.encryptDBSalt = config.getEncryptDBSalt();
-        this.apiKeyHmacSecret = config.getApiKeyHmacSecret();
+    public TokenService(TokensConfiguration config, AuthTokenDao authTokenDao, RejectedTokenCache rejectedTokenCache,
+                        AuthFailureLogger authFailureLogger, TokenIndex tokenIndex, LastUsedRecorder lastUsedRecorder,
+                        AuthCache authCache, StaleIfError staleIfError, CryptoExecutor cryptoExecutor) {
+        this.bcrypt = new FixedSaltBCrypt(config.getEncryptDBSalt());
+        this.apiKeySigner = new ApiKeySigner(config.getApiKeyHmacSecret(), config.getApiKeyHmacSecrets());
+        this.apiKeyHmacKeyId = keyIdToSignWith(config.getApiKeyHmacKeyId());
+        this.apiKeyChecksumEnabled = config.isApiKeyChecksumEnabled();
         this.authTokenDao = authTokenDao;
+        this.rejectedTokenCache = rejectedTokenCache;
+        this.authFailureLogger = authFailureLogger;
+        this.tokenIndex = tokenIndex;
+        this.lastUsedRecorder = lastUsedRecorder;
+        this.authCache = authCache;
+        this.staleIfError = staleIfError;
+        this.cryptoExecutor = cryptoExecutor;
     }
 
     public String createTokenForAccount(CreateTokenRequest createTokenRequest) {
@@ -64,15 +77,58 @@ public class TokenService {
     }
 
     public AuthResponse authenticate(TokenHash tokenHash) {
-        return authTokenDao.findTokenByHash(tokenHash)
+        return authenticate(tokenHash, Optional.empty());
+    }
+
+    /**
+     * Authenticates a token extracted from a key, remembering the key itself when the token is rejected
+     * so the next time it is presented it is turned away before being hashed.
+     */
+    public AuthResponse authenticate(Token token) {
+        TokenHash tokenHash = TokenHash.of(token.getName());
+        try {
+            return authenticate(tokenHash, token.getExpectedServiceMode());
+        } catch (TokenRevokedException | TokenInvalidException e) {
+            token.getApiKeyDigest().ifPresent(apiKeyDigest -> rejectedTokenCache.recordKey(apiKeyDigest, tokenHash));
+            throw e;
+        }
+    }
+
+    /**
+     * @param expectedServiceMode the mode the token is most likely stored under, so that only that mode's
+     *                            partition of the tokens table is read when it is
+     */
+    public AuthResponse authenticate(TokenHash tokenHash, Optional<ServiceMode> expectedServiceMode) {
+        rejectedTokenCache.rejectIfKnown(tokenHash);
+        Optional<AuthResponse> knownToken = tokenIndex.find(tokenHash).or(() -> authCache.find(tokenHash));
+        if (knownToken.isPresent()) {
+            lastUsedRecorder.record(tokenHash);
+            return knownToken.get();
+        }
+        Optional<TokenEntity> storedToken;
+        try {
+            storedToken = staleIfError.query(() -> expectedServiceMode
+                    .map(serviceMode -> authTokenDao.findTokenByHashAndUpdateLastUsedTime(tokenHash, serviceMode))
+                    .orElseGet(() -> authTokenDao.findTokenByHashAndUpdateLastUsedTime(tokenHash)));
+        } catch (RuntimeException e) {
+            AuthResponse staleToken = staleIfError.findStale(tokenHash).orElseThrow(() -> e);
+            lastUsedRecorder.record(tokenHash);
+            return staleToken;
+        }
+        return storedToken
                 .map(tokenEntity -> {
                     if (tokenEntity.getRevokedDate() != null) {
+                        rejectedTokenCache.recordRevoked(tokenHash, tokenEntity.getTokenLink());
                         throw new TokenRevokedException(tokenEntity.getTokenLink());
                     }
-                    authTokenDao.updateLastUsedTime(tokenHash);
-                    return new AuthResponse(tokenEntity);
+                    AuthResponse authResponse = new AuthResponse(tokenEntity);
+                    authCache.put(tokenHash, authResponse);
+                    return authResponse;
                 })
-                .orElseThrow(() -> new TokenInvalidException("Token does not exist"));
+                .orElseThrow(() -> {
+                    rejectedTokenCache.recordNotFound(tokenHash);
+                    return new TokenInvalidException("Token does not exist");
+                });
     }
     
     public TokenResponse findTokenBy(String accountId, TokenLink tokenLink) {
@@ -88,21 +144,46 @@ public class TokenService {
     /**
      * Tokens includes:
      * - ApiKey = Token + Hmac(Token + SecretKey).
-     * - Extract Token, check Hmac and encrypt.
+     * - Check the key layout, extract Token, check Hmac with the secret named by the key id and encrypt.
+     * Keys already known to be revoked or not to exist are rejected before they are encrypted.
      */
     public Optional<Token> extractEncryptedTokenFrom(String apiKey) {
-        if (isValidLength(apiKey)) {
-            int initHmacIndex = apiKey.length() - HMAC_SHA1_LENGTH;
-            String hmacFromApiKey = apiKey.substring(initHmacIndex);
-            String tokenFromApiKey = apiKey.substring(0, initHmacIndex);
-            if (tokenMatchesHmac(tokenFromApiKey, hmacFromApiKey)) {
-                return Optional.of(new Token(encrypt(tokenFromApiKey)));
-            }
-            LOGGER.error("Authorisation failure - token does not match the given Hmac");
+        return extractEncryptedTokenFrom(apiKey, true);
+    }
+
+    /**
+     * As {@link #extractEncryptedTokenFrom(String)}, but without rejecting keys already known to be revoked,
+     * so that revoking a key twice is still answered by the revocation itself.
+     */
+    public Optional<Token> extractEncryptedTokenToRevoke(String apiKey) {
+        return extractEncryptedTokenFrom(apiKey, false);
+    }
+
+    private Optional<Token> extractEncryptedTokenFrom(String apiKey, boolean rejectKnownKeys) {
+        int initHmacIndex = ApiKeyFormat.hmacIndex(apiKey);
+        if (initHmacIndex == CHECKSUM_MISMATCH) {
+            authFailureLogger.record(AuthFailureLogger.Reason.CHECKSUM);
+            return Optional.empty();
+        }
+        if (initHmacIndex == MALFORMED) {
+            authFailureLogger.record(AuthFailureLogger.Reason.MALFORMED);
+            return Optional.empty();
         }
 
-        LOGGER.error("Authorisation failure - token extraction from key failed");
-        return Optional.empty();
+        int keyId = ApiKeyFormat.keyId(apiKey);
+        String hmacFromApiKey = apiKey.substring(initHmacIndex, initHmacIndex + HMAC_SHA1_LENGTH);
+        String tokenFromApiKey = apiKey.substring(0, initHmacIndex);
+        if (!apiKeySigner.hasSecret(keyId) || !tokenMatchesHmac(keyId, tokenFromApiKey, hmacFromApiKey)) {
+            authFailureLogger.record(AuthFailureLogger.Reason.HMAC);
+            return Optional.empty();
+        }
+
+        ApiKeyDigest apiKeyDigest = ApiKeyDigest.of(tokenFromApiKey);
+        if (rejectKnownKeys) {
+            rejectedTokenCache.rejectIfKnown(apiKeyDigest);
+        }
+        TokenHash tokenHash = cryptoExecutor.call(() -> encrypt(tokenFromApiKey));
+        return Optional.of(new Token(tokenHash, ApiKeyFormat.serviceMode(apiKey).orElse(null), apiKeyDigest));
     }
     
     public List<TokenResponse> findTokensBy(String accountId, TokenState tokenState, TokenSource tokenSource) {
@@ -120,46 +201,64 @@ public class TokenService {
     }
 
     public TokenResponse updateTokenDescription(TokenLink tokenLink, String description) {
-        if (authTokenDao.updateTokenDescription(tokenLink, description)) {
-            LOGGER.info("Updated description of token with token_link {}", tokenLink);
-            return authTokenDao.findTokenByTokenLink(tokenLink).map(TokenResponse::fromEntity)
-                    .orElseThrow(() -> new TokenNotFoundException("Could not update description of token with token_link " + tokenLink));
-        }
-
-        LOGGER.error("Could not update description of token with token_link " + tokenLink);
-        throw new TokenNotFoundException("Could not update description of token with token_link " + tokenLink);
+        return authTokenDao.updateTokenDescription(tokenLink, description)
+                .map(tokenEntity -> {
+                    LOGGER.info("Updated description of token with token_link {}", tokenLink);
+                    return TokenResponse.fromEntity(tokenEntity);
+                })
+                .orElseThrow(() -> {
+                    LOGGER.error("Could not update description of token with token_link " + tokenLink);
+                    return new TokenNotFoundException("Could not update description of token with token_link " + tokenLink);
+                });
     }
 
     public ZonedDateTime revokeToken(String accountId, TokenHash tokenHash) {
-        return authTokenDao.revokeSingleToken(accountId, tokenHash).map(localDateTime -> localDateTime.atZone(ZoneOffset.UTC))
+        return authTokenDao.revokeSingleToken(accountId, tokenHash)
+                .map(tokenEntity -> {
+                    forgetRevokedToken(tokenHash, tokenEntity);
+                    return tokenEntity.getRevokedDate();
+                })
                 .orElseThrow(() -> new TokenNotFoundException("Could not revoke token"));
     }
     
     public ZonedDateTime revokeToken(String accountId, TokenLink tokenLink) {
         LOGGER.info("Revoked token for gateway account ID {} with token link {}", accountId, tokenLink);
-        return authTokenDao.revokeSingleToken(accountId, tokenLink).map(localDateTime -> localDateTime.atZone(ZoneOffset.UTC))
+        return authTokenDao.revokeSingleToken(accountId, tokenLink, this::forgetRevokedToken).map(TokenEntity::getRevokedDate)
                 .orElseThrow(() -> new TokenNotFoundException("Could not revoke token with token_link " + tokenLink));
     }
     
     public ZonedDateTime revokeToken(String serviceExternalId, ServiceMode serviceMode, TokenHash tokenHash) {
-        return authTokenDao.revokeSingleToken(serviceExternalId, serviceMode, tokenHash).map(localDateTime -> localDateTime.atZone(ZoneOffset.UTC))
+        return authTokenDao.revokeSingleToken(serviceExternalId, serviceMode, tokenHash)
+                .map(tokenEntity -> {
+                    forgetRevokedToken(tokenHash, tokenEntity);
+                    return tokenEntity.getRevokedDate();
+                })
                 .orElseThrow(() -> new TokenNotFoundException("Could not revoke token"));
     }
 
     public ZonedDateTime revokeToken(String serviceExternalId, ServiceMode serviceMode, TokenLink tokenLink) {
-        return authTokenDao.revokeSingleToken(serviceExternalId, serviceMode, tokenLink).map(localDateTime -> localDateTime.atZone(ZoneOffset.UTC))
+        return authTokenDao.revokeSingleToken(serviceExternalId, serviceMode, tokenLink, this::forgetRevokedToken).map(TokenEntity::getRevokedDate)
                 .orElseThrow(() -> new TokenNotFoundException("Could not revoke token with token_link " + tokenLink));
     }
 
     public void revokeTokens(String accountId) {
-        int numberOfTokensRevoked = authTokenDao.revokeTokens(accountId);
+        int numberOfTokensRevoked = authTokenDao.revokeTokens(accountId, this::forgetRevokedToken);
         LOGGER.info("Revoked {} tokens from gateway account with id {}", numberOfTokensRevoked, accountId);
     }
     
     public void revokeTokens(String serviceExternalId, ServiceMode serviceMode) {
-        int numberOfTokensRevoked = authTokenDao.revokeTokens(serviceExternalId, serviceMode);
+        int numberOfTokensRevoked = authTokenDao.revokeTokens(serviceExternalId, serviceMode, this::forgetRevokedToken);
         LOGGER.info("Revoked {} tokens from service with id {} in {} mode", numberOfTokensRevoked, serviceExternalId, serviceMode);
     }
+
+    /**
+     * However a token was revoked, this node stops authenticating it straight away rather than once
+     * the auth cache entry expires.
+     */
+    private void forgetRevokedToken(TokenHash tokenHash, TokenEntity tokenEntity) {
+        rejectedTokenCache.recordRevoked(tokenHash, tokenEntity.getTokenLink());
+        authCache.invalidate(tokenHash);
+    }
     
     /**
      * Tokens includes:
@@ -168,32 +267,37 @@ public class TokenService {
      */
     private Tokens issueTokens(CreateTokenRequest createTokenRequest) {
         final String prefix = generateTokenPrefix(createTokenRequest);
-        final String newId = prefix + newId();
-        return new Tokens(encrypt(newId), createApiKey(newId));
+        final String newId = apiKeyHmacKeyId == DEFAULT_KEY_ID
+                ? ApiKeyFormat.token(prefix, newId(), apiKeyChecksumEnabled)
+                : ApiKeyFormat.token(prefix, apiKeyHmacKeyId, newId());
+        return cryptoExecutor.call(() -> new Tokens(encrypt(newId), createApiKey(newId)));
     }
     
     private TokenHash encrypt(String token) {
-        return TokenHash.of(BCrypt.hashpw(token, encryptDBSalt));
+        return TokenHash.of(bcrypt.hash(token));
     }
 
     private String createApiKey(String token) {
-        byte[] hmacBytes = new HmacUtils(HmacAlgorithms.HMAC_SHA_1, apiKeyHmacSecret).hmac(token);
-        String encodedHmac = BaseEncoding.base32Hex().lowerCase().omitPadding().encode(hmacBytes);
-        return token + encodedHmac;
+        String encodedHmac = apiKeySigner.sign(apiKeyHmacKeyId, token);
+        // Keys carrying a key id always have a checksum, as that is part of their layout
+        return ApiKeyFormat.apiKey(token, encodedHmac, apiKeyChecksumEnabled || apiKeyHmacKeyId != DEFAULT_KEY_ID);
     }
 
-    private boolean tokenMatchesHmac(String token, String currentHmac) {
-        final String hmacCalculatedFromToken = BaseEncoding.base32Hex()
-                .lowerCase().omitPadding()
-                .encode(new HmacUtils(HmacAlgorithms.HMAC_SHA_1, apiKeyHmacSecret).hmac(token));
+    private boolean tokenMatchesHmac(int keyId, String token, String currentHmac) {
+        final String hmacCalculatedFromToken = apiKeySigner.sign(keyId, token);
 
         return hmacCalculatedFromToken.equals(currentHmac);
     }
 
-    private boolean isValidLength(String apiKey) {
-        int apiKeyLength = apiKey.length();
-        return (apiKeyLength >= API_KEY_MIN_LENGTH)
-                && (apiKeyLength <= API_KEY_MAX_LENGTH);
+    private int keyIdToSignWith(String configuredKeyId) {
+        if (configuredKeyId == null) {
+            return DEFAULT_KEY_ID;
+        }
+        int keyId = configuredKeyId.length() == 1 ? ApiKeyFormat.keyIdOf(configuredKeyId.charAt(0)) : DEFAULT_KEY_ID;
+        if (keyId == DEFAULT_KEY_ID || !apiKeySigner.hasSecret(keyId)) {
+            throw new IllegalArgumentException("No API key HMAC secret is configured for key id " + configuredKeyId);
+        }
+        return keyId;
     }
 
     private String generateTokenPrefix(CreateTokenRequest createTokenRequest) {
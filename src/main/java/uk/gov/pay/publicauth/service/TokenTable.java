@@ -0,0 +1,44 @@
+package uk.gov.pay.publicauth.service;
+
+import uk.gov.pay.publicauth.model.AuthResponse;
+import uk.gov.pay.publicauth.model.TokenEntity;
+import uk.gov.pay.publicauth.model.TokenHash;
+
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Storage for the tokens held by the {@link TokenIndex}. Implementations allow one writer and any number
+ * of concurrent readers.
+ */
+interface TokenTable {
+
+    Optional<AuthResponse> find(TokenHash tokenHash);
+
+    void put(TokenHash tokenHash, TokenEntity tokenEntity);
+
+    void remove(TokenHash tokenHash);
+
+    int size();
+
+    /**
+     * Stores a token as encoded against this table's {@link #columns()}, such as one read back from a
+     * snapshot.
+     */
+    void put(TokenColumns.EncodedToken token);
+
+    /**
+     * Passes every stored token to the consumer, reusing one {@link TokenColumns.EncodedToken}. Only the
+     * writer may call this.
+     */
+    void forEach(Consumer<TokenColumns.EncodedToken> consumer);
+
+    TokenColumns columns();
+
+    /**
+     * Frees any memory the table holds outside the heap. Only the writer may call this, once no reader can
+     * reach the table any more.
+     */
+    default void release() {
+    }
+}
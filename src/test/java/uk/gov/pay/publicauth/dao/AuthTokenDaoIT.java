@@ -15,12 +15,14 @@ import uk.gov.pay.publicauth.model.TokenLink;
 import uk.gov.pay.publicauth.utils.DatabaseTestHelper;
 import uk.gov.pay.publicauth.utils.DropwizardAppWithPostgresExtension;
 
-import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.chrono.ChronoZonedDateTime;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 import static java.time.ZoneOffset.UTC;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -28,6 +30,7 @@ import static org.hamcrest.Matchers.both;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.Is.is;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -55,6 +58,7 @@ class AuthTokenDaoIT {
     private static final String TOKEN_DESCRIPTION = "Token description";
     private static final String TOKEN_DESCRIPTION_2 = "Token description 2";
     private static final String SERVICE_EXTERNAL_ID = "cd1b871207a94a7fa157dee678146acd";
+    private static final BiConsumer<TokenHash, TokenEntity> IGNORE_REVOKED = (tokenHash, token) -> { };
     private DatabaseTestHelper databaseHelper;
 
     @BeforeEach
@@ -99,6 +103,123 @@ class AuthTokenDaoIT {
         assertThat(afterUpdate.get().getLastUsedDate(), isCloseTo(now));
     }
 
+    @Test
+    void shouldFindATokenByHashAndUpdateLastUsedTime() {
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, null, DIRECT_DEBIT, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        ZonedDateTime now = databaseHelper.getCurrentTime();
+
+        Optional<TokenEntity> tokenInfo = authTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH);
+
+        assertThat(tokenInfo.get().getAccountId(), is(ACCOUNT_ID));
+        assertThat(tokenInfo.get().getTokenPaymentType(), is(DIRECT_DEBIT));
+        assertThat(tokenInfo.get().getTokenLink(), is(TOKEN_LINK));
+        assertThat(tokenInfo.get().getServiceExternalId(), is(SERVICE_EXTERNAL_ID));
+        assertThat(tokenInfo.get().getRevokedDate(), is(nullValue()));
+        assertThat(authTokenDao.findTokenByHash(TOKEN_HASH).get().getLastUsedDate(), isCloseTo(now));
+    }
+
+    @Test
+    void shouldRecordUseInTokenUsageWithoutRewritingTokensRow() {
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, null, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        ZonedDateTime now = databaseHelper.getCurrentTime();
+        Optional<String> rowVersionBefore = databaseHelper.lookupColumnForTokenTable("xmin::text", "token_link", TOKEN_LINK.toString());
+
+        authTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH);
+        authTokenDao.updateLastUsedTime(List.of(TOKEN_HASH));
+
+        assertThat(databaseHelper.lookupColumnForTokenTable("xmin::text", "token_link", TOKEN_LINK.toString()), is(rowVersionBefore));
+        assertThat(databaseHelper.lastUsedTimestampForAccount(ACCOUNT_ID), isCloseTo(now));
+    }
+
+    @Test
+    void shouldFindATokenByHashInExpectedServiceModeAndFallBackToOtherModes() {
+        ZonedDateTime now = databaseHelper.getCurrentTime();
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
+        databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK_2, ACCOUNT_ID_2, TOKEN_DESCRIPTION_2, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+
+        TokenEntity liveToken = authTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH, ServiceMode.LIVE).get();
+        TokenEntity testTokenExpectedToBeLive = authTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH_2, ServiceMode.LIVE).get();
+
+        assertThat(liveToken.getTokenLink(), is(TOKEN_LINK));
+        assertThat(liveToken.getServiceMode(), is(ServiceMode.LIVE));
+        assertThat(testTokenExpectedToBeLive.getTokenLink(), is(TOKEN_LINK_2));
+        assertThat(testTokenExpectedToBeLive.getServiceMode(), is(ServiceMode.TEST));
+        assertThat(databaseHelper.lastUsedTimestampForAccount(ACCOUNT_ID), isCloseTo(now));
+        assertThat(databaseHelper.lastUsedTimestampForAccount(ACCOUNT_ID_2), isCloseTo(now));
+        assertThat(authTokenDao.findTokenByHashAndUpdateLastUsedTime(TokenHash.of("TOKEN-3"), ServiceMode.TEST), is(Optional.empty()));
+    }
+
+    @Test
+    void shouldFindARevokedTokenByHashWithoutUpdatingLastUsedTime() {
+        ZonedDateTime lastUsed = databaseHelper.getCurrentTime().minusDays(1);
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, lastUsed.plusHours(1), TEST_USER_NAME, lastUsed, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+
+        Optional<TokenEntity> tokenInfo = authTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH);
+
+        assertThat(tokenInfo.get().getRevokedDate(), is(notNullValue()));
+        assertThat(authTokenDao.findTokenByHash(TOKEN_HASH).get().getLastUsedDate(), isCloseTo(lastUsed));
+    }
+
+    @Test
+    void shouldReturnEmptyOptionalIfTokenWithHashIsNotFound_whenUpdatingLastUsedTime() {
+        assertThat(authTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH), is(Optional.empty()));
+    }
+
+    @Test
+    void shouldUpdateLastUsedTimeOfActiveTokensInOneStatement() {
+        ZonedDateTime lastUsed = databaseHelper.getCurrentTime().minusDays(1);
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, lastUsed, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK_2, API, ACCOUNT_ID, TOKEN_DESCRIPTION, lastUsed, TEST_USER_NAME, lastUsed, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        ZonedDateTime now = databaseHelper.getCurrentTime();
+
+        int updated = authTokenDao.updateLastUsedTime(List.of(TOKEN_HASH, TOKEN_HASH_2));
+
+        assertThat(updated, is(1));
+        assertThat(authTokenDao.findTokenByHash(TOKEN_HASH).get().getLastUsedDate(), isCloseTo(now));
+        assertThat(authTokenDao.findTokenByHash(TOKEN_HASH_2).get().getLastUsedDate(), isCloseTo(lastUsed));
+    }
+
+    @Test
+    void shouldStreamOnlyActiveTokens() {
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK_2, ACCOUNT_ID, TOKEN_DESCRIPTION, ZonedDateTime.now(UTC), TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        Map<TokenHash, TokenEntity> streamed = new HashMap<>();
+
+        authTokenDao.streamActiveTokens(streamed::put);
+
+        assertThat(streamed.keySet(), is(Set.of(TOKEN_HASH)));
+        assertThat(streamed.get(TOKEN_HASH).getTokenLink(), is(TOKEN_LINK));
+    }
+
+    @Test
+    void shouldFindTokensChangedSinceChangeMarker() {
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        long changeMarker = authTokenDao.streamActiveTokens((tokenHash, tokenEntity) -> { });
+
+        authTokenDao.revokeSingleToken(ACCOUNT_ID, TOKEN_LINK, IGNORE_REVOKED);
+        databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK_2, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        Map<TokenHash, TokenEntity> changed = new HashMap<>();
+        long nextChangeMarker = authTokenDao.findTokenChangesSince(changeMarker, changed::put);
+
+        assertThat(changed.keySet(), is(Set.of(TOKEN_HASH, TOKEN_HASH_2)));
+        assertThat(changed.get(TOKEN_HASH).getRevokedDate(), is(notNullValue()));
+        assertThat(changed.get(TOKEN_HASH_2).getRevokedDate(), is(nullValue()));
+        assertThat(nextChangeMarker, greaterThan(changeMarker));
+    }
+
+    @Test
+    void shouldNotFindTokensWhoseLastUsedTimeOrDescriptionChangedSinceChangeMarker() {
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        long changeMarker = authTokenDao.streamActiveTokens((tokenHash, tokenEntity) -> { });
+
+        authTokenDao.updateLastUsedTime(TOKEN_HASH);
+        authTokenDao.updateTokenDescription(TOKEN_LINK, TOKEN_DESCRIPTION_2);
+        Map<TokenHash, TokenEntity> changed = new HashMap<>();
+        authTokenDao.findTokenChangesSince(changeMarker, changed::put);
+
+        assertThat(changed.isEmpty(), is(true));
+    }
+
     @Test
     void missingAccountHasNoAssociatedTokens() {
         List<TokenEntity> tokens = authTokenDao.findTokensBy(ACCOUNT_ID, ACTIVE, API);
@@ -205,10 +326,35 @@ class AuthTokenDaoIT {
         assertThat(firstToken.getIssuedDate(), isCloseTo(inserted));
     }
 
+    @Test
+    void shouldArchiveTokensRevokedLongEnoughAgoAndStillFindThem() {
+        ZonedDateTime now = databaseHelper.getCurrentTime();
+        ZonedDateTime lastUsed = now.minusDays(10);
+        ZonedDateTime revoked = now.minusDays(8);
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, revoked, TEST_USER_NAME, lastUsed, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK_2, API, ACCOUNT_ID, TOKEN_DESCRIPTION_2, now.minusDays(1), TEST_USER_NAME_2, lastUsed, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        databaseHelper.insertAccount(TokenHash.of("TOKEN-3"), TokenLink.of("123456789101112131415161718192021224"), API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, lastUsed, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+
+        assertThat(authTokenDao.archiveRevokedTokens(7 * 24 * 60 * 60, 100), is(1));
+
+        assertThat(databaseHelper.lookupColumnForTokenTable("token_link", "token_link", TOKEN_LINK.toString()).isPresent(), is(false));
+        TokenEntity archivedToken = authTokenDao.findTokenByHash(TOKEN_HASH).get();
+        assertThat(archivedToken.getTokenLink(), is(TOKEN_LINK));
+        assertThat(archivedToken.getRevokedDate(), is(revoked));
+        assertThat(archivedToken.getLastUsedDate(), is(lastUsed));
+        assertThat(authTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH).get().getRevokedDate(), is(revoked));
+        assertThat(authTokenDao.findTokenByTokenLink(TOKEN_LINK).isPresent(), is(true));
+        assertThat(authTokenDao.findTokenBy(ACCOUNT_ID, TOKEN_LINK).isPresent(), is(true));
+        assertThat(authTokenDao.findTokensBy(ACCOUNT_ID, REVOKED, API).stream().map(TokenEntity::getTokenLink).toList(), is(List.of(TOKEN_LINK_2, TOKEN_LINK)));
+        assertThat(authTokenDao.findTokensBy(SERVICE_EXTERNAL_ID, ServiceMode.TEST, REVOKED, API).size(), is(2));
+        assertThat(authTokenDao.findTokensBy(ACCOUNT_ID, ACTIVE, API).size(), is(1));
+        assertThat(authTokenDao.archiveRevokedTokens(7 * 24 * 60 * 60, 100), is(0));
+    }
+
     @Test
     void shouldInsertNewToken() {
         var createTokenRequest = new CreateTokenRequest("account-id", "description", "user", CARD, API, LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
-        authTokenDao.storeToken(TokenHash.of("token-hash"), createTokenRequest);
+        TokenEntity storedToken = authTokenDao.storeToken(TokenHash.of("token-hash"), createTokenRequest);
         Map<String, Object> tokenByHash = databaseHelper.getTokenByHash(TokenHash.of("token-hash"));
         ZonedDateTime now = databaseHelper.getCurrentTime();
 
@@ -223,14 +369,35 @@ class AuthTokenDaoIT {
         assertThat(tokenByHash.get("service_external_id"), is(SERVICE_EXTERNAL_ID));
         ZonedDateTime tokenIssueTime = databaseHelper.issueTimestampForAccount("account-id");
         assertThat(tokenIssueTime, isCloseTo(now));
+        assertThat(storedToken.getTokenLink().toString(), is(tokenByHash.get("token_link")));
+        assertThat(storedToken.getIssuedDate(), isCloseTo(now));
+        assertThat(storedToken.getRevokedDate(), is(nullValue()));
+    }
+
+    @Test
+    void shouldFindUpdateAndRevokeTokenByUuidTokenLinkAndHashDigest() {
+        var createTokenRequest = new CreateTokenRequest(ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, CARD, API, LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
+        TokenEntity storedToken = authTokenDao.storeToken(TOKEN_HASH, createTokenRequest);
+        TokenLink uuidTokenLink = createTokenRequest.getTokenLink();
+        Map<String, Object> tokenByHash = databaseHelper.getTokenByHash(TOKEN_HASH);
+
+        assertThat(tokenByHash.get("token_link_uuid"), is(uuidTokenLink.asUuid().get()));
+        assertThat((byte[]) tokenByHash.get("token_hash_digest"), is(TOKEN_HASH.getDigest()));
+        assertThat(storedToken.getTokenLink(), is(uuidTokenLink));
+        assertThat(authTokenDao.findTokenByTokenLink(uuidTokenLink).get().getTokenLink(), is(uuidTokenLink));
+        assertThat(authTokenDao.findTokenBy(ACCOUNT_ID, uuidTokenLink).isPresent(), is(true));
+        assertThat(authTokenDao.findTokenByHash(TOKEN_HASH).get().getTokenLink(), is(uuidTokenLink));
+        assertThat(authTokenDao.updateTokenDescription(uuidTokenLink, TOKEN_DESCRIPTION_2).get().getDescription(), is(TOKEN_DESCRIPTION_2));
+        assertThat(authTokenDao.revokeSingleToken(ACCOUNT_ID, uuidTokenLink, IGNORE_REVOKED).isPresent(), is(true));
     }
 
     @Test
     void updateAnExistingToken() {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
-        boolean updateResult = authTokenDao.updateTokenDescription(TOKEN_LINK, TOKEN_DESCRIPTION_2);
+        Optional<TokenEntity> updatedToken = authTokenDao.updateTokenDescription(TOKEN_LINK, TOKEN_DESCRIPTION_2);
 
-        assertThat(updateResult, is(true));
+        assertThat(updatedToken.get().getDescription(), is(TOKEN_DESCRIPTION_2));
+        assertThat(updatedToken.get().getTokenLink(), is(TOKEN_LINK));
         Optional<String> descriptionInDb = databaseHelper.lookupColumnForTokenTable("description", "token_link", TOKEN_LINK.toString());
         assertThat(descriptionInDb.get(), equalTo(TOKEN_DESCRIPTION_2));
     }
@@ -303,6 +470,28 @@ class AuthTokenDaoIT {
         assertThat(token.getIssuedDate(), isCloseTo(inserted));
     }
 
+    @Test
+    void shouldFindOnlyTheTokenWithTheGivenLink_byServiceAndTokenLink() {
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, null, CARD, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK_2, API, ACCOUNT_ID, TOKEN_DESCRIPTION_2, null, TEST_USER_NAME_2, null, CARD, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+
+        assertThat(authTokenDao.findTokenBy(SERVICE_EXTERNAL_ID, ServiceMode.TEST, TOKEN_LINK_2).get().getTokenLink(), is(TOKEN_LINK_2));
+        assertThat(authTokenDao.findTokenBy(SERVICE_EXTERNAL_ID, ServiceMode.TEST, TokenLink.of("123456789101112131415161718192021224")).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldFindArchivedTokenByServiceAndTokenLink() {
+        ZonedDateTime revoked = databaseHelper.getCurrentTime().minusDays(8);
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, revoked, TEST_USER_NAME, null, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+
+        assertThat(authTokenDao.archiveRevokedTokens(7 * 24 * 60 * 60, 100), is(1));
+
+        TokenEntity archivedToken = authTokenDao.findTokenBy(SERVICE_EXTERNAL_ID, ServiceMode.TEST, TOKEN_LINK).get();
+        assertThat(archivedToken.getTokenLink(), is(TOKEN_LINK));
+        assertThat(archivedToken.getRevokedDate(), is(revoked));
+        assertThat(authTokenDao.findTokenBy(SERVICE_EXTERNAL_ID, ServiceMode.LIVE, TOKEN_LINK).isPresent(), is(false));
+    }
+
     @Test
     void shouldFindByTokenLinkAndReturnCardTokensIfTokenPaymentTypeIsNull() {
         ZonedDateTime now = databaseHelper.getCurrentTime();
@@ -320,9 +509,9 @@ class AuthTokenDaoIT {
 
     @Test
     void notUpdateANonExistingToken() {
-        boolean updateResult = authTokenDao.updateTokenDescription(TOKEN_LINK, TOKEN_DESCRIPTION_2);
+        Optional<TokenEntity> updatedToken = authTokenDao.updateTokenDescription(TOKEN_LINK, TOKEN_DESCRIPTION_2);
 
-        assertThat(updateResult, is(false));
+        assertThat(updatedToken.isPresent(), is(false));
         Optional<String> descriptionInDb = databaseHelper.lookupColumnForTokenTable("description", "token_link", TOKEN_LINK.toString());
         assertThat(descriptionInDb.isPresent(), is(false));
     }
@@ -331,9 +520,9 @@ class AuthTokenDaoIT {
     void notUpdateARevokedToken() {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, ZonedDateTime.now(UTC), TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
 
-        boolean updateResult = authTokenDao.updateTokenDescription(TOKEN_LINK, TOKEN_DESCRIPTION_2);
+        Optional<TokenEntity> updatedToken = authTokenDao.updateTokenDescription(TOKEN_LINK, TOKEN_DESCRIPTION_2);
 
-        assertThat(updateResult, is(false));
+        assertThat(updatedToken.isPresent(), is(false));
         Optional<String> descriptionInDb = databaseHelper.lookupColumnForTokenTable("description", "token_link", TOKEN_LINK.toString());
         assertThat(descriptionInDb.get(), equalTo(TOKEN_DESCRIPTION));
     }
@@ -341,10 +530,13 @@ class AuthTokenDaoIT {
     @Test
     void shouldRevokeASingleTokenByTokenLink() {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        Map<TokenHash, TokenLink> revokedTokens = new HashMap<>();
 
-        Optional<LocalDateTime> revokedDate = authTokenDao.revokeSingleToken(ACCOUNT_ID, TOKEN_LINK);
+        Optional<TokenEntity> revokedToken = authTokenDao.revokeSingleToken(ACCOUNT_ID, TOKEN_LINK, (tokenHash, token) -> revokedTokens.put(tokenHash, token.getTokenLink()));
 
-        var actual = revokedDate.get().atZone(UTC);
+        assertThat(revokedTokens, is(Map.of(TOKEN_HASH, TOKEN_LINK)));
+
+        var actual = revokedToken.get().getRevokedDate();
 
         assertThat(actual, isCloseTo(ZonedDateTime.now(UTC)));
 
@@ -356,9 +548,9 @@ class AuthTokenDaoIT {
     void shouldRevokeASingleTokenByServiceAndTokenLinkInLiveMode() {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, null, CARD, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
 
-        Optional<LocalDateTime> revokedDate = authTokenDao.revokeSingleToken(SERVICE_EXTERNAL_ID, ServiceMode.LIVE, TOKEN_LINK);
+        Optional<TokenEntity> revokedToken = authTokenDao.revokeSingleToken(SERVICE_EXTERNAL_ID, ServiceMode.LIVE, TOKEN_LINK, IGNORE_REVOKED);
 
-        var actual = revokedDate.get().atZone(UTC);
+        var actual = revokedToken.get().getRevokedDate();
 
         assertThat(actual, isCloseTo(ZonedDateTime.now(UTC)));
 
@@ -370,9 +562,9 @@ class AuthTokenDaoIT {
     void shouldRevokeASingleTokenByServiceAndTokenLinkInTestMode() {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, null, CARD, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
 
-        Optional<LocalDateTime> revokedDate = authTokenDao.revokeSingleToken(SERVICE_EXTERNAL_ID, ServiceMode.TEST, TOKEN_LINK);
+        Optional<TokenEntity> revokedToken = authTokenDao.revokeSingleToken(SERVICE_EXTERNAL_ID, ServiceMode.TEST, TOKEN_LINK, IGNORE_REVOKED);
 
-        var actual = revokedDate.get().atZone(UTC);
+        var actual = revokedToken.get().getRevokedDate();
 
         assertThat(actual, isCloseTo(ZonedDateTime.now(UTC)));
 
@@ -384,9 +576,9 @@ class AuthTokenDaoIT {
     void shouldRevokeASingleTokenByTokenHash() {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
 
-        Optional<LocalDateTime> revokedDate = authTokenDao.revokeSingleToken(ACCOUNT_ID, TOKEN_HASH);
+        Optional<TokenEntity> revokedToken = authTokenDao.revokeSingleToken(ACCOUNT_ID, TOKEN_HASH);
 
-        var actual = revokedDate.get().atZone(UTC);
+        var actual = revokedToken.get().getRevokedDate();
 
         assertThat(actual, isCloseTo(ZonedDateTime.now(UTC)));
 
@@ -398,9 +590,9 @@ class AuthTokenDaoIT {
     void shouldRevokeASingleTokenByServiceAndTokenHashInLiveMode() {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, null, CARD, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
 
-        Optional<LocalDateTime> revokedDate = authTokenDao.revokeSingleToken(SERVICE_EXTERNAL_ID, ServiceMode.LIVE, TOKEN_HASH);
+        Optional<TokenEntity> revokedToken = authTokenDao.revokeSingleToken(SERVICE_EXTERNAL_ID, ServiceMode.LIVE, TOKEN_HASH);
 
-        var actual = revokedDate.get().atZone(UTC);
+        var actual = revokedToken.get().getRevokedDate();
 
         assertThat(actual, isCloseTo(ZonedDateTime.now(UTC)));
 
@@ -412,9 +604,9 @@ class AuthTokenDaoIT {
     void shouldRevokeASingleTokenByServiceAndTokenHashInTestMode() {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, null, CARD, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
 
-        Optional<LocalDateTime> revokedDate = authTokenDao.revokeSingleToken(SERVICE_EXTERNAL_ID, ServiceMode.TEST, TOKEN_LINK);
+        Optional<TokenEntity> revokedToken = authTokenDao.revokeSingleToken(SERVICE_EXTERNAL_ID, ServiceMode.TEST, TOKEN_LINK, IGNORE_REVOKED);
 
-        var actual = revokedDate.get().atZone(UTC);
+        var actual = revokedToken.get().getRevokedDate();
 
         assertThat(actual, isCloseTo(ZonedDateTime.now(UTC)));
 
@@ -427,9 +619,9 @@ class AuthTokenDaoIT {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
         databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK_2, ACCOUNT_ID_2, TOKEN_DESCRIPTION_2, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
 
-        Optional<LocalDateTime> revokedDate  = authTokenDao.revokeSingleToken(ACCOUNT_ID, TOKEN_LINK_2);
+        Optional<TokenEntity> revokedToken = authTokenDao.revokeSingleToken(ACCOUNT_ID, TOKEN_LINK_2, IGNORE_REVOKED);
 
-        assertThat(revokedDate.isPresent(), is(false));
+        assertThat(revokedToken.isPresent(), is(false));
 
         Optional<String> revokedInDb = databaseHelper.lookupColumnForTokenTable("revoked", "token_link", TOKEN_LINK.toString());
         assertThat(revokedInDb.isPresent(), is(false));
@@ -439,9 +631,9 @@ class AuthTokenDaoIT {
     void shouldNotRevokeATokenAlreadyRevoked() {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION,  ZonedDateTime.now(UTC), TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
 
-        Optional<LocalDateTime> revokedDate = authTokenDao.revokeSingleToken(ACCOUNT_ID, TOKEN_LINK);
+        Optional<TokenEntity> revokedToken = authTokenDao.revokeSingleToken(ACCOUNT_ID, TOKEN_LINK, IGNORE_REVOKED);
 
-        assertThat(revokedDate.isPresent(), is(false));
+        assertThat(revokedToken.isPresent(), is(false));
 
         Optional<String> revokedInDb = databaseHelper.lookupColumnForTokenTable("revoked", "token_link", TOKEN_LINK.toString());
         assertThat(revokedInDb.isPresent(), is(true));
@@ -456,13 +648,23 @@ class AuthTokenDaoIT {
         });
     }
     
+    @Test
+    void shouldErrorIfTriesToSaveATokenLinkUsedInTheOtherServiceMode() {
+        databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
+        Assertions.assertThrows(RuntimeException.class, () -> {
+            databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
+        });
+    }
+    
     @Test
     void shouldRevokeTokensByAccountId() {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
         databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK_2, ACCOUNT_ID, TOKEN_DESCRIPTION_2, TEST_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
         
-        var revokedTokensCount = authTokenDao.revokeTokens(ACCOUNT_ID);
+        Map<TokenHash, TokenLink> revokedTokens = new HashMap<>();
+        var revokedTokensCount = authTokenDao.revokeTokens(ACCOUNT_ID, (tokenHash, token) -> revokedTokens.put(tokenHash, token.getTokenLink()));
         
+        assertThat(revokedTokens, is(Map.of(TOKEN_HASH, TOKEN_LINK, TOKEN_HASH_2, TOKEN_LINK_2)));
         Optional<String> revokedInDb = databaseHelper.lookupColumnForTokenTable("revoked", "token_link", TOKEN_LINK.toString());
         Optional<String> revokedInDb2 = databaseHelper.lookupColumnForTokenTable("revoked", "token_link", TOKEN_LINK_2.toString());
         
@@ -476,7 +678,7 @@ class AuthTokenDaoIT {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, null, CARD, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
         databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK_2, API, ACCOUNT_ID, TOKEN_DESCRIPTION_2, null, TEST_USER_NAME_2, null, CARD, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
         
-        var revokedTokensCount = authTokenDao.revokeTokens(SERVICE_EXTERNAL_ID, ServiceMode.LIVE);
+        var revokedTokensCount = authTokenDao.revokeTokens(SERVICE_EXTERNAL_ID, ServiceMode.LIVE, IGNORE_REVOKED);
 
         Optional<String> revokedInDb = databaseHelper.lookupColumnForTokenTable("revoked", "token_link", TOKEN_LINK.toString());
         Optional<String> revokedInDb2 = databaseHelper.lookupColumnForTokenTable("revoked", "token_link", TOKEN_LINK_2.toString());
@@ -491,7 +693,7 @@ class AuthTokenDaoIT {
         databaseHelper.insertAccount(TOKEN_HASH, TOKEN_LINK, API, ACCOUNT_ID, TOKEN_DESCRIPTION, null, TEST_USER_NAME, null, CARD, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
         databaseHelper.insertAccount(TOKEN_HASH_2, TOKEN_LINK_2, API, ACCOUNT_ID, TOKEN_DESCRIPTION_2, null, TEST_USER_NAME_2, null, CARD, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
 
-        var revokedTokensCount = authTokenDao.revokeTokens(SERVICE_EXTERNAL_ID, ServiceMode.TEST);
+        var revokedTokensCount = authTokenDao.revokeTokens(SERVICE_EXTERNAL_ID, ServiceMode.TEST, IGNORE_REVOKED);
 
         Optional<String> revokedInDb = databaseHelper.lookupColumnForTokenTable("revoked", "token_link", TOKEN_LINK.toString());
         Optional<String> revokedInDb2 = databaseHelper.lookupColumnForTokenTable("revoked", "token_link", TOKEN_LINK_2.toString());
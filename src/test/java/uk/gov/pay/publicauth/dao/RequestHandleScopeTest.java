@@ -0,0 +1,91 @@
+package uk.gov.pay.publicauth.dao;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleCallback;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RequestHandleScopeTest {
+
+    @Mock
+    Jdbi jdbi;
+
+    @Mock
+    Handle scopedHandle;
+
+    @Mock
+    Handle ownHandle;
+
+    private RequestHandleScope requestHandleScope;
+
+    @BeforeEach
+    void setUp() {
+        requestHandleScope = new RequestHandleScope(jdbi);
+    }
+
+    @Test
+    void shouldShareOneHandleBetweenCallsInAScope() {
+        when(jdbi.open()).thenReturn(scopedHandle);
+
+        requestHandleScope.begin();
+        Handle first = requestHandleScope.withHandle(handle -> handle);
+        Handle second = requestHandleScope.withHandle(handle -> handle);
+
+        assertThat(first, sameInstance(scopedHandle));
+        assertThat(second, sameInstance(scopedHandle));
+        verify(jdbi, times(1)).open();
+        verify(scopedHandle, never()).close();
+
+        requestHandleScope.end();
+        verify(scopedHandle).close();
+    }
+
+    @Test
+    void shouldNotOpenAHandle_whenScopeMakesNoCalls() {
+        requestHandleScope.begin();
+        requestHandleScope.end();
+
+        verify(jdbi, never()).open();
+    }
+
+    @Test
+    void shouldUseAHandleOfItsOwnForEachCall_outsideAScope() {
+        givenEachCallOutsideAScopeGets(ownHandle);
+
+        assertThat(requestHandleScope.withHandle(handle -> handle), sameInstance(ownHandle));
+        assertThat(requestHandleScope.withHandle(handle -> handle), sameInstance(ownHandle));
+
+        verify(jdbi, times(2)).withHandle(any());
+        verify(jdbi, never()).open();
+    }
+
+    @Test
+    void shouldForgetScope_whenItEnds() {
+        when(jdbi.open()).thenReturn(scopedHandle);
+        givenEachCallOutsideAScopeGets(ownHandle);
+
+        requestHandleScope.begin();
+        requestHandleScope.withHandle(handle -> handle);
+        requestHandleScope.end();
+
+        assertThat(requestHandleScope.withHandle(handle -> handle), sameInstance(ownHandle));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenEachCallOutsideAScopeGets(Handle handle) {
+        when(jdbi.withHandle(any())).thenAnswer(invocation -> invocation.getArgument(0, HandleCallback.class).withHandle(handle));
+    }
+}
@@ -0,0 +1,116 @@
+package uk.gov.pay.publicauth.filters;
+
+import com.codahale.metrics.MetricRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RateLimitFilterTest {
+
+    private static final long NOW = 1_000_000_000L;
+
+    @Mock
+    HttpServletRequest request;
+
+    private MetricRegistry metricRegistry;
+    private RateLimitFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        filter = new RateLimitFilter(new TokenBucketRateLimiter(1, 1, 100, () -> NOW),
+                new TokenBucketRateLimiter(1, 1, 100, () -> NOW), metricRegistry);
+        filter.request = request;
+    }
+
+    @Test
+    void shouldLimitByLastXForwardedForEntry() {
+        ContainerRequestContext first = aRequest("203.0.113.1, 198.51.100.7", null);
+        ContainerRequestContext sameLastEntry = aRequest("203.0.113.2, 198.51.100.7", null);
+        ContainerRequestContext otherLastEntry = aRequest("198.51.100.7, 198.51.100.8", null);
+
+        filter.filter(first);
+        filter.filter(sameLastEntry);
+        filter.filter(otherLastEntry);
+
+        verify(first, never()).abortWith(any());
+        verify(sameLastEntry).abortWith(any());
+        verify(otherLastEntry, never()).abortWith(any());
+        assertThat(metricRegistry.counter("rate-limit.rejected.client-address").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldLimitByRemoteAddress_whenThereIsNoXForwardedFor() {
+        when(request.getRemoteAddr()).thenReturn("198.51.100.7");
+        ContainerRequestContext first = aRequest(null, null);
+        ContainerRequestContext second = aRequest(null, null);
+
+        filter.filter(first);
+        filter.filter(second);
+
+        verify(first, never()).abortWith(any());
+        verify(second).abortWith(any());
+    }
+
+    @Test
+    void shouldRespondWithTooManyRequestsAsJson() {
+        filter.filter(aRequest("198.51.100.7", null));
+        ContainerRequestContext rejectedRequest = aRequest("198.51.100.7", null);
+
+        filter.filter(rejectedRequest);
+
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(rejectedRequest).abortWith(response.capture());
+        assertThat(response.getValue().getStatus(), is(429));
+        assertThat(response.getValue().getMediaType(), is(MediaType.APPLICATION_JSON_TYPE));
+        assertThat(response.getValue().getEntity(), is(Map.of("message", "Too many requests")));
+    }
+
+    @Test
+    void shouldLimitByBearerToken_fromWhicheverAddressItIsPresented() {
+        ContainerRequestContext first = aRequest("198.51.100.7", "Bearer an-api-key");
+        ContainerRequestContext sameKey = aRequest("198.51.100.8", "Bearer an-api-key");
+        ContainerRequestContext otherKey = aRequest("198.51.100.9", "Bearer another-api-key");
+        ContainerRequestContext notBearer = aRequest("198.51.100.10", "Basic an-api-key");
+        ContainerRequestContext notBearerAgain = aRequest("198.51.100.11", "Basic an-api-key");
+
+        filter.filter(first);
+        filter.filter(sameKey);
+        filter.filter(otherKey);
+        filter.filter(notBearer);
+        filter.filter(notBearerAgain);
+
+        verify(first, never()).abortWith(any());
+        verify(sameKey).abortWith(any());
+        verify(otherKey, never()).abortWith(any());
+        verify(notBearer, never()).abortWith(any());
+        verify(notBearerAgain, never()).abortWith(any());
+        assertThat(metricRegistry.counter("rate-limit.rejected.token").getCount(), is(1L));
+    }
+
+    private static ContainerRequestContext aRequest(String forwardedFor, String authorization) {
+        ContainerRequestContext requestContext = mock(ContainerRequestContext.class);
+        when(requestContext.getHeaderString("X-Forwarded-For")).thenReturn(forwardedFor);
+        when(requestContext.getHeaderString(HttpHeaders.AUTHORIZATION)).thenReturn(authorization);
+        return requestContext;
+    }
+}
@@ -0,0 +1,110 @@
+package uk.gov.pay.publicauth.filters;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleCallback;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.publicauth.dao.RequestHandleScope;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RequestHandleScopeFilterTest {
+
+    @Mock
+    Jdbi jdbi;
+
+    @Mock
+    Handle requestHandle;
+
+    @Mock
+    Handle ownHandle;
+
+    @Mock
+    ServletRequest request;
+
+    @Mock
+    ServletResponse response;
+
+    @Mock
+    FilterChain chain;
+
+    private RequestHandleScope requestHandleScope;
+    private RequestHandleScopeFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        requestHandleScope = new RequestHandleScope(jdbi);
+        filter = new RequestHandleScopeFilter(requestHandleScope);
+    }
+
+    @Test
+    void shouldShareOneHandleBetweenDaoCallsInARequest_andCloseItAfterwards() throws Exception {
+        when(jdbi.open()).thenReturn(requestHandle);
+        List<Handle> handlesUsed = new ArrayList<>();
+        doAnswer(invocation -> {
+            handlesUsed.add(requestHandleScope.withHandle(handle -> handle));
+            handlesUsed.add(requestHandleScope.withHandle(handle -> handle));
+            return null;
+        }).when(chain).doFilter(request, response);
+
+        filter.doFilter(request, response, chain);
+
+        assertThat(handlesUsed, contains(requestHandle, requestHandle));
+        verify(jdbi, times(1)).open();
+        verify(requestHandle).close();
+    }
+
+    @Test
+    void shouldCloseHandleAndForgetScope_whenChainThrows() throws Exception {
+        when(jdbi.open()).thenReturn(requestHandle);
+        givenEachCallOutsideARequestGets(ownHandle);
+        doAnswer(invocation -> {
+            requestHandleScope.withHandle(handle -> handle);
+            throw new ServletException("resource failed");
+        }).when(chain).doFilter(request, response);
+
+        assertThrows(ServletException.class, () -> filter.doFilter(request, response, chain));
+
+        verify(requestHandle).close();
+        assertThat(requestHandleScope.withHandle(handle -> handle), sameInstance(ownHandle));
+    }
+
+    @Test
+    void shouldLeaveCallsOutsideFilteredRequestsToOpenTheirOwnHandle() throws Exception {
+        when(jdbi.open()).thenReturn(requestHandle);
+        givenEachCallOutsideARequestGets(ownHandle);
+        doAnswer(invocation -> requestHandleScope.withHandle(handle -> handle)).when(chain).doFilter(request, response);
+
+        filter.doFilter(request, response, chain);
+
+        assertThat(requestHandleScope.withHandle(handle -> handle), sameInstance(ownHandle));
+        assertThat(requestHandleScope.withHandle(handle -> handle), sameInstance(ownHandle));
+        verify(jdbi, times(1)).open();
+        verify(jdbi, times(2)).withHandle(any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenEachCallOutsideARequestGets(Handle handle) {
+        when(jdbi.withHandle(any())).thenAnswer(invocation -> invocation.getArgument(0, HandleCallback.class).withHandle(handle));
+    }
+}
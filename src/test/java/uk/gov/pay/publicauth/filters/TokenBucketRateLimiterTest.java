@@ -0,0 +1,97 @@
+package uk.gov.pay.publicauth.filters;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+class TokenBucketRateLimiterTest {
+
+    private static final long ONE_SECOND = 1_000_000_000L;
+    private static final long KEY = 42L;
+
+    private final AtomicLong clock = new AtomicLong(ONE_SECOND);
+
+    @Test
+    void shouldAllowBurstThenReject() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 5, 100, clock::get);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(limiter.tryAcquire(KEY), is(true));
+        }
+        assertThat(limiter.tryAcquire(KEY), is(false));
+    }
+
+    @Test
+    void shouldRefillAtConfiguredRate() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 1, 100, clock::get);
+
+        assertThat(limiter.tryAcquire(KEY), is(true));
+        assertThat(limiter.tryAcquire(KEY), is(false));
+
+        clock.addAndGet(ONE_SECOND / 10);
+        assertThat(limiter.tryAcquire(KEY), is(true));
+    }
+
+    @Test
+    void shouldKeepSeparateBucketsPerKey() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 1, 100, clock::get);
+
+        assertThat(limiter.tryAcquire(KEY), is(true));
+        assertThat(limiter.tryAcquire(KEY + 1), is(true));
+        assertThat(limiter.tryAcquire(KEY), is(false));
+    }
+
+    @Test
+    void shouldEvictOnlyBucketsThatHaveRefilled() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 2, 100, clock::get);
+        limiter.tryAcquire(KEY);
+        clock.addAndGet(ONE_SECOND / 2);
+        limiter.tryAcquire(KEY + 1);
+
+        clock.addAndGet(ONE_SECOND / 2);
+        limiter.evictIdleBuckets();
+
+        assertThat(limiter.size(), is(1L));
+    }
+
+    @Test
+    void shouldRejectNewKeysOnceBucketLimitIsReached_whileNoBucketIsIdle() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 1, 1, clock::get);
+        limiter.tryAcquire(KEY);
+
+        assertThat(limiter.tryAcquire(KEY + 1), is(false));
+        assertThat(limiter.tryAcquire(KEY + 2), is(false));
+        assertThat(limiter.size(), is(1L));
+    }
+
+    @Test
+    void shouldEvictIdleBucketsToMakeRoom_onceBucketLimitIsReached() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 1, 1, clock::get);
+        limiter.tryAcquire(KEY);
+
+        clock.addAndGet(ONE_SECOND / 10);
+
+        assertThat(limiter.tryAcquire(KEY + 1), is(true));
+        assertThat(limiter.tryAcquire(KEY + 1), is(false));
+        assertThat(limiter.size(), is(1L));
+    }
+
+    @Test
+    void shouldKeepLimitingExistingKeysOnTheirOwn_whenFloodedWithNewKeys() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 2, 100, clock::get);
+        assertThat(limiter.tryAcquire(KEY), is(true));
+
+        for (long floodKey = 1_000; floodKey < 2_000; floodKey++) {
+            limiter.tryAcquire(floodKey);
+        }
+
+        assertThat(limiter.size(), is(100L));
+        assertThat(limiter.tryAcquire(KEY), is(true));
+        assertThat(limiter.tryAcquire(KEY), is(false));
+        clock.addAndGet(ONE_SECOND / 10);
+        assertThat(limiter.tryAcquire(KEY), is(true));
+    }
+}
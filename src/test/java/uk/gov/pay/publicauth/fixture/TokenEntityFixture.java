@@ -76,6 +76,16 @@ public class TokenEntityFixture {
         return this;
     }
 
+    public TokenEntityFixture withServiceMode(ServiceMode serviceMode) {
+        this.serviceMode = serviceMode;
+        return this;
+    }
+
+    public TokenEntityFixture withServiceExternalId(String serviceExternalId) {
+        this.serviceExternalId = serviceExternalId;
+        return this;
+    }
+
     public TokenEntity build() {
         return new TokenEntity(
                 this.tokenLink,
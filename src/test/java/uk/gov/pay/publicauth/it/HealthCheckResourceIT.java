@@ -37,12 +37,14 @@ class HealthCheckResourceIT {
         TEST_SUPPORT = new DropwizardTestSupport<>(PublicAuthApp.class, TEST_CONFIG_FILE_PATH,
                 config("database.url", POSTGRES::getJdbcUrl),
                 config("database.user", POSTGRES::getUsername),
-                config("database.password", POSTGRES::getPassword));
+                config("database.password", POSTGRES::getPassword),
+                config("healthCheckScheduler.interval", "100ms"));
         TEST_SUPPORT.before();
     }
 
     @Test
-    void checkHealthcheck_allIsHealthy() {
+    void checkHealthcheck_allIsHealthy() throws InterruptedException {
+        awaitHealthCheckStatus(200);
         given().port(TEST_SUPPORT.getLocalPort())
                 .get("healthcheck")
                 .then()
@@ -52,8 +54,9 @@ class HealthCheckResourceIT {
     }
 
     @Test
-    void checkHealthCheck_isUnHealthy() {
+    void checkHealthCheck_isUnHealthy() throws InterruptedException {
         POSTGRES.stop();
+        awaitHealthCheckStatus(503);
         given().port(TEST_SUPPORT.getLocalPort())
                 .get("healthcheck")
                 .then()
@@ -61,4 +64,14 @@ class HealthCheckResourceIT {
                 .body("postgresql.healthy", is(false))
                 .body("deadlocks.healthy", is(true));
     }
+
+    // Health checks run in the background, so a change is only seen once the next run completes
+    private static void awaitHealthCheckStatus(int statusCode) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            if (given().port(TEST_SUPPORT.getLocalPort()).get("healthcheck").statusCode() == statusCode) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
 }
@@ -125,7 +125,7 @@ class PublicAuthResourceIT {
                     .body("account_id", is(ACCOUNT_ID))
                     .body("token_type", is(CARD.toString()))
                     .body("token_link", is(TOKEN_LINK.toString()));
-            ZonedDateTime lastUsed = databaseHelper.getDateTimeColumn("last_used", ACCOUNT_ID);
+            ZonedDateTime lastUsed = databaseHelper.lastUsedTimestampForAccount(ACCOUNT_ID);
             assertThat(lastUsed, isCloseTo(ZonedDateTime.now(UTC)));
         }
 
@@ -140,7 +140,7 @@ class PublicAuthResourceIT {
                     .body("token_link", is(TOKEN_LINK.toString()))
                     .body("service_mode", is(SERVICE_MODE.toString()))
                     .body("service_external_id", is(SERVICE_EXTERNAL_ID));
-            ZonedDateTime lastUsed = databaseHelper.getDateTimeColumn("last_used", ACCOUNT_ID);
+            ZonedDateTime lastUsed = databaseHelper.lastUsedTimestampForAccount(ACCOUNT_ID);
             assertThat(lastUsed, isCloseTo(ZonedDateTime.now(UTC)));
         }
     
@@ -149,13 +149,13 @@ class PublicAuthResourceIT {
             databaseHelper.insertAccount(HASHED_BEARER_TOKEN, TOKEN_LINK, ACCOUNT_ID, TOKEN_DESCRIPTION,
                     ZonedDateTime.now(UTC), CREATED_USER_NAME, ServiceMode.TEST, SERVICE_EXTERNAL_ID);
             String apiKey = BEARER_TOKEN + encodedHmacValueOf(BEARER_TOKEN);
-            ZonedDateTime lastUsedPreAuth = databaseHelper.getDateTimeColumn("last_used", ACCOUNT_ID);
+            ZonedDateTime lastUsedPreAuth = databaseHelper.lastUsedTimestampForAccount(ACCOUNT_ID);
             tokenResponse(apiKey)
                     .statusCode(401)
                     .body("message", is(format("Token with token_link %s has been revoked", TOKEN_LINK)))
                     .body("error_identifier", is(AUTH_TOKEN_REVOKED.toString()))
                     .body("token_link", is(TOKEN_LINK.toString()));
-            ZonedDateTime lastUsedPostAuth = databaseHelper.getDateTimeColumn("last_used", ACCOUNT_ID);
+            ZonedDateTime lastUsedPostAuth = databaseHelper.lastUsedTimestampForAccount(ACCOUNT_ID);
     
             assertThat(lastUsedPreAuth, is(lastUsedPostAuth));
         }
@@ -0,0 +1,34 @@
+package uk.gov.pay.publicauth.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+class RandomBytesTest {
+
+    @Test
+    void shouldHandOutConsecutiveDraws_thenRefillOnceTooFewBytesAreLeft() {
+        RandomBytes randomBytes = new RandomBytes(12);
+
+        assertThat(randomBytes.nextDraw(4), is(0));
+        assertThat(randomBytes.nextDraw(5), is(4));
+        byte[] firstFill = randomBytes.bytes().clone();
+
+        assertThat(randomBytes.nextDraw(4), is(0));
+        assertThat(Arrays.equals(randomBytes.bytes(), firstFill), is(false));
+    }
+
+    @Test
+    void shouldGiveEachThreadOneInstance() throws Exception {
+        RandomBytes mine = RandomBytes.forCurrentThread();
+
+        assertThat(RandomBytes.forCurrentThread(), is(sameInstance(mine)));
+        assertThat(CompletableFuture.supplyAsync(RandomBytes::forCurrentThread).get(), is(not(sameInstance(mine))));
+    }
+}
@@ -0,0 +1,23 @@
+package uk.gov.pay.publicauth.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.MessageDigest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+class TokenHashTest {
+
+    @Test
+    void shouldDigestTheHashWithSha256_onceForEveryCall() throws Exception {
+        TokenHash tokenHash = TokenHash.of("token-hash");
+
+        byte[] digest = tokenHash.getDigest();
+
+        assertThat(digest, is(MessageDigest.getInstance("SHA-256").digest("token-hash".getBytes(UTF_8))));
+        assertThat(tokenHash.getDigest(), is(sameInstance(digest)));
+    }
+}
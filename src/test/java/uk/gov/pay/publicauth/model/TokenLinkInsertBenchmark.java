@@ -0,0 +1,68 @@
+package uk.gov.pay.publicauth.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compares inserting new token links into an ordered index already holding a million of them, with links
+ * made by {@link UUID#randomUUID()} and by {@link UuidV7Generator}.
+ * <p> The index is a {@link TreeSet} of the strings stored in the {@code token_link} column, standing in for
+ * the {@code idx_token_link} B-tree: random links are inserted all over it, missing the CPU cache much as
+ * they would miss shared buffers in the database, while time-ordered links are all inserted at its right
+ * edge. </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Thread)
+public class TokenLinkInsertBenchmark {
+
+    private static final int EXISTING_LINKS = 1_000_000;
+
+    @Param({"randomUUID", "uuidV7"})
+    public String generator;
+
+    private Supplier<UUID> uuids;
+    private TreeSet<String> index;
+
+    @Setup(Level.Iteration)
+    public void fillIndex() {
+        uuids = generator.equals("uuidV7") ? UuidV7Generator::newUuid : UUID::randomUUID;
+        index = new TreeSet<>();
+        for (int i = 0; i < EXISTING_LINKS; i++) {
+            index.add(uuids.get().toString());
+        }
+    }
+
+    @Benchmark
+    public boolean insertNewTokenLink() {
+        return index.add(uuids.get().toString());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenLinkInsertBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,27 @@
+package uk.gov.pay.publicauth.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class TokenLinkTest {
+
+    @Test
+    void shouldBeUuidWhenLinkIsLowercaseUuidString() {
+        UUID uuid = UUID.randomUUID();
+
+        assertThat(TokenLink.of(uuid.toString()).asUuid().get(), is(uuid));
+    }
+
+    @Test
+    void shouldNotBeUuidWhenLinkWouldNotComeBackOutAsTheSameString() {
+        UUID uuid = UUID.randomUUID();
+
+        assertThat(TokenLink.of(uuid.toString().toUpperCase()).asUuid().isPresent(), is(false));
+        assertThat(TokenLink.of("1-2-3-4-5").asUuid().isPresent(), is(false));
+        assertThat(TokenLink.of("123456789101112131415161718192021222").asUuid().isPresent(), is(false));
+    }
+}
@@ -0,0 +1,56 @@
+package uk.gov.pay.publicauth.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+class UuidV7GeneratorTest {
+
+    @Test
+    void shouldGenerateVersion7UuidsCarryingTheirCreationTime() {
+        long before = System.currentTimeMillis();
+        UUID uuid = UuidV7Generator.newUuid();
+        long after = System.currentTimeMillis();
+
+        assertThat(uuid.version(), is(7));
+        assertThat(uuid.variant(), is(2));
+        long timestamp = uuid.getMostSignificantBits() >>> 16;
+        assertThat(timestamp >= before && timestamp <= after, is(true));
+    }
+
+    @Test
+    void shouldSortUuidsMadeInLaterMillisecondsAfterEarlierOnes_asStringsAsWellAsUuids() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            UUID earlier = UuidV7Generator.newUuid(now + i);
+            UUID later = UuidV7Generator.newUuid(now + i + 1);
+
+            assertThat(earlier.toString().compareTo(later.toString()), lessThan(0));
+            assertThat(Long.compareUnsigned(earlier.getMostSignificantBits(), later.getMostSignificantBits()), lessThan(0));
+        }
+    }
+
+    @Test
+    void shouldGenerateDistinctUuidsWithinTheSameMillisecond() {
+        long now = System.currentTimeMillis();
+        Set<UUID> uuids = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            uuids.add(UuidV7Generator.newUuid(now));
+        }
+
+        assertThat(uuids.size(), is(10_000));
+    }
+
+    @Test
+    void shouldGenerateUuidsThatRoundTripThroughTheirStringForm() {
+        UUID uuid = UuidV7Generator.newUuid();
+
+        assertThat(UUID.fromString(uuid.toString()), is(uuid));
+    }
+}
@@ -1,20 +1,20 @@
 package uk.gov.pay.publicauth.resources;
 
 import com.codahale.metrics.health.HealthCheck;
-import com.codahale.metrics.health.HealthCheckRegistry;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.jayway.jsonassert.JsonAssert;
-import io.dropwizard.core.setup.Environment;
 import org.hamcrest.core.Is;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.publicauth.service.HealthCheckScheduler;
 
 import jakarta.ws.rs.core.Response;
+import java.util.Optional;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -27,17 +27,16 @@ import static org.mockito.Mockito.when;
 class HealthCheckResourceTest {
 
     @Mock
-    private Environment environment;
+    private HealthCheckScheduler healthCheckScheduler;
 
     @Mock
-    private HealthCheckRegistry healthCheckRegistry;
+    private HealthCheckScheduler.Results latestResults;
 
     private HealthCheckResource resource;
 
     @BeforeEach
     void setup() {
-        when(environment.healthChecks()).thenReturn(healthCheckRegistry);
-        resource = new HealthCheckResource(environment);
+        resource = new HealthCheckResource(healthCheckScheduler);
     }
 
     @Test
@@ -45,7 +44,7 @@ class HealthCheckResourceTest {
         SortedMap<String,HealthCheck.Result> map = new TreeMap<>();
         map.put("postgresql", HealthCheck.Result.unhealthy("database is down"));
         map.put("deadlocks", HealthCheck.Result.unhealthy("no new threads available"));
-        when(healthCheckRegistry.runHealthChecks()).thenReturn(map);
+        givenLatestResults(map, 0, false);
         Response response = resource.healthCheck();
         assertThat(response.getStatus(), is(503));
         ObjectWriter ow = new ObjectMapper().writer().withDefaultPrettyPrinter();
@@ -62,7 +61,7 @@ class HealthCheckResourceTest {
         SortedMap<String,HealthCheck.Result> map = new TreeMap<>();
         map.put("postgresql", HealthCheck.Result.healthy());
         map.put("deadlocks", HealthCheck.Result.healthy());
-        when(healthCheckRegistry.runHealthChecks()).thenReturn(map);
+        givenLatestResults(map, 0, false);
         Response response = resource.healthCheck();
         assertThat(response.getStatus(), is(200));
         ObjectWriter ow = new ObjectMapper().writer().withDefaultPrettyPrinter();
@@ -73,4 +72,44 @@ class HealthCheckResourceTest {
             .assertThat("$.postgresql.healthy", Is.is(true))
             .assertThat("$.deadlocks.healthy", Is.is(true));
     }
+
+    @Test
+    void checkHealthCheck_servesCachedResultsWithTheirAge() {
+        SortedMap<String,HealthCheck.Result> map = new TreeMap<>();
+        map.put("postgresql", HealthCheck.Result.healthy());
+        givenLatestResults(map, 5, false);
+
+        Response response = resource.healthCheck();
+
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getHeaderString("Age"), is("5"));
+    }
+
+    @Test
+    void checkHealthCheck_isUnavailable_beforeHealthChecksHaveRun() {
+        when(healthCheckScheduler.getLatestResults()).thenReturn(Optional.empty());
+
+        Response response = resource.healthCheck();
+
+        assertThat(response.getStatus(), is(503));
+    }
+
+    @Test
+    void checkHealthCheck_isUnavailable_whenResultsAreStale() {
+        SortedMap<String,HealthCheck.Result> map = new TreeMap<>();
+        map.put("postgresql", HealthCheck.Result.healthy());
+        givenLatestResults(map, 31, true);
+
+        Response response = resource.healthCheck();
+
+        assertThat(response.getStatus(), is(503));
+        assertThat(response.getHeaderString("Age"), is("31"));
+    }
+
+    private void givenLatestResults(SortedMap<String, HealthCheck.Result> results, long ageInSeconds, boolean stale) {
+        when(healthCheckScheduler.getLatestResults()).thenReturn(Optional.of(latestResults));
+        when(latestResults.getResults()).thenReturn(results);
+        when(latestResults.getAgeInSeconds()).thenReturn(ageInSeconds);
+        when(latestResults.isStale()).thenReturn(stale);
+    }
 }
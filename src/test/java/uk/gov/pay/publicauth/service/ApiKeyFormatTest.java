@@ -0,0 +1,110 @@
+package uk.gov.pay.publicauth.service;
+
+import org.junit.jupiter.api.Test;
+import uk.gov.pay.publicauth.model.ServiceMode;
+
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.CHECKSUM_LENGTH;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.CHECKSUM_MISMATCH;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.DEFAULT_KEY_ID;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.HMAC_SHA1_LENGTH;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.MALFORMED;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.PREFIX_LIVE;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.PREFIX_TEST;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.hmacIndex;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.keyId;
+
+class ApiKeyFormatTest {
+
+    private static final String RANDOM_ID = "u3tl8gajo9paj0ki31jm1psr3a";
+    private static final String HMAC = "v21m5urh50aoa7a262s4nt0oo6cqhu82";
+
+    @Test
+    void shouldFindHmacInVersionedKeyWithPrefix() {
+        String apiKey = ApiKeyFormat.apiKey(ApiKeyFormat.token(PREFIX_LIVE, RANDOM_ID, false), HMAC, false);
+        assertThat(hmacIndex(apiKey), is(apiKey.length() - HMAC_SHA1_LENGTH));
+    }
+
+    @Test
+    void shouldFindHmacInVersionedKeyWithoutPrefix() {
+        String apiKey = ApiKeyFormat.apiKey(ApiKeyFormat.token("", RANDOM_ID, false), HMAC, false);
+        assertThat(hmacIndex(apiKey), is(apiKey.length() - HMAC_SHA1_LENGTH));
+    }
+
+    @Test
+    void shouldFindHmacInKeyWithChecksum() {
+        String apiKey = ApiKeyFormat.apiKey(ApiKeyFormat.token(PREFIX_LIVE, RANDOM_ID, true), HMAC, true);
+        assertThat(apiKey.length(), is(PREFIX_LIVE.length() + ApiKeyFormat.VERSION_2_LENGTH));
+        assertThat(hmacIndex(apiKey), is(apiKey.length() - CHECKSUM_LENGTH - HMAC_SHA1_LENGTH));
+    }
+
+    @Test
+    void shouldRejectKeyWithChecksumWhenAnyCharacterIsChanged() {
+        String apiKey = ApiKeyFormat.apiKey(ApiKeyFormat.token(PREFIX_LIVE, RANDOM_ID, true), HMAC, true);
+        for (int i = PREFIX_LIVE.length() + 1; i < apiKey.length(); i++) {
+            char replacement = apiKey.charAt(i) == '0' ? '1' : '0';
+            String mistyped = apiKey.substring(0, i) + replacement + apiKey.substring(i + 1);
+            assertThat(hmacIndex(mistyped), is(CHECKSUM_MISMATCH));
+        }
+    }
+
+    @Test
+    void shouldFindServiceModeFromPrefix() {
+        assertThat(ApiKeyFormat.serviceMode(ApiKeyFormat.token(PREFIX_LIVE, RANDOM_ID, false) + HMAC), is(Optional.of(ServiceMode.LIVE)));
+        assertThat(ApiKeyFormat.serviceMode(ApiKeyFormat.token(PREFIX_TEST, RANDOM_ID, false) + HMAC), is(Optional.of(ServiceMode.TEST)));
+        assertThat(ApiKeyFormat.serviceMode(ApiKeyFormat.token("", RANDOM_ID, false) + HMAC), is(Optional.empty()));
+    }
+
+    @Test
+    void shouldFindHmacAndKeyIdInKeyWithKeyId() {
+        String apiKey = ApiKeyFormat.apiKey(ApiKeyFormat.token(PREFIX_LIVE, 31, RANDOM_ID), HMAC, true);
+        assertThat(apiKey.length(), is(PREFIX_LIVE.length() + ApiKeyFormat.VERSION_3_LENGTH));
+        assertThat(hmacIndex(apiKey), is(apiKey.length() - CHECKSUM_LENGTH - HMAC_SHA1_LENGTH));
+        assertThat(keyId(apiKey), is(31));
+
+        String apiKeyWithoutPrefix = ApiKeyFormat.apiKey(ApiKeyFormat.token("", 0, RANDOM_ID), HMAC, true);
+        assertThat(hmacIndex(apiKeyWithoutPrefix), is(apiKeyWithoutPrefix.length() - CHECKSUM_LENGTH - HMAC_SHA1_LENGTH));
+        assertThat(keyId(apiKeyWithoutPrefix), is(0));
+    }
+
+    @Test
+    void shouldRejectKeyWithKeyIdWhenKeyIdIsChanged() {
+        String apiKey = ApiKeyFormat.apiKey(ApiKeyFormat.token(PREFIX_LIVE, 10, RANDOM_ID), HMAC, true);
+        String changedKeyId = PREFIX_LIVE + "3b" + apiKey.substring(PREFIX_LIVE.length() + 2);
+        assertThat(hmacIndex(changedKeyId), is(CHECKSUM_MISMATCH));
+    }
+
+    @Test
+    void shouldHaveDefaultKeyIdForKeysWithoutKeyId() {
+        assertThat(keyId(ApiKeyFormat.apiKey(ApiKeyFormat.token(PREFIX_LIVE, RANDOM_ID, true), HMAC, true)), is(DEFAULT_KEY_ID));
+        assertThat(keyId(ApiKeyFormat.apiKey(ApiKeyFormat.token(PREFIX_LIVE, RANDOM_ID, false), HMAC, false)), is(DEFAULT_KEY_ID));
+        assertThat(keyId(PREFIX_LIVE + "3u3tl8gajo9" + HMAC), is(DEFAULT_KEY_ID));
+    }
+
+    @Test
+    void shouldRejectVersionedKeyWithCharactersOutsideBase32Hex() {
+        String apiKey = ApiKeyFormat.apiKey(ApiKeyFormat.token(PREFIX_LIVE, RANDOM_ID.replace('u', 'z'), false), HMAC, false);
+        assertThat(hmacIndex(apiKey), is(MALFORMED));
+    }
+
+    @Test
+    void shouldAcceptLegacyKeysWithinLengthBounds() {
+        String apiKey = PREFIX_LIVE + "u3tl8gajo9" + HMAC;
+        assertThat(hmacIndex(apiKey), is(apiKey.length() - HMAC_SHA1_LENGTH));
+    }
+
+    @Test
+    void shouldAcceptLegacyKeyWithRandomIdStartingWithVersionCharacter() {
+        String apiKey = PREFIX_LIVE + "1" + RANDOM_ID.substring(1) + HMAC;
+        assertThat(hmacIndex(apiKey), is(apiKey.length() - HMAC_SHA1_LENGTH));
+    }
+
+    @Test
+    void shouldRejectKeysOutsideLegacyLengthBoundsThatAreNotVersioned() {
+        assertThat(hmacIndex(HMAC), is(MALFORMED));
+        assertThat(hmacIndex(PREFIX_LIVE + "2" + RANDOM_ID + HMAC), is(MALFORMED));
+    }
+}
@@ -0,0 +1,46 @@
+package uk.gov.pay.publicauth.service;
+
+import com.google.common.io.BaseEncoding;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static uk.gov.pay.publicauth.service.ApiKeyFormat.DEFAULT_KEY_ID;
+
+class ApiKeySignerTest {
+
+    private static final String TOKEN = "api_live_3au3tl8gajo9paj0ki31jm1psr3a";
+
+    private final ApiKeySigner apiKeySigner = new ApiKeySigner("default-secret", Map.of("a", "secret-a", "v", "secret-v"));
+
+    @Test
+    void shouldSignWithSecretNamedByKeyId() {
+        assertThat(apiKeySigner.sign(DEFAULT_KEY_ID, TOKEN), is(hmac("default-secret", TOKEN)));
+        assertThat(apiKeySigner.sign(10, TOKEN), is(hmac("secret-a", TOKEN)));
+        assertThat(apiKeySigner.sign(31, TOKEN), is(hmac("secret-v", TOKEN)));
+        assertThat(apiKeySigner.sign(10, TOKEN + "x"), is(hmac("secret-a", TOKEN + "x")));
+    }
+
+    @Test
+    void shouldOnlyHaveConfiguredSecrets() {
+        assertThat(apiKeySigner.hasSecret(DEFAULT_KEY_ID), is(true));
+        assertThat(apiKeySigner.hasSecret(10), is(true));
+        assertThat(apiKeySigner.hasSecret(11), is(false));
+    }
+
+    @Test
+    void shouldRejectKeyIdsThatCannotAppearInKeys() {
+        assertThrows(IllegalArgumentException.class, () -> new ApiKeySigner("default-secret", Map.of("A", "secret")));
+        assertThrows(IllegalArgumentException.class, () -> new ApiKeySigner("default-secret", Map.of("w", "secret")));
+        assertThrows(IllegalArgumentException.class, () -> new ApiKeySigner("default-secret", Map.of("ab", "secret")));
+    }
+
+    private static String hmac(String secret, String token) {
+        return BaseEncoding.base32Hex().lowerCase().omitPadding().encode(new HmacUtils(HmacAlgorithms.HMAC_SHA_1, secret).hmac(token));
+    }
+}
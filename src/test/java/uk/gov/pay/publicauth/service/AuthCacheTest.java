@@ -0,0 +1,242 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.publicauth.app.config.AuthCacheConfiguration;
+import uk.gov.pay.publicauth.app.config.RejectedTokenCacheConfiguration;
+import uk.gov.pay.publicauth.app.config.StaleIfErrorConfiguration;
+import uk.gov.pay.publicauth.dao.AuthTokenDao;
+import uk.gov.pay.publicauth.exception.TokenRevokedException;
+import uk.gov.pay.publicauth.model.AuthResponse;
+import uk.gov.pay.publicauth.model.TokenHash;
+import uk.gov.pay.publicauth.model.TokenLink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.time.ZoneOffset.UTC;
+import static java.time.ZonedDateTime.now;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static uk.gov.pay.publicauth.fixture.TokenEntityFixture.aTokenEntity;
+
+@ExtendWith(MockitoExtension.class)
+class AuthCacheTest {
+
+    private static final TokenHash TOKEN_HASH = TokenHash.of("token-hash");
+    private static final AuthResponse AUTH_RESPONSE = new AuthResponse(aTokenEntity().withAccountId("42").build());
+
+    @Mock
+    private AuthCacheConfiguration mockConfig;
+
+    @Mock
+    private AuthTokenDao mockAuthTokenDao;
+
+    private final AtomicLong nanoClock = new AtomicLong();
+    private final List<Runnable> refreshes = new ArrayList<>();
+    private final Executor refreshExecutor = refreshes::add;
+    private MetricRegistry metricRegistry;
+    private RejectedTokenCache rejectedTokenCache;
+    private AuthCache authCache;
+
+    @BeforeEach
+    void setUp() {
+        when(mockConfig.isEnabled()).thenReturn(true);
+        when(mockConfig.getMaximumSize()).thenReturn(100);
+        when(mockConfig.getWindowPercent()).thenReturn(1);
+        when(mockConfig.getExpireAfterWrite()).thenReturn(Duration.seconds(10));
+        when(mockConfig.getRefreshAfterWrite()).thenReturn(Duration.seconds(8));
+        metricRegistry = new MetricRegistry();
+        rejectedTokenCache = new RejectedTokenCache(new RejectedTokenCacheConfiguration(), metricRegistry);
+        authCache = new AuthCache(mockConfig, new StaleIfErrorConfiguration(), mockAuthTokenDao, rejectedTokenCache, refreshExecutor, metricRegistry,
+                nanoClock::get);
+    }
+
+    @Test
+    void shouldFindTokenThatWasPutAndCountHitsAndMisses() {
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(false));
+        authCache.put(TOKEN_HASH, AUTH_RESPONSE);
+
+        assertThat(authCache.find(TOKEN_HASH).get().getAccountId(), is("42"));
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(true));
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(true));
+
+        assertThat(metricRegistry.counter("tokens.auth-cache.hits").getCount(), is(3L));
+        assertThat(metricRegistry.counter("tokens.auth-cache.misses").getCount(), is(1L));
+        assertThat(metricRegistry.getGauges().get("tokens.auth-cache.hit-ratio").getValue(), is(0.75));
+    }
+
+    @Test
+    void shouldExpireTokenAfterWrite() {
+        authCache.put(TOKEN_HASH, AUTH_RESPONSE);
+
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(true));
+
+        nanoClock.addAndGet(1);
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(false));
+        assertThat(metricRegistry.getGauges().get("tokens.auth-cache.size").getValue(), is(0));
+    }
+
+    @Test
+    void shouldKeepExpiredTokenForStaleLookupsUpToMaxStaleness_whenStaleIfErrorEnabled() {
+        StaleIfErrorConfiguration staleIfErrorConfig = mock(StaleIfErrorConfiguration.class);
+        when(staleIfErrorConfig.isEnabled()).thenReturn(true);
+        when(staleIfErrorConfig.getMaxStaleness()).thenReturn(Duration.minutes(5));
+        authCache = new AuthCache(mockConfig, staleIfErrorConfig, mockAuthTokenDao, rejectedTokenCache, refreshExecutor, new MetricRegistry(),
+                nanoClock::get);
+        long maxStalenessNanos = TimeUnit.MINUTES.toNanos(5);
+        authCache.put(TOKEN_HASH, AUTH_RESPONSE);
+
+        nanoClock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(false));
+        assertThat(authCache.findStale(TOKEN_HASH, maxStalenessNanos).get().getAccountId(), is("42"));
+
+        nanoClock.addAndGet(TimeUnit.MINUTES.toNanos(4) + 1);
+        assertThat(authCache.findStale(TOKEN_HASH, maxStalenessNanos).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldNotKeepExpiredTokenForStaleLookups_whenStaleIfErrorDisabled() {
+        authCache.put(TOKEN_HASH, AUTH_RESPONSE);
+
+        nanoClock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+
+        assertThat(authCache.findStale(TOKEN_HASH, TimeUnit.MINUTES.toNanos(5)).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldRefreshTokenInTheBackgroundWhenHitAfterRefreshTime() {
+        authCache.put(TOKEN_HASH, AUTH_RESPONSE);
+        when(mockAuthTokenDao.findTokenByHash(TOKEN_HASH)).thenReturn(Optional.of(aTokenEntity().withAccountId("42").build()));
+
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(8));
+        authCache.find(TOKEN_HASH);
+        assertThat(refreshes.isEmpty(), is(true));
+
+        nanoClock.addAndGet(1);
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(true));
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(true));
+        assertThat(refreshes.size(), is(1));
+        runRefreshes();
+
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertThat(authCache.find(TOKEN_HASH).get().getAccountId(), is("42"));
+        assertThat(metricRegistry.counter("tokens.auth-cache.refreshes").getCount(), is(1L));
+        assertThat(metricRegistry.timer("tokens.auth-cache.refresh-latency").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldDropAndRejectTokenFoundRevokedWhenRefreshing() {
+        TokenLink tokenLink = TokenLink.of("a-token-link");
+        authCache.put(TOKEN_HASH, AUTH_RESPONSE);
+        when(mockAuthTokenDao.findTokenByHash(TOKEN_HASH))
+                .thenReturn(Optional.of(aTokenEntity().withRevokedDate(now(UTC)).withTokenLink(tokenLink).build()));
+
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        authCache.find(TOKEN_HASH);
+        runRefreshes();
+
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(false));
+        TokenRevokedException rejection = assertThrows(TokenRevokedException.class, () -> rejectedTokenCache.rejectIfKnown(TOKEN_HASH));
+        assertThat(rejection.getTokenLink(), is(tokenLink));
+    }
+
+    @Test
+    void shouldNotBringBackTokenInvalidatedWhileRefreshing() {
+        authCache.put(TOKEN_HASH, AUTH_RESPONSE);
+        when(mockAuthTokenDao.findTokenByHash(TOKEN_HASH)).thenReturn(Optional.of(aTokenEntity().build()));
+
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        authCache.find(TOKEN_HASH);
+        authCache.invalidate(TOKEN_HASH);
+        runRefreshes();
+
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldKeepTokenUntilItExpiresWhenRefreshFails() {
+        authCache.put(TOKEN_HASH, AUTH_RESPONSE);
+        when(mockAuthTokenDao.findTokenByHash(TOKEN_HASH)).thenThrow(new RuntimeException("database unavailable"));
+
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        authCache.find(TOKEN_HASH);
+        runRefreshes();
+
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(true));
+        assertThat(metricRegistry.counter("tokens.auth-cache.refresh-failures").getCount(), is(1L));
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(1) + 1);
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldNotFindInvalidatedToken() {
+        authCache.put(TOKEN_HASH, AUTH_RESPONSE);
+
+        authCache.invalidate(TOKEN_HASH);
+
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldKeepFrequentlyUsedTokenWhenManyTokensAreOnlyUsedOnce() {
+        authenticate(TOKEN_HASH);
+        for (int i = 0; i < 5; i++) {
+            authenticate(TOKEN_HASH);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            authenticate(TokenHash.of("one-off-token-hash-" + i));
+        }
+
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(true));
+        assertThat(metricRegistry.counter("tokens.auth-cache.admission-rejections").getCount(), greaterThan(0L));
+        assertThat((Integer) metricRegistry.getGauges().get("tokens.auth-cache.size").getValue(), is(100));
+    }
+
+    @Test
+    void shouldCountSketchResets() {
+        for (int i = 0; i < 1000; i++) {
+            authCache.find(TokenHash.of("token-hash-" + i));
+        }
+
+        assertThat(metricRegistry.counter("tokens.auth-cache.sketch-resets").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldNotCacheAnythingWhenDisabled() {
+        when(mockConfig.isEnabled()).thenReturn(false);
+        authCache = new AuthCache(mockConfig, new StaleIfErrorConfiguration(), mockAuthTokenDao, rejectedTokenCache, refreshExecutor,
+                new MetricRegistry(), nanoClock::get);
+
+        authCache.put(TOKEN_HASH, AUTH_RESPONSE);
+
+        assertThat(authCache.find(TOKEN_HASH).isPresent(), is(false));
+    }
+
+    private void authenticate(TokenHash tokenHash) {
+        if (authCache.find(tokenHash).isEmpty()) {
+            authCache.put(tokenHash, AUTH_RESPONSE);
+        }
+    }
+
+    private void runRefreshes() {
+        List<Runnable> pending = new ArrayList<>(refreshes);
+        refreshes.clear();
+        pending.forEach(Runnable::run);
+    }
+}
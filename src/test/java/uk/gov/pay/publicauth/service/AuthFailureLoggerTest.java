@@ -0,0 +1,80 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.slf4j.Logger;
+import uk.gov.pay.publicauth.app.config.AuthFailureLoggingConfiguration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static uk.gov.pay.publicauth.service.AuthFailureLogger.Reason.CHECKSUM;
+import static uk.gov.pay.publicauth.service.AuthFailureLogger.Reason.HMAC;
+import static uk.gov.pay.publicauth.service.AuthFailureLogger.Reason.MALFORMED;
+
+@ExtendWith(MockitoExtension.class)
+class AuthFailureLoggerTest {
+
+    @Mock
+    private Logger mockLogger;
+
+    private MetricRegistry metricRegistry;
+    private AuthFailureLogger authFailureLogger;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        authFailureLogger = new AuthFailureLogger(new AuthFailureLoggingConfiguration(), metricRegistry, mockLogger);
+    }
+
+    @Test
+    void shouldLogFirstFailuresInFullAndCountTheRest() {
+        for (int i = 0; i < 1000; i++) {
+            authFailureLogger.record(HMAC);
+        }
+
+        verify(mockLogger, times(10)).error(anyString(), any(Object.class));
+        assertThat(metricRegistry.counter("tokens.rejected.hmac").getCount(), is(1000L));
+    }
+
+    @Test
+    void shouldLogOneSummaryWithCountsByReason() {
+        for (int i = 0; i < 20; i++) {
+            authFailureLogger.record(MALFORMED);
+        }
+        authFailureLogger.record(CHECKSUM);
+
+        authFailureLogger.logSummary();
+
+        verify(mockLogger).error(anyString(), eq(21L), eq(11L), any(Object.class));
+    }
+
+    @Test
+    void shouldNotLogSummaryWhenEveryFailureWasLoggedInFull() {
+        authFailureLogger.record(MALFORMED);
+
+        authFailureLogger.logSummary();
+
+        verify(mockLogger, never()).error(anyString(), any(Object.class), any(Object.class), any(Object.class));
+    }
+
+    @Test
+    void shouldLogInFullAgainAfterSummary() {
+        for (int i = 0; i < 20; i++) {
+            authFailureLogger.record(MALFORMED);
+        }
+        authFailureLogger.logSummary();
+        authFailureLogger.record(CHECKSUM);
+
+        verify(mockLogger, times(11)).error(anyString(), any(Object.class));
+    }
+}
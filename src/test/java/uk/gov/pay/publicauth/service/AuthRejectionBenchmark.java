@@ -0,0 +1,86 @@
+package uk.gov.pay.publicauth.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uk.gov.pay.publicauth.exception.TokenRevokedException;
+import uk.gov.pay.publicauth.model.TokenLink;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Measures the throughput of rejecting a token, comparing the stackless {@link TokenRevokedException}
+ * with an otherwise identical exception that fills in its stack trace. Each arm constructs and throws
+ * exactly one exception. {@code frameDepth} stands in for the Jersey, Dropwizard auth and JDBI frames
+ * that sit above {@link TokenService#authenticate} when a request is rejected.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class AuthRejectionBenchmark {
+
+    private static final TokenLink REVOKED_TOKEN_LINK = TokenLink.of("a-token-link");
+
+    @Param({"20", "120"})
+    public int frameDepth;
+
+    @Benchmark
+    public RuntimeException rejectWithStackTrace() {
+        try {
+            throwAt(frameDepth, true);
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public RuntimeException rejectStackless() {
+        try {
+            throwAt(frameDepth, false);
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    private static void throwAt(int depth, boolean withStackTrace) {
+        if (depth > 0) {
+            throwAt(depth - 1, withStackTrace);
+            return;
+        }
+        // Constructing the exception is what fills in the stack trace, so this is the cost of the old path
+        throw withStackTrace ? new StackTraceTokenRevokedException(REVOKED_TOKEN_LINK) : new TokenRevokedException(REVOKED_TOKEN_LINK);
+    }
+
+    private static class StackTraceTokenRevokedException extends RuntimeException {
+
+        StackTraceTokenRevokedException(TokenLink tokenLink) {
+            super(format("Token with token_link %s has been revoked", tokenLink));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AuthRejectionBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,54 @@
+package uk.gov.pay.publicauth.service;
+
+import org.mindrot.jbcrypt.BCrypt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link FixedSaltBCrypt} with the jBCrypt {@code hashpw} call it replaced, at the production
+ * cost. Run with the GC profiler so that allocation per hash is reported as well as time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BCryptBenchmark {
+
+    private static final String SALT = "$2a$10$IhaXo6LIBhKIWOiGpbtPOu";
+    private static final String TOKEN = ApiKeyFormat.token("api_live_", RandomIdGenerator.newId(), true);
+
+    private final FixedSaltBCrypt fixedSaltBCrypt = new FixedSaltBCrypt(SALT);
+
+    @Benchmark
+    public String jBCryptHashpw() {
+        return BCrypt.hashpw(TOKEN, SALT);
+    }
+
+    @Benchmark
+    public String fixedSaltBCrypt() {
+        return fixedSaltBCrypt.hash(TOKEN);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BCryptBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,9 @@
+package uk.gov.pay.publicauth.service;
+
+class CompactTokenTableTest extends TokenTableTest {
+
+    @Override
+    TokenTable newTable() {
+        return new CompactTokenTable();
+    }
+}
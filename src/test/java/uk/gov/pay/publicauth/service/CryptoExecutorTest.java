@@ -0,0 +1,108 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.publicauth.app.config.CryptoExecutorConfiguration;
+import uk.gov.pay.publicauth.exception.ServiceBusyException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.startsWith;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CryptoExecutorTest {
+
+    @Mock
+    private CryptoExecutorConfiguration mockConfig;
+
+    private MetricRegistry metricRegistry;
+    private CryptoExecutor cryptoExecutor;
+
+    @BeforeEach
+    void setUp() {
+        when(mockConfig.isEnabled()).thenReturn(true);
+        when(mockConfig.getThreads()).thenReturn(1);
+        when(mockConfig.getQueueSize()).thenReturn(1);
+        metricRegistry = new MetricRegistry();
+        cryptoExecutor = new CryptoExecutor(mockConfig, metricRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cryptoExecutor.stop();
+    }
+
+    @Test
+    void shouldRunWorkOnACryptoThreadAndRecordHowLongItWaited() {
+        String threadName = cryptoExecutor.call(() -> Thread.currentThread().getName());
+
+        assertThat(threadName, startsWith("crypto-"));
+        assertThat(metricRegistry.timer("tokens.crypto.wait-time").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldRethrowExceptionThrownByWork() {
+        IllegalArgumentException failure = new IllegalArgumentException("bad salt");
+
+        IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> cryptoExecutor.call(() -> {
+            throw failure;
+        }));
+
+        assertThat(thrown, is(failure));
+    }
+
+    @Test
+    void shouldRejectWorkStraightAwayWhenQueueIsFull() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        Future<String> busy = callers.submit(() -> cryptoExecutor.call(() -> {
+            running.countDown();
+            awaitUninterruptibly(release);
+            return "busy";
+        }));
+        running.await();
+        Future<String> queued = callers.submit(() -> cryptoExecutor.call(() -> "queued"));
+        while (!metricRegistry.getGauges().get("tokens.crypto.queue-depth").getValue().equals(1)) {
+            Thread.onSpinWait();
+        }
+
+        assertThrows(ServiceBusyException.class, () -> cryptoExecutor.call(() -> "rejected"));
+        assertThat(metricRegistry.counter("tokens.crypto.rejections").getCount(), is(1L));
+
+        release.countDown();
+        assertThat(busy.get(), is("busy"));
+        assertThat(queued.get(), is("queued"));
+        callers.shutdown();
+    }
+
+    @Test
+    void shouldRunWorkOnCallingThreadWhenDisabled() {
+        when(mockConfig.isEnabled()).thenReturn(false);
+        cryptoExecutor = new CryptoExecutor(mockConfig, new MetricRegistry());
+
+        String threadName = cryptoExecutor.call(() -> Thread.currentThread().getName());
+
+        assertThat(threadName, is(Thread.currentThread().getName()));
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.publicauth.app.config.StaleIfErrorConfiguration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DatabaseCircuitBreakerTest {
+
+    @Mock
+    private StaleIfErrorConfiguration mockConfig;
+
+    private final AtomicLong nanoClock = new AtomicLong();
+    private MetricRegistry metricRegistry;
+    private DatabaseCircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    void setUp() {
+        when(mockConfig.isEnabled()).thenReturn(true);
+        when(mockConfig.getFailureThreshold()).thenReturn(3);
+        when(mockConfig.getOpenDuration()).thenReturn(Duration.seconds(10));
+        metricRegistry = new MetricRegistry();
+        circuitBreaker = new DatabaseCircuitBreaker(mockConfig, metricRegistry, nanoClock::get);
+    }
+
+    @Test
+    void shouldOpenAfterConsecutiveFailures() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.allowRequest(), is(true));
+
+        circuitBreaker.recordFailure();
+
+        assertThat(circuitBreaker.allowRequest(), is(false));
+        assertThat(metricRegistry.counter("tokens.database-circuit.opened").getCount(), is(1L));
+        assertThat(metricRegistry.getGauges().get("tokens.database-circuit.open").getValue(), is(1));
+    }
+
+    @Test
+    void shouldNotOpenWhenFailuresAreNotConsecutive() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+
+        assertThat(circuitBreaker.allowRequest(), is(true));
+    }
+
+    @Test
+    void shouldAllowOneTrialRequestAfterOpenDurationAndCloseWhenItSucceeds() {
+        openCircuit();
+
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThat(circuitBreaker.allowRequest(), is(true));
+        assertThat(circuitBreaker.allowRequest(), is(false));
+
+        circuitBreaker.recordSuccess();
+
+        assertThat(circuitBreaker.allowRequest(), is(true));
+        assertThat(metricRegistry.getGauges().get("tokens.database-circuit.open").getValue(), is(0));
+    }
+
+    @Test
+    void shouldStayOpenForAnotherOpenDurationWhenTrialRequestFails() {
+        openCircuit();
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThat(circuitBreaker.allowRequest(), is(true));
+
+        circuitBreaker.recordFailure();
+
+        assertThat(circuitBreaker.allowRequest(), is(false));
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThat(circuitBreaker.allowRequest(), is(true));
+        assertThat(metricRegistry.counter("tokens.database-circuit.opened").getCount(), is(2L));
+    }
+
+    @Test
+    void shouldNeverOpenWhenDisabled() {
+        when(mockConfig.isEnabled()).thenReturn(false);
+        circuitBreaker = new DatabaseCircuitBreaker(mockConfig, new MetricRegistry(), nanoClock::get);
+
+        openCircuit();
+
+        assertThat(circuitBreaker.allowRequest(), is(true));
+    }
+
+    private void openCircuit() {
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.recordFailure();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package uk.gov.pay.publicauth.service;
+
+import org.junit.jupiter.api.Test;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.SplittableRandom;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FixedSaltBCryptTest {
+
+    private static final String PRODUCTION_COST_SALT = "$2a$10$IhaXo6LIBhKIWOiGpbtPOu";
+
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Test
+    void shouldMatchJBCryptOverALargeCorpusOfPasswordsAndSalts() {
+        for (int s = 0; s < 20; s++) {
+            String salt = BCrypt.gensalt(4);
+            FixedSaltBCrypt bcrypt = new FixedSaltBCrypt(salt);
+            for (int i = 0; i < 100; i++) {
+                String password = randomPassword();
+                assertThat(password, bcrypt.hash(password), is(BCrypt.hashpw(password, salt)));
+            }
+        }
+    }
+
+    @Test
+    void shouldMatchJBCryptForTokensAtProductionCost() {
+        FixedSaltBCrypt bcrypt = new FixedSaltBCrypt(PRODUCTION_COST_SALT);
+        for (int i = 0; i < 5; i++) {
+            String token = ApiKeyFormat.token("api_live_", RandomIdGenerator.newId(), true);
+            assertThat(bcrypt.hash(token), is(BCrypt.hashpw(token, PRODUCTION_COST_SALT)));
+        }
+    }
+
+    @Test
+    void shouldMatchJBCryptForEdgeCasePasswords() {
+        String salt = "$2a$04$IhaXo6LIBhKIWOiGpbtPOu";
+        FixedSaltBCrypt bcrypt = new FixedSaltBCrypt(salt);
+        for (String password : new String[]{"", "a", "x".repeat(72), "x".repeat(73), "y".repeat(500), "\u00e9\u20ac\ud83d\ude00", "nul\u0000byte"}) {
+            assertThat(password, bcrypt.hash(password), is(BCrypt.hashpw(password, salt)));
+        }
+    }
+
+    @Test
+    void shouldMatchJBCryptForSaltWithoutMinorVersionAndSaltWithUnusedBits() {
+        for (String salt : new String[]{"$2$05$IhaXo6LIBhKIWOiGpbtPOu", "$2a$04$IhaXo6LIBhKIWOiGpbtPOz"}) {
+            assertThat(new FixedSaltBCrypt(salt).hash("a-token"), is(BCrypt.hashpw("a-token", salt)));
+        }
+    }
+
+    @Test
+    void shouldRejectSaltsJBCryptCannotUse() {
+        assertThrows(IllegalArgumentException.class, () -> new FixedSaltBCrypt("$1$04$IhaXo6LIBhKIWOiGpbtPOu"));
+        assertThrows(IllegalArgumentException.class, () -> new FixedSaltBCrypt("$2y$04$IhaXo6LIBhKIWOiGpbtPOu"));
+        assertThrows(IllegalArgumentException.class, () -> new FixedSaltBCrypt("$2a$03$IhaXo6LIBhKIWOiGpbtPOu"));
+        assertThrows(IllegalArgumentException.class, () -> new FixedSaltBCrypt("$2a$04$IhaXo6LIBhKIWOiGpb"));
+        assertThrows(IllegalArgumentException.class, () -> new FixedSaltBCrypt("$2a$04$IhaXo6LIBhKIWOiGpb!POu"));
+    }
+
+    private String randomPassword() {
+        StringBuilder password = new StringBuilder();
+        int length = random.nextInt(100);
+        for (int i = 0; i < length; i++) {
+            // Mostly ASCII, with some characters that take two or three bytes in UTF-8
+            password.append(random.nextInt(10) == 0 ? (char) random.nextInt(0x80, 0xd800) : (char) random.nextInt(0x20, 0x7f));
+        }
+        return password.toString();
+    }
+}
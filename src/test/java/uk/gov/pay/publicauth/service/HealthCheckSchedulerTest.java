@@ -0,0 +1,80 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.publicauth.app.config.HealthCheckSchedulerConfiguration;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class HealthCheckSchedulerTest {
+
+    @Mock
+    private HealthCheckRegistry healthCheckRegistry;
+
+    private final AtomicLong nanoClock = new AtomicLong();
+    private HealthCheckScheduler healthCheckScheduler;
+
+    @BeforeEach
+    void setup() {
+        healthCheckScheduler = new HealthCheckScheduler(healthCheckRegistry, new HealthCheckSchedulerConfiguration(), nanoClock::get);
+    }
+
+    @Test
+    void shouldHaveNoResults_beforeHealthChecksHaveRun() {
+        assertThat(healthCheckScheduler.getLatestResults().isPresent(), is(false));
+    }
+
+    @Test
+    void shouldKeepLatestResultsWithTheirAge() {
+        SortedMap<String, HealthCheck.Result> map = new TreeMap<>();
+        map.put("postgresql", HealthCheck.Result.healthy());
+        when(healthCheckRegistry.runHealthChecks()).thenReturn(map);
+        healthCheckScheduler.runHealthChecks();
+
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        HealthCheckScheduler.Results results = healthCheckScheduler.getLatestResults().orElseThrow();
+
+        assertThat(results.getResults(), is(map));
+        assertThat(results.getAgeInSeconds(), is(5L));
+        assertThat(results.isStale(), is(false));
+        verify(healthCheckRegistry, times(1)).runHealthChecks();
+    }
+
+    @Test
+    void shouldReportResultsAsStale_onceOlderThanTheStalenessLimit() {
+        when(healthCheckRegistry.runHealthChecks()).thenReturn(new TreeMap<>());
+        healthCheckScheduler.runHealthChecks();
+
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        HealthCheckScheduler.Results results = healthCheckScheduler.getLatestResults().orElseThrow();
+
+        assertThat(results.isStale(), is(true));
+        assertThat(results.getAgeInSeconds(), is(31L));
+    }
+
+    @Test
+    void shouldKeepPreviousResults_whenHealthChecksFailToRun() {
+        when(healthCheckRegistry.runHealthChecks()).thenReturn(new TreeMap<>()).thenThrow(new RuntimeException("boom"));
+        healthCheckScheduler.runHealthChecks();
+        HealthCheckScheduler.Results previous = healthCheckScheduler.getLatestResults().orElseThrow();
+
+        healthCheckScheduler.runHealthChecks();
+
+        assertThat(healthCheckScheduler.getLatestResults().orElseThrow(), is(previous));
+    }
+}
@@ -0,0 +1,83 @@
+package uk.gov.pay.publicauth.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.publicauth.dao.AuthTokenDao;
+import uk.gov.pay.publicauth.model.TokenHash;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static uk.gov.pay.publicauth.service.LastUsedRecorder.FLUSH_CHUNK_SIZE;
+
+@ExtendWith(MockitoExtension.class)
+class LastUsedRecorderTest {
+
+    @Mock
+    private AuthTokenDao mockAuthTokenDao;
+
+    @Captor
+    private ArgumentCaptor<Collection<TokenHash>> tokenHashesCaptor;
+
+    @InjectMocks
+    private LastUsedRecorder lastUsedRecorder;
+
+    @Test
+    void shouldFlushUsedTokensInChunks() {
+        Set<TokenHash> used = recordUses(FLUSH_CHUNK_SIZE * 2 + 1);
+
+        lastUsedRecorder.flush();
+
+        verify(mockAuthTokenDao, times(3)).updateLastUsedTime(tokenHashesCaptor.capture());
+        List<Collection<TokenHash>> chunks = tokenHashesCaptor.getAllValues();
+        assertThat(chunks.get(0).size(), is(FLUSH_CHUNK_SIZE));
+        assertThat(chunks.get(1).size(), is(FLUSH_CHUNK_SIZE));
+        assertThat(chunks.get(2).size(), is(1));
+        Set<TokenHash> flushed = new HashSet<>();
+        chunks.forEach(flushed::addAll);
+        assertThat(flushed, is(used));
+    }
+
+    @Test
+    void shouldCarryOnFlushingChunks_whenOneFails() {
+        recordUses(FLUSH_CHUNK_SIZE + 1);
+        doThrow(new RuntimeException("database unavailable"))
+                .doReturn(1)
+                .when(mockAuthTokenDao).updateLastUsedTime(any(Collection.class));
+
+        lastUsedRecorder.flush();
+
+        verify(mockAuthTokenDao, times(2)).updateLastUsedTime(any(Collection.class));
+    }
+
+    @Test
+    void shouldNotTouchTheDatabase_whenNothingHasBeenUsed() {
+        lastUsedRecorder.flush();
+
+        verifyNoInteractions(mockAuthTokenDao);
+    }
+
+    private Set<TokenHash> recordUses(int count) {
+        Set<TokenHash> used = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            TokenHash tokenHash = TokenHash.of("token-hash-" + i);
+            lastUsedRecorder.record(tokenHash);
+            used.add(tokenHash);
+        }
+        return used;
+    }
+}
@@ -0,0 +1,25 @@
+package uk.gov.pay.publicauth.service;
+
+import org.junit.jupiter.api.Test;
+import uk.gov.pay.publicauth.model.TokenHash;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static uk.gov.pay.publicauth.fixture.TokenEntityFixture.aTokenEntity;
+
+class OffHeapTokenTableTest extends TokenTableTest {
+
+    @Override
+    TokenTable newTable() {
+        return new OffHeapTokenTable();
+    }
+
+    @Test
+    void shouldFreeItsMemory_whenReleased() {
+        TokenTable table = newTable();
+        table.put(TokenHash.of("token-hash"), aTokenEntity().build());
+
+        table.release();
+
+        assertThrows(IllegalStateException.class, () -> table.find(TokenHash.of("token-hash")));
+    }
+}
@@ -0,0 +1,49 @@
+package uk.gov.pay.publicauth.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-thread buffered DRBG generator with the shared
+ * {@code SecureRandom} + {@code BigInteger} implementation it replaced.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class RandomIdGeneratorBenchmark {
+
+    private static final SecureRandom SHARED_RANDOM = new SecureRandom();
+
+    @Benchmark
+    public String sharedSecureRandomBigInteger() {
+        return new BigInteger(130, SHARED_RANDOM).toString(32);
+    }
+
+    @Benchmark
+    public String perThreadBufferedDrbg() {
+        return RandomIdGenerator.newId();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RandomIdGeneratorBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
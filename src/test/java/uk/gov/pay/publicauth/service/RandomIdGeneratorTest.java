@@ -13,6 +13,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.core.Is.is;
+import static uk.gov.pay.publicauth.service.RandomIdGenerator.RANDOM_ID_LENGTH;
 import static uk.gov.pay.publicauth.service.RandomIdGenerator.RANDOM_ID_MAX_LENGTH;
 import static uk.gov.pay.publicauth.service.RandomIdGenerator.RANDOM_ID_MIN_LENGTH;
 import static uk.gov.pay.publicauth.service.RandomIdGenerator.newId;
@@ -39,4 +40,11 @@ class RandomIdGeneratorTest {
             assertThat(id.length(), lessThanOrEqualTo(RANDOM_ID_MAX_LENGTH));
         }
     }
+
+    @Test
+    void shouldGenerateFixedLengthIds() {
+        IntStream.range(0, 1000)
+                .mapToObj(value -> newId())
+                .forEach(id -> assertThat(id.length(), is(RANDOM_ID_LENGTH)));
+    }
 }
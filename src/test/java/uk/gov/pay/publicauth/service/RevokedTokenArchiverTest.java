@@ -0,0 +1,71 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.publicauth.app.config.RevokedTokenArchiveConfiguration;
+import uk.gov.pay.publicauth.dao.AuthTokenDao;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RevokedTokenArchiverTest {
+
+    private static final long ARCHIVE_AFTER_SECONDS = 7 * 24 * 60 * 60;
+
+    @Mock
+    private RevokedTokenArchiveConfiguration mockConfig;
+
+    @Mock
+    private AuthTokenDao mockAuthTokenDao;
+
+    private MetricRegistry metricRegistry;
+    private RevokedTokenArchiver revokedTokenArchiver;
+
+    @BeforeEach
+    void setUp() {
+        when(mockConfig.getArchiveAfter()).thenReturn(Duration.days(7));
+        when(mockConfig.getBatchSize()).thenReturn(2);
+        metricRegistry = new MetricRegistry();
+        revokedTokenArchiver = new RevokedTokenArchiver(mockConfig, mockAuthTokenDao, metricRegistry);
+    }
+
+    @Test
+    void shouldArchiveBatchesUntilOneComesBackShort() {
+        when(mockAuthTokenDao.archiveRevokedTokens(ARCHIVE_AFTER_SECONDS, 2)).thenReturn(2, 2, 1);
+
+        revokedTokenArchiver.archive();
+
+        verify(mockAuthTokenDao, times(3)).archiveRevokedTokens(ARCHIVE_AFTER_SECONDS, 2);
+        assertThat(metricRegistry.counter("tokens.revoked-archive.archived").getCount(), is(5L));
+    }
+
+    @Test
+    void shouldStopAfterOneBatchWhenNothingIsLeftToArchive() {
+        when(mockAuthTokenDao.archiveRevokedTokens(ARCHIVE_AFTER_SECONDS, 2)).thenReturn(0);
+
+        revokedTokenArchiver.archive();
+
+        verify(mockAuthTokenDao, times(1)).archiveRevokedTokens(ARCHIVE_AFTER_SECONDS, 2);
+        assertThat(metricRegistry.counter("tokens.revoked-archive.archived").getCount(), is(0L));
+    }
+
+    @Test
+    void shouldNotThrowWhenArchivingFails() {
+        when(mockAuthTokenDao.archiveRevokedTokens(ARCHIVE_AFTER_SECONDS, 2))
+                .thenReturn(2)
+                .thenThrow(new IllegalStateException("database unavailable"));
+
+        revokedTokenArchiver.archive();
+
+        assertThat(metricRegistry.counter("tokens.revoked-archive.archived").getCount(), is(2L));
+    }
+}
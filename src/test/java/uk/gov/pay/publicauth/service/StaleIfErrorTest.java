@@ -0,0 +1,62 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.publicauth.app.config.StaleIfErrorConfiguration;
+import uk.gov.pay.publicauth.exception.DatabaseUnavailableException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StaleIfErrorTest {
+
+    @Mock
+    private StaleIfErrorConfiguration mockConfig;
+
+    @Mock
+    private TokenIndex mockTokenIndex;
+
+    @Mock
+    private AuthCache mockAuthCache;
+
+    private final AtomicLong nanoClock = new AtomicLong();
+    private StaleIfError staleIfError;
+
+    @BeforeEach
+    void setUp() {
+        when(mockConfig.isEnabled()).thenReturn(true);
+        when(mockConfig.getFailureThreshold()).thenReturn(1);
+        when(mockConfig.getOpenDuration()).thenReturn(Duration.seconds(10));
+        when(mockConfig.getMaxStaleness()).thenReturn(Duration.minutes(5));
+        MetricRegistry metricRegistry = new MetricRegistry();
+        DatabaseCircuitBreaker circuitBreaker = new DatabaseCircuitBreaker(mockConfig, metricRegistry, nanoClock::get);
+        staleIfError = new StaleIfError(mockConfig, circuitBreaker, mockTokenIndex, mockAuthCache, metricRegistry);
+    }
+
+    @Test
+    void shouldLetAnotherTrialQueryThroughAfterATrialQueryThrowsAnError() {
+        assertThrows(IllegalStateException.class, () -> staleIfError.query(() -> {
+            throw new IllegalStateException("connection refused");
+        }));
+        assertThrows(DatabaseUnavailableException.class, () -> staleIfError.query(() -> "not queried"));
+
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThrows(AssertionError.class, () -> staleIfError.query(() -> {
+            throw new AssertionError("out of memory");
+        }));
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        assertThat(staleIfError.query(() -> "queried"), is("queried"));
+    }
+}
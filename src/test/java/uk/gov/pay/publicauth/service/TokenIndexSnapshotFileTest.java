@@ -0,0 +1,99 @@
+package uk.gov.pay.publicauth.service;
+
+import io.dropwizard.util.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.gov.pay.publicauth.model.AuthResponse;
+import uk.gov.pay.publicauth.model.TokenHash;
+import uk.gov.pay.publicauth.model.TokenLink;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static uk.gov.pay.publicauth.fixture.TokenEntityFixture.aTokenEntity;
+import static uk.gov.pay.publicauth.model.ServiceMode.LIVE;
+
+class TokenIndexSnapshotFileTest {
+
+    private static final TokenHash TOKEN_HASH = TokenHash.of("token-hash");
+    private static final TokenHash TOKEN_HASH_2 = TokenHash.of("token-hash-2");
+
+    @TempDir
+    Path directory;
+
+    private final AtomicLong wallClock = new AtomicLong(1_700_000_000_000L);
+    private Path path;
+    private TokenIndexSnapshotFile snapshotFile;
+
+    @BeforeEach
+    void setUp() {
+        path = directory.resolve("token-index.snapshot");
+        snapshotFile = new TokenIndexSnapshotFile(path, Duration.hours(1), wallClock::get);
+    }
+
+    @Test
+    void shouldReadBackTheTokensAndChangeMarkerThatWereWritten() throws Exception {
+        TokenLink tokenLink = TokenLink.of(UUID.randomUUID().toString());
+        TokenTable table = new CompactTokenTable();
+        table.put(TOKEN_HASH, aTokenEntity().withAccountId("42").withTokenLink(tokenLink)
+                .withServiceMode(LIVE).withServiceExternalId("a-service-external-id").build());
+        table.put(TOKEN_HASH_2, aTokenEntity().withTokenLink(TokenLink.of("a-token-link")).build());
+
+        snapshotFile.write(100L, table);
+        TokenIndexSnapshotFile.Snapshot snapshot = snapshotFile.read(CompactTokenTable::new).get();
+
+        assertThat(snapshot.getChangeMarker(), is(100L));
+        assertThat(snapshot.getTable().size(), is(2));
+        AuthResponse authResponse = snapshot.getTable().find(TOKEN_HASH).get();
+        assertThat(authResponse.getAccountId(), is("42"));
+        assertThat(authResponse.getTokenLink(), is(tokenLink));
+        assertThat(authResponse.getServiceMode(), is(LIVE));
+        assertThat(authResponse.getServiceExternalId(), is("a-service-external-id"));
+        assertThat(snapshot.getTable().find(TOKEN_HASH_2).get().getTokenLink(), is(TokenLink.of("a-token-link")));
+    }
+
+    @Test
+    void shouldReadASnapshotWrittenFromOneTableIntoTheOtherKind() throws Exception {
+        TokenTable table = new CompactTokenTable();
+        table.put(TOKEN_HASH, aTokenEntity().withAccountId("42").build());
+
+        snapshotFile.write(100L, table);
+
+        assertThat(snapshotFile.read(OffHeapTokenTable::new).get().getTable().find(TOKEN_HASH).get().getAccountId(), is("42"));
+    }
+
+    @Test
+    void shouldIgnoreMissingSnapshot() {
+        assertThat(snapshotFile.read(CompactTokenTable::new).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldIgnoreCorruptSnapshot() throws Exception {
+        TokenTable table = new CompactTokenTable();
+        table.put(TOKEN_HASH, aTokenEntity().build());
+        snapshotFile.write(100L, table);
+
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(path, bytes);
+
+        assertThat(snapshotFile.read(CompactTokenTable::new).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldIgnoreSnapshotOlderThanMaxAge() throws Exception {
+        TokenTable table = new CompactTokenTable();
+        table.put(TOKEN_HASH, aTokenEntity().build());
+        snapshotFile.write(100L, table);
+
+        wallClock.addAndGet(TimeUnit.MINUTES.toMillis(61));
+
+        assertThat(snapshotFile.read(CompactTokenTable::new).isPresent(), is(false));
+    }
+}
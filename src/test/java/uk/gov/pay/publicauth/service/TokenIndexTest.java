@@ -0,0 +1,213 @@
+package uk.gov.pay.publicauth.service;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.pay.publicauth.app.config.RejectedTokenCacheConfiguration;
+import uk.gov.pay.publicauth.app.config.TokenIndexConfiguration;
+import uk.gov.pay.publicauth.dao.AuthTokenDao;
+import uk.gov.pay.publicauth.exception.TokenRevokedException;
+import uk.gov.pay.publicauth.model.TokenEntity;
+import uk.gov.pay.publicauth.model.TokenHash;
+import uk.gov.pay.publicauth.model.TokenLink;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static java.time.ZoneOffset.UTC;
+import static java.time.ZonedDateTime.now;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static uk.gov.pay.publicauth.fixture.TokenEntityFixture.aTokenEntity;
+
+@ExtendWith(MockitoExtension.class)
+class TokenIndexTest {
+
+    private static final TokenHash TOKEN_HASH = TokenHash.of("token-hash");
+    private static final TokenHash TOKEN_HASH_2 = TokenHash.of("token-hash-2");
+    private static final TokenLink TOKEN_LINK_2 = TokenLink.of("a-token-link");
+
+    @Mock
+    private TokenIndexConfiguration mockConfig;
+
+    @Mock
+    private AuthTokenDao mockAuthTokenDao;
+
+    @Mock
+    private TokenIndexSnapshotFile mockSnapshotFile;
+
+    private final AtomicLong nanoClock = new AtomicLong();
+    private MetricRegistry metricRegistry;
+    private RejectedTokenCache rejectedTokenCache;
+    private TokenIndex tokenIndex;
+
+    @BeforeEach
+    void setUp() {
+        when(mockConfig.isEnabled()).thenReturn(true);
+        when(mockConfig.getMaxSyncLag()).thenReturn(Duration.seconds(30));
+        when(mockConfig.getSnapshotInterval()).thenReturn(Duration.minutes(5));
+        metricRegistry = new MetricRegistry();
+        rejectedTokenCache = new RejectedTokenCache(new RejectedTokenCacheConfiguration(), metricRegistry);
+        tokenIndex = new TokenIndex(mockConfig, mockAuthTokenDao, rejectedTokenCache, metricRegistry, nanoClock::get, null, Runnable::run);
+    }
+
+    @Test
+    void shouldMissBeforeFirstLoad() {
+        assertThat(tokenIndex.find(TOKEN_HASH).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldFindTokensLoadedOnFirstSync() {
+        TokenEntity token = aTokenEntity().withAccountId("42").build();
+        when(mockAuthTokenDao.streamActiveTokens(any())).thenAnswer(invocation -> {
+            BiConsumer<TokenHash, TokenEntity> consumer = invocation.getArgument(0);
+            consumer.accept(TOKEN_HASH, token);
+            return 100L;
+        });
+
+        tokenIndex.sync();
+
+        assertThat(tokenIndex.find(TOKEN_HASH).get().getAccountId(), is("42"));
+        assertThat(tokenIndex.find(TOKEN_HASH_2).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldApplyChangesSinceLastSyncAndRejectRevokedTokens() {
+        when(mockAuthTokenDao.streamActiveTokens(any())).thenAnswer(invocation -> {
+            BiConsumer<TokenHash, TokenEntity> consumer = invocation.getArgument(0);
+            consumer.accept(TOKEN_HASH, aTokenEntity().build());
+            return 100L;
+        });
+        when(mockAuthTokenDao.findTokenChangesSince(eq(100L), any())).thenAnswer(invocation -> {
+            BiConsumer<TokenHash, TokenEntity> consumer = invocation.getArgument(1);
+            consumer.accept(TOKEN_HASH, aTokenEntity().withRevokedDate(now(UTC)).withTokenLink(TOKEN_LINK_2).build());
+            consumer.accept(TOKEN_HASH_2, aTokenEntity().build());
+            return 105L;
+        });
+
+        tokenIndex.sync();
+        tokenIndex.sync();
+
+        assertThat(tokenIndex.find(TOKEN_HASH).isPresent(), is(false));
+        assertThat(tokenIndex.find(TOKEN_HASH_2).isPresent(), is(true));
+        assertThrows(TokenRevokedException.class, () -> rejectedTokenCache.rejectIfKnown(TOKEN_HASH));
+    }
+
+    @Test
+    void shouldMissWhenLastSuccessfulSyncIsOlderThanMaxSyncLag() {
+        when(mockAuthTokenDao.streamActiveTokens(any())).thenAnswer(invocation -> {
+            BiConsumer<TokenHash, TokenEntity> consumer = invocation.getArgument(0);
+            consumer.accept(TOKEN_HASH, aTokenEntity().build());
+            return 100L;
+        });
+        when(mockAuthTokenDao.findTokenChangesSince(eq(100L), any())).thenThrow(new RuntimeException("database unavailable"));
+
+        tokenIndex.sync();
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        tokenIndex.sync();
+
+        assertThat(tokenIndex.find(TOKEN_HASH).isPresent(), is(false));
+        assertThat(metricRegistry.counter("tokens.index.sync-failures").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldFindStaleTokenUpToMaxStalenessWhenSyncIsFailing() {
+        TokenEntity token = aTokenEntity().withAccountId("42").build();
+        when(mockAuthTokenDao.streamActiveTokens(any())).thenAnswer(invocation -> {
+            BiConsumer<TokenHash, TokenEntity> consumer = invocation.getArgument(0);
+            consumer.accept(TOKEN_HASH, token);
+            return 100L;
+        });
+        tokenIndex.sync();
+
+        nanoClock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        long maxStalenessNanos = TimeUnit.MINUTES.toNanos(5);
+
+        assertThat(tokenIndex.find(TOKEN_HASH).isPresent(), is(false));
+        assertThat(tokenIndex.findStale(TOKEN_HASH, maxStalenessNanos).get().getAccountId(), is("42"));
+
+        nanoClock.addAndGet(TimeUnit.MINUTES.toNanos(4) + 1);
+        assertThat(tokenIndex.findStale(TOKEN_HASH, maxStalenessNanos).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldLoadFromSnapshotAndOnlyCatchUpOnChangesSinceItWasWritten() throws Exception {
+        tokenIndex = new TokenIndex(mockConfig, mockAuthTokenDao, rejectedTokenCache, metricRegistry, nanoClock::get, mockSnapshotFile, Runnable::run);
+        TokenTable snapshotTable = new CompactTokenTable();
+        snapshotTable.put(TOKEN_HASH, aTokenEntity().build());
+        when(mockSnapshotFile.read(any())).thenReturn(Optional.of(new TokenIndexSnapshotFile.Snapshot(snapshotTable, 100L, Instant.now())));
+        when(mockAuthTokenDao.findTokenChangesSince(eq(100L), any())).thenAnswer(invocation -> {
+            BiConsumer<TokenHash, TokenEntity> consumer = invocation.getArgument(1);
+            consumer.accept(TOKEN_HASH_2, aTokenEntity().build());
+            return 105L;
+        });
+
+        tokenIndex.sync();
+
+        assertThat(tokenIndex.find(TOKEN_HASH).isPresent(), is(true));
+        assertThat(tokenIndex.find(TOKEN_HASH_2).isPresent(), is(true));
+        verify(mockAuthTokenDao, never()).streamActiveTokens(any());
+        verify(mockSnapshotFile, never()).copy(anyLong(), any());
+    }
+
+    @Test
+    void shouldLoadFromDatabaseAndWriteSnapshotWhenSnapshotIsAheadOfDatabase() throws Exception {
+        tokenIndex = new TokenIndex(mockConfig, mockAuthTokenDao, rejectedTokenCache, metricRegistry, nanoClock::get, mockSnapshotFile, Runnable::run);
+        TokenTable snapshotTable = new CompactTokenTable();
+        snapshotTable.put(TOKEN_HASH, aTokenEntity().build());
+        when(mockSnapshotFile.read(any())).thenReturn(Optional.of(new TokenIndexSnapshotFile.Snapshot(snapshotTable, 100L, Instant.now())));
+        when(mockAuthTokenDao.findTokenChangesSince(eq(100L), any())).thenReturn(50L);
+        when(mockAuthTokenDao.streamActiveTokens(any())).thenAnswer(invocation -> {
+            BiConsumer<TokenHash, TokenEntity> consumer = invocation.getArgument(0);
+            consumer.accept(TOKEN_HASH_2, aTokenEntity().build());
+            return 55L;
+        });
+
+        tokenIndex.sync();
+
+        assertThat(tokenIndex.find(TOKEN_HASH).isPresent(), is(false));
+        assertThat(tokenIndex.find(TOKEN_HASH_2).isPresent(), is(true));
+        verify(mockSnapshotFile).copy(eq(55L), any());
+        verify(mockSnapshotFile).write((TokenIndexSnapshotFile.Contents) any());
+    }
+
+    @Test
+    void shouldCopyIndexForSnapshotOnSyncThread_andWriteItElsewhere_oneSnapshotAtATime() throws Exception {
+        List<Runnable> snapshotWrites = new ArrayList<>();
+        tokenIndex = new TokenIndex(mockConfig, mockAuthTokenDao, rejectedTokenCache, metricRegistry, nanoClock::get, mockSnapshotFile,
+                snapshotWrites::add);
+        when(mockAuthTokenDao.streamActiveTokens(any())).thenReturn(100L);
+        when(mockAuthTokenDao.findTokenChangesSince(eq(100L), any())).thenReturn(100L);
+
+        tokenIndex.sync();
+        verify(mockSnapshotFile).copy(eq(100L), any());
+        verify(mockSnapshotFile, never()).write((TokenIndexSnapshotFile.Contents) any());
+
+        nanoClock.addAndGet(TimeUnit.MINUTES.toNanos(5));
+        tokenIndex.sync();
+        verify(mockSnapshotFile, times(1)).copy(anyLong(), any());
+
+        snapshotWrites.get(0).run();
+        verify(mockSnapshotFile).write((TokenIndexSnapshotFile.Contents) any());
+        tokenIndex.sync();
+        verify(mockSnapshotFile, times(2)).copy(anyLong(), any());
+        assertThat(metricRegistry.timer("tokens.index.snapshot-write").getCount(), is(1L));
+    }
+}
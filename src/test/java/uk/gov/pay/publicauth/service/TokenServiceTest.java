@@ -1,6 +1,8 @@
 package uk.gov.pay.publicauth.service;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.io.BaseEncoding;
+import io.dropwizard.util.Duration;
 import org.apache.commons.codec.digest.HmacAlgorithms;
 import org.apache.commons.codec.digest.HmacUtils;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,6 +13,11 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
+import uk.gov.pay.publicauth.app.config.AuthFailureLoggingConfiguration;
+import uk.gov.pay.publicauth.app.config.CryptoExecutorConfiguration;
+import uk.gov.pay.publicauth.app.config.RejectedTokenCacheConfiguration;
+import uk.gov.pay.publicauth.app.config.StaleIfErrorConfiguration;
 import uk.gov.pay.publicauth.app.config.TokensConfiguration;
 import uk.gov.pay.publicauth.auth.Token;
 import uk.gov.pay.publicauth.dao.AuthTokenDao;
@@ -25,7 +32,9 @@ import uk.gov.pay.publicauth.model.TokenLink;
 import uk.gov.pay.publicauth.model.TokenAccountType;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiConsumer;
 
 import static com.google.common.primitives.Chars.asList;
 import static java.time.ZoneOffset.UTC;
@@ -36,9 +45,16 @@ import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.core.Is.is;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static uk.gov.pay.publicauth.fixture.TokenEntityFixture.aTokenEntity;
 import static uk.gov.pay.publicauth.model.TokenPaymentType.CARD;
@@ -61,33 +77,101 @@ class TokenServiceTest {
     @Mock
     AuthTokenDao mockAuthTokenDao;
 
+    @Mock
+    TokenIndex mockTokenIndex;
+
+    @Mock
+    LastUsedRecorder mockLastUsedRecorder;
+
+    @Mock
+    AuthCache mockAuthCache;
+
     @Captor
     ArgumentCaptor<TokenHash> tokenHashArgumentCaptor;
 
+    private MetricRegistry metricRegistry;
+    private RejectedTokenCache rejectedTokenCache;
+    private AuthFailureLogger authFailureLogger;
+    private StaleIfError staleIfError;
+    private CryptoExecutor cryptoExecutor;
+
     @BeforeEach
     public void setup() {
         when(mockConfig.getEncryptDBSalt()).thenReturn(EXPECTED_SALT);
         when(mockConfig.getApiKeyHmacSecret()).thenReturn(EXPECTED_SECRET_KEY);
-        tokenService = new TokenService(mockConfig, mockAuthTokenDao);
+        metricRegistry = new MetricRegistry();
+        rejectedTokenCache = new RejectedTokenCache(new RejectedTokenCacheConfiguration(), metricRegistry);
+        authFailureLogger = new AuthFailureLogger(new AuthFailureLoggingConfiguration(), metricRegistry);
+        cryptoExecutor = new CryptoExecutor(new CryptoExecutorConfiguration(), metricRegistry);
+        staleIfError = new StaleIfError(new StaleIfErrorConfiguration(), new DatabaseCircuitBreaker(new StaleIfErrorConfiguration(), metricRegistry),
+                mockTokenIndex, mockAuthCache, metricRegistry);
+        tokenService = new TokenService(mockConfig, mockAuthTokenDao, rejectedTokenCache, authFailureLogger, mockTokenIndex, mockLastUsedRecorder, mockAuthCache, staleIfError, cryptoExecutor);
     }
 
     @Test
     void shouldSuccessfullyAuthenticateIfValidNotRevokedToken() {
         TokenEntity token = aTokenEntity().build();
-        when(mockAuthTokenDao.findTokenByHash(TOKEN_HASH)).thenReturn(Optional.of(token));
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH)).thenReturn(Optional.of(token));
 
         AuthResponse authResponse = tokenService.authenticate(TOKEN_HASH);
 
-        verify(mockAuthTokenDao).updateLastUsedTime(TOKEN_HASH);
+        verify(mockAuthTokenDao).findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH);
+        verifyNoMoreInteractions(mockAuthTokenDao);
 
         assertThat(authResponse.getAccountId(), is(token.getAccountId()));
         assertThat(authResponse.getTokenLink(), is(token.getTokenLink()));
         assertThat(authResponse.getTokenPaymentType(), is(token.getTokenPaymentType()));
     }
 
+    @Test
+    void shouldLookInPartitionForExpectedServiceModeFirst() {
+        TokenEntity token = aTokenEntity().build();
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH, ServiceMode.LIVE)).thenReturn(Optional.of(token));
+
+        AuthResponse authResponse = tokenService.authenticate(TOKEN_HASH, Optional.of(ServiceMode.LIVE));
+
+        verify(mockAuthTokenDao).findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH, ServiceMode.LIVE);
+        verifyNoMoreInteractions(mockAuthTokenDao);
+        assertThat(authResponse.getTokenLink(), is(token.getTokenLink()));
+    }
+
+    @Test
+    void shouldAuthenticateFromTokenIndexWithoutQueryingDatabase() {
+        AuthResponse indexedToken = new AuthResponse(aTokenEntity().build());
+        when(mockTokenIndex.find(TOKEN_HASH)).thenReturn(Optional.of(indexedToken));
+
+        AuthResponse authResponse = tokenService.authenticate(TOKEN_HASH);
+
+        assertThat(authResponse, is(indexedToken));
+        verify(mockLastUsedRecorder).record(TOKEN_HASH);
+        verifyNoInteractions(mockAuthTokenDao);
+    }
+
+    @Test
+    void shouldAuthenticateFromAuthCacheWithoutQueryingDatabase() {
+        AuthResponse cachedToken = new AuthResponse(aTokenEntity().build());
+        when(mockAuthCache.find(TOKEN_HASH)).thenReturn(Optional.of(cachedToken));
+
+        AuthResponse authResponse = tokenService.authenticate(TOKEN_HASH);
+
+        assertThat(authResponse, is(cachedToken));
+        verify(mockLastUsedRecorder).record(TOKEN_HASH);
+        verifyNoInteractions(mockAuthTokenDao);
+    }
+
+    @Test
+    void shouldAddSuccessfulDatabaseAuthenticationToAuthCache() {
+        TokenEntity token = aTokenEntity().build();
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH)).thenReturn(Optional.of(token));
+
+        AuthResponse authResponse = tokenService.authenticate(TOKEN_HASH);
+
+        verify(mockAuthCache).put(TOKEN_HASH, authResponse);
+    }
+
     @Test
     void shouldThrowExceptionIfTokenNotFound() {
-        when(mockAuthTokenDao.findTokenByHash(TOKEN_HASH)).thenReturn(Optional.empty());
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH)).thenReturn(Optional.empty());
 
         assertThrows(TokenInvalidException.class, () -> tokenService.authenticate(TOKEN_HASH));
         verify(mockAuthTokenDao, never()).updateLastUsedTime(TOKEN_HASH);
@@ -99,12 +183,194 @@ class TokenServiceTest {
                 .withRevokedDate(now(UTC))
                 .withTokenLink(TokenLink.of("a-token-link"))
                 .build();
-        when(mockAuthTokenDao.findTokenByHash(TOKEN_HASH)).thenReturn(Optional.of(token));
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH)).thenReturn(Optional.of(token));
 
         assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(TOKEN_HASH), "Token with token_link a-token-link has been revoked");
         verify(mockAuthTokenDao, never()).updateLastUsedTime(TOKEN_HASH);
     }
 
+    @Test
+    void shouldRejectRevokedKeyBeforeEncryptingIt_onceItHasBeenRejected() {
+        String apiKey = tokenService.createTokenForAccount(new CreateTokenRequest("42", "A token description", "a-user-id", CARD, API, TokenAccountType.LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID));
+        Token token = tokenService.extractEncryptedTokenFrom(apiKey).get();
+        TokenLink tokenLink = TokenLink.of("a-token-link");
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TokenHash.of(token.getName()), ServiceMode.LIVE))
+                .thenReturn(Optional.of(aTokenEntity().withRevokedDate(now(UTC)).withTokenLink(tokenLink).build()));
+
+        assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(token));
+
+        TokenRevokedException rejection = assertThrows(TokenRevokedException.class, () -> tokenService.extractEncryptedTokenFrom(apiKey));
+        assertThat(rejection.getTokenLink(), is(tokenLink));
+        assertThat(tokenService.extractEncryptedTokenToRevoke(apiKey).isPresent(), is(true));
+    }
+
+    @Test
+    void shouldRejectUnknownKeyBeforeEncryptingIt_onceItHasBeenRejected() {
+        String token = "thisismvplaintoken";
+        String apiKey = token + BaseEncoding.base32Hex().omitPadding().lowerCase().encode(new HmacUtils(HmacAlgorithms.HMAC_SHA_1, EXPECTED_SECRET_KEY).hmac(token));
+        Token extractedToken = tokenService.extractEncryptedTokenFrom(apiKey).get();
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TokenHash.of(extractedToken.getName()))).thenReturn(Optional.empty());
+
+        assertThrows(TokenInvalidException.class, () -> tokenService.authenticate(extractedToken));
+
+        assertThrows(TokenInvalidException.class, () -> tokenService.extractEncryptedTokenFrom(apiKey));
+        assertThat(metricRegistry.counter("tokens.rejected-cache.hits").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldNotRememberKey_whenTokenIsAuthenticated() {
+        String apiKey = tokenService.createTokenForAccount(new CreateTokenRequest("42", "A token description", "a-user-id", CARD, API, TokenAccountType.LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID));
+        Token token = tokenService.extractEncryptedTokenFrom(apiKey).get();
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TokenHash.of(token.getName()), ServiceMode.LIVE))
+                .thenReturn(Optional.of(aTokenEntity().build()));
+
+        tokenService.authenticate(token);
+
+        assertThat(tokenService.extractEncryptedTokenFrom(apiKey).isPresent(), is(true));
+    }
+
+    @Test
+    void shouldForgetTokenRevokedByTokenLink() {
+        TokenLink tokenLink = TokenLink.of("a-token-link");
+        TokenEntity token = aTokenEntity().withRevokedDate(now(UTC)).withTokenLink(tokenLink).build();
+        when(mockAuthTokenDao.revokeSingleToken(eq("42"), eq(tokenLink), any())).thenAnswer(revoking(token));
+
+        tokenService.revokeToken("42", tokenLink);
+
+        verify(mockAuthCache).invalidate(TOKEN_HASH);
+        TokenRevokedException rejection = assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(TOKEN_HASH));
+        assertThat(rejection.getTokenLink(), is(tokenLink));
+        verify(mockAuthTokenDao, never()).findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH);
+    }
+
+    @Test
+    void shouldForgetTokenRevokedByServiceAndTokenLink() {
+        TokenLink tokenLink = TokenLink.of("a-token-link");
+        TokenEntity token = aTokenEntity().withRevokedDate(now(UTC)).withTokenLink(tokenLink).build();
+        when(mockAuthTokenDao.revokeSingleToken(eq(SERVICE_EXTERNAL_ID), eq(ServiceMode.LIVE), eq(tokenLink), any())).thenAnswer(revoking(token));
+
+        tokenService.revokeToken(SERVICE_EXTERNAL_ID, ServiceMode.LIVE, tokenLink);
+
+        verify(mockAuthCache).invalidate(TOKEN_HASH);
+        assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(TOKEN_HASH));
+        verify(mockAuthTokenDao, never()).findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH);
+    }
+
+    @Test
+    void shouldForgetEveryTokenRevokedTogether() {
+        TokenHash otherTokenHash = TokenHash.of("OTHER-TOKEN");
+        TokenEntity token = aTokenEntity().withRevokedDate(now(UTC)).withTokenLink(TokenLink.of("a-token-link")).build();
+        TokenEntity otherToken = aTokenEntity().withRevokedDate(now(UTC)).withTokenLink(TokenLink.of("another-token-link")).build();
+        Answer<Integer> revokingBoth = invocation -> {
+            BiConsumer<TokenHash, TokenEntity> consumer = invocation.getArgument(invocation.getArguments().length - 1);
+            consumer.accept(TOKEN_HASH, token);
+            consumer.accept(otherTokenHash, otherToken);
+            return 2;
+        };
+        when(mockAuthTokenDao.revokeTokens(eq("42"), any())).thenAnswer(revokingBoth);
+        when(mockAuthTokenDao.revokeTokens(eq(SERVICE_EXTERNAL_ID), eq(ServiceMode.TEST), any())).thenAnswer(revokingBoth);
+
+        tokenService.revokeTokens("42");
+        tokenService.revokeTokens(SERVICE_EXTERNAL_ID, ServiceMode.TEST);
+
+        verify(mockAuthCache, times(2)).invalidate(TOKEN_HASH);
+        verify(mockAuthCache, times(2)).invalidate(otherTokenHash);
+        assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(TOKEN_HASH));
+        assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(otherTokenHash));
+        verify(mockAuthTokenDao, never()).findTokenByHashAndUpdateLastUsedTime(any());
+    }
+
+    private static Answer<Optional<TokenEntity>> revoking(TokenEntity token) {
+        return invocation -> {
+            BiConsumer<TokenHash, TokenEntity> consumer = invocation.getArgument(invocation.getArguments().length - 1);
+            consumer.accept(TOKEN_HASH, token);
+            return Optional.of(token);
+        };
+    }
+
+    @Test
+    void shouldNotQueryDatabaseAgainForTokenFoundRevoked() {
+        TokenEntity token = aTokenEntity()
+                .withRevokedDate(now(UTC))
+                .withTokenLink(TokenLink.of("a-token-link"))
+                .build();
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH)).thenReturn(Optional.of(token));
+
+        assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(TOKEN_HASH));
+        TokenRevokedException secondAttempt = assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(TOKEN_HASH));
+
+        assertThat(secondAttempt.getTokenLink(), is(TokenLink.of("a-token-link")));
+        verify(mockAuthTokenDao, times(1)).findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH);
+    }
+
+    @Test
+    void shouldAnswerFromStaleResultWhenDatabaseFails_whenStaleIfErrorEnabled() {
+        enableStaleIfError();
+        AuthResponse cachedToken = new AuthResponse(aTokenEntity().build());
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH)).thenThrow(new RuntimeException("connection refused"));
+        when(mockAuthCache.findStale(eq(TOKEN_HASH), anyLong())).thenReturn(Optional.of(cachedToken));
+
+        AuthResponse authResponse = tokenService.authenticate(TOKEN_HASH);
+
+        assertThat(authResponse, is(cachedToken));
+        verify(mockLastUsedRecorder).record(TOKEN_HASH);
+        assertThat(metricRegistry.counter("tokens.stale-if-error.served").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldRejectRevokedTokenWhenDatabaseFails_evenWithStaleResult() {
+        enableStaleIfError();
+        TokenEntity token = aTokenEntity()
+                .withRevokedDate(now(UTC))
+                .withTokenLink(TokenLink.of("a-token-link"))
+                .build();
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH))
+                .thenReturn(Optional.of(token))
+                .thenThrow(new RuntimeException("connection refused"));
+        lenient().when(mockAuthCache.findStale(eq(TOKEN_HASH), anyLong())).thenReturn(Optional.of(new AuthResponse(aTokenEntity().build())));
+
+        assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(TOKEN_HASH));
+        assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(TOKEN_HASH));
+
+        assertThat(metricRegistry.counter("tokens.stale-if-error.served").getCount(), is(0L));
+    }
+
+    @Test
+    void shouldRejectTokenRevokedByTokenLinkWhenDatabaseFails_evenWithStaleResult() {
+        enableStaleIfError();
+        TokenLink tokenLink = TokenLink.of("a-token-link");
+        TokenEntity token = aTokenEntity().withRevokedDate(now(UTC)).withTokenLink(tokenLink).build();
+        when(mockAuthTokenDao.revokeSingleToken(eq("42"), eq(tokenLink), any())).thenAnswer(revoking(token));
+        lenient().when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH)).thenThrow(new RuntimeException("connection refused"));
+        lenient().when(mockAuthCache.findStale(eq(TOKEN_HASH), anyLong())).thenReturn(Optional.of(new AuthResponse(aTokenEntity().build())));
+
+        tokenService.revokeToken("42", tokenLink);
+
+        assertThrows(TokenRevokedException.class, () -> tokenService.authenticate(TOKEN_HASH));
+        assertThat(metricRegistry.counter("tokens.stale-if-error.served").getCount(), is(0L));
+    }
+
+    @Test
+    void shouldFailWhenDatabaseFails_whenStaleIfErrorDisabled() {
+        RuntimeException failure = new RuntimeException("connection refused");
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH)).thenThrow(failure);
+
+        RuntimeException thrown = assertThrows(RuntimeException.class, () -> tokenService.authenticate(TOKEN_HASH));
+
+        assertThat(thrown, is(failure));
+        verify(mockAuthCache, never()).findStale(eq(TOKEN_HASH), anyLong());
+    }
+
+    @Test
+    void shouldNotQueryDatabaseAgainForTokenNotFound() {
+        when(mockAuthTokenDao.findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH)).thenReturn(Optional.empty());
+
+        assertThrows(TokenInvalidException.class, () -> tokenService.authenticate(TOKEN_HASH));
+        assertThrows(TokenInvalidException.class, () -> tokenService.authenticate(TOKEN_HASH));
+
+        verify(mockAuthTokenDao, times(1)).findTokenByHashAndUpdateLastUsedTime(TOKEN_HASH);
+    }
+
     @Test
     void shouldCreateValidToken() {
         CreateTokenRequest createTokenRequest = new CreateTokenRequest("42", "A token description", "a-user-id", CARD, API, null, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
@@ -151,6 +417,98 @@ class TokenServiceTest {
         assertThat(apiKey.contains("api_test_"), is(true));
     }
 
+    @Test
+    void shouldCreateFixedLengthVersionedToken() {
+        CreateTokenRequest createTokenRequest = new CreateTokenRequest("42", "A token description", "a-user-id", CARD, API, TokenAccountType.LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
+        String apiKey = tokenService.createTokenForAccount(createTokenRequest);
+
+        assertThat(apiKey.length(), is("api_live_".length() + ApiKeyFormat.VERSION_1_LENGTH));
+        assertThat(apiKey.charAt("api_live_".length()), is(ApiKeyFormat.VERSION_1));
+        assertThat(tokenService.extractEncryptedTokenFrom(apiKey).get().getExpectedServiceMode(), is(Optional.of(ServiceMode.LIVE)));
+    }
+
+    @Test
+    void shouldCreateTokenWithChecksum_whenChecksumEnabled() {
+        when(mockConfig.isApiKeyChecksumEnabled()).thenReturn(true);
+        tokenService = new TokenService(mockConfig, mockAuthTokenDao, rejectedTokenCache, authFailureLogger, mockTokenIndex, mockLastUsedRecorder, mockAuthCache, staleIfError, cryptoExecutor);
+
+        CreateTokenRequest createTokenRequest = new CreateTokenRequest("42", "A token description", "a-user-id", CARD, API, TokenAccountType.LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
+        String apiKey = tokenService.createTokenForAccount(createTokenRequest);
+
+        assertThat(apiKey.length(), is("api_live_".length() + ApiKeyFormat.VERSION_2_LENGTH));
+        assertThat(tokenService.extractEncryptedTokenFrom(apiKey).isPresent(), is(true));
+    }
+
+    @Test
+    void extractEncryptedTokenFromApiKey_shouldNotBePresent_andCountRejection_whenChecksumDoesNotMatch() {
+        when(mockConfig.isApiKeyChecksumEnabled()).thenReturn(true);
+        tokenService = new TokenService(mockConfig, mockAuthTokenDao, rejectedTokenCache, authFailureLogger, mockTokenIndex, mockLastUsedRecorder, mockAuthCache, staleIfError, cryptoExecutor);
+
+        CreateTokenRequest createTokenRequest = new CreateTokenRequest("42", "A token description", "a-user-id", CARD, API, TokenAccountType.LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
+        String apiKey = tokenService.createTokenForAccount(createTokenRequest);
+        String mistypedApiKey = apiKey.substring(0, 12) + (apiKey.charAt(12) == '0' ? '1' : '0') + apiKey.substring(13);
+
+        assertThat(tokenService.extractEncryptedTokenFrom(mistypedApiKey).isPresent(), is(false));
+        assertThat(metricRegistry.counter("tokens.rejected.checksum").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldCreateTokenWithKeyIdSignedWithThatSecret_whenKeyIdConfigured() {
+        when(mockConfig.getApiKeyHmacSecrets()).thenReturn(Map.of("b", "new-secret"));
+        when(mockConfig.getApiKeyHmacKeyId()).thenReturn("b");
+        tokenService = new TokenService(mockConfig, mockAuthTokenDao, rejectedTokenCache, authFailureLogger, mockTokenIndex, mockLastUsedRecorder, mockAuthCache, staleIfError, cryptoExecutor);
+
+        CreateTokenRequest createTokenRequest = new CreateTokenRequest("42", "A token description", "a-user-id", CARD, API, TokenAccountType.LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
+        String apiKey = tokenService.createTokenForAccount(createTokenRequest);
+
+        assertThat(apiKey.length(), is("api_live_".length() + ApiKeyFormat.VERSION_3_LENGTH));
+        assertThat(apiKey.substring("api_live_".length(), "api_live_".length() + 2), is("3b"));
+        int tokenEnd = apiKey.length() - ApiKeyFormat.CHECKSUM_LENGTH - ApiKeyFormat.HMAC_SHA1_LENGTH;
+        String token = apiKey.substring(0, tokenEnd);
+        String hmac = BaseEncoding.base32Hex().omitPadding().lowerCase().encode(new HmacUtils(HmacAlgorithms.HMAC_SHA_1, "new-secret").hmac(token));
+        assertThat(apiKey.substring(tokenEnd, tokenEnd + ApiKeyFormat.HMAC_SHA1_LENGTH), is(hmac));
+        assertThat(tokenService.extractEncryptedTokenFrom(apiKey).get().getName(), is(BCrypt.hashpw(token, EXPECTED_SALT)));
+    }
+
+    @Test
+    void shouldAcceptKeysSignedWithDefaultSecret_afterSecretRotated() {
+        String legacyToken = "thisismvplaintoken";
+        String legacyHmac = BaseEncoding.base32Hex().omitPadding().lowerCase().encode(new HmacUtils(HmacAlgorithms.HMAC_SHA_1, EXPECTED_SECRET_KEY).hmac(legacyToken));
+        CreateTokenRequest createTokenRequest = new CreateTokenRequest("42", "A token description", "a-user-id", CARD, API, TokenAccountType.LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
+        String apiKeyBeforeRotation = tokenService.createTokenForAccount(createTokenRequest);
+
+        when(mockConfig.getApiKeyHmacSecrets()).thenReturn(Map.of("b", "new-secret"));
+        when(mockConfig.getApiKeyHmacKeyId()).thenReturn("b");
+        tokenService = new TokenService(mockConfig, mockAuthTokenDao, rejectedTokenCache, authFailureLogger, mockTokenIndex, mockLastUsedRecorder, mockAuthCache, staleIfError, cryptoExecutor);
+
+        assertThat(tokenService.extractEncryptedTokenFrom(apiKeyBeforeRotation).isPresent(), is(true));
+        assertThat(tokenService.extractEncryptedTokenFrom(legacyToken + legacyHmac).isPresent(), is(true));
+    }
+
+    @Test
+    void extractEncryptedTokenFromApiKey_shouldNotBePresent_whenKeyIdHasNoSecret() {
+        when(mockConfig.getApiKeyHmacSecrets()).thenReturn(Map.of("b", "new-secret"));
+        when(mockConfig.getApiKeyHmacKeyId()).thenReturn("b");
+        tokenService = new TokenService(mockConfig, mockAuthTokenDao, rejectedTokenCache, authFailureLogger, mockTokenIndex, mockLastUsedRecorder, mockAuthCache, staleIfError, cryptoExecutor);
+        CreateTokenRequest createTokenRequest = new CreateTokenRequest("42", "A token description", "a-user-id", CARD, API, TokenAccountType.LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
+        String apiKey = tokenService.createTokenForAccount(createTokenRequest);
+
+        when(mockConfig.getApiKeyHmacSecrets()).thenReturn(Map.of("c", "newer-secret"));
+        when(mockConfig.getApiKeyHmacKeyId()).thenReturn("c");
+        tokenService = new TokenService(mockConfig, mockAuthTokenDao, rejectedTokenCache, authFailureLogger, mockTokenIndex, mockLastUsedRecorder, mockAuthCache, staleIfError, cryptoExecutor);
+
+        assertThat(tokenService.extractEncryptedTokenFrom(apiKey).isPresent(), is(false));
+        assertThat(metricRegistry.counter("tokens.rejected.hmac").getCount(), is(1L));
+    }
+
+    @Test
+    void shouldNotStart_whenKeyIdHasNoSecret() {
+        when(mockConfig.getApiKeyHmacKeyId()).thenReturn("b");
+
+        assertThrows(IllegalArgumentException.class, () -> new TokenService(mockConfig, mockAuthTokenDao, rejectedTokenCache, authFailureLogger,
+                mockTokenIndex, mockLastUsedRecorder, mockAuthCache, staleIfError, cryptoExecutor));
+    }
+
     @Test
     void shouldCreateDifferentTokensWhenCalledTwice() {
         CreateTokenRequest createTokenRequest = new CreateTokenRequest("42", "A token description", "a-user-id", CARD, API, TokenAccountType.LIVE, ServiceMode.LIVE, SERVICE_EXTERNAL_ID);
@@ -165,6 +523,7 @@ class TokenServiceTest {
 
         Optional<Token> tokenOptional = tokenService.extractEncryptedTokenFrom("a");
         assertThat(tokenOptional.isPresent(), is(false));
+        assertThat(metricRegistry.counter("tokens.rejected.malformed").getCount(), is(1L));
     }
 
     @Test
@@ -180,6 +539,7 @@ class TokenServiceTest {
 
         Optional<Token> expectedInvalidTokenOptional = tokenService.extractEncryptedTokenFrom(tokenInvalid + hmac);
         assertThat(expectedInvalidTokenOptional.isPresent(), is(false));
+        assertThat(metricRegistry.counter("tokens.rejected.hmac").getCount(), is(1L));
     }
 
     @Test
@@ -216,4 +576,15 @@ class TokenServiceTest {
         Optional<Token> expectedValidTokenOptional = tokenService.extractEncryptedTokenFrom(tokenUppercaseBase32Hex + hmac);
         assertThat(expectedValidTokenOptional.isPresent(), is(true));
     }
+
+    private void enableStaleIfError() {
+        StaleIfErrorConfiguration staleIfErrorConfig = mock(StaleIfErrorConfiguration.class);
+        when(staleIfErrorConfig.isEnabled()).thenReturn(true);
+        when(staleIfErrorConfig.getMaxStaleness()).thenReturn(Duration.minutes(5));
+        when(staleIfErrorConfig.getFailureThreshold()).thenReturn(5);
+        when(staleIfErrorConfig.getOpenDuration()).thenReturn(Duration.seconds(10));
+        staleIfError = new StaleIfError(staleIfErrorConfig, new DatabaseCircuitBreaker(staleIfErrorConfig, metricRegistry),
+                mockTokenIndex, mockAuthCache, metricRegistry);
+        tokenService = new TokenService(mockConfig, mockAuthTokenDao, rejectedTokenCache, authFailureLogger, mockTokenIndex, mockLastUsedRecorder, mockAuthCache, staleIfError, cryptoExecutor);
+    }
 }
@@ -0,0 +1,128 @@
+package uk.gov.pay.publicauth.service;
+
+import org.junit.jupiter.api.Test;
+import uk.gov.pay.publicauth.model.AuthResponse;
+import uk.gov.pay.publicauth.model.TokenHash;
+import uk.gov.pay.publicauth.model.TokenLink;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static uk.gov.pay.publicauth.fixture.TokenEntityFixture.aTokenEntity;
+import static uk.gov.pay.publicauth.model.ServiceMode.LIVE;
+import static uk.gov.pay.publicauth.model.TokenPaymentType.DIRECT_DEBIT;
+
+abstract class TokenTableTest {
+
+    private static final TokenHash TOKEN_HASH = TokenHash.of("$2a$10$IhaXo6LIBhKIWOiGpbtPOuYQ5Qe8hd6yPNlw1t/Yc9ESKbyb0WFiy");
+
+    private final TokenTable table = newTable();
+
+    abstract TokenTable newTable();
+
+    @Test
+    void shouldFindEveryColumnOfAStoredToken() {
+        TokenLink tokenLink = TokenLink.of(UUID.randomUUID().toString());
+        table.put(TOKEN_HASH, aTokenEntity()
+                .withAccountId("42")
+                .withTokenLink(tokenLink)
+                .withTokenPaymentType(DIRECT_DEBIT)
+                .withServiceMode(LIVE)
+                .withServiceExternalId("cd1b871207a94a7fa157dee678146acd")
+                .build());
+
+        AuthResponse authResponse = table.find(TOKEN_HASH).get();
+
+        assertThat(authResponse.getAccountId(), is("42"));
+        assertThat(authResponse.getTokenLink(), is(tokenLink));
+        assertThat(authResponse.getTokenPaymentType(), is(DIRECT_DEBIT));
+        assertThat(authResponse.getServiceMode(), is(LIVE));
+        assertThat(authResponse.getServiceExternalId(), is("cd1b871207a94a7fa157dee678146acd"));
+    }
+
+    @Test
+    void shouldKeepTokenLinksThatAreNotUuidsAndMissingServiceColumns() {
+        table.put(TOKEN_HASH, aTokenEntity().withTokenLink(TokenLink.of("a-token-link")).build());
+
+        AuthResponse authResponse = table.find(TOKEN_HASH).get();
+
+        assertThat(authResponse.getTokenLink(), is(TokenLink.of("a-token-link")));
+        assertThat(authResponse.getServiceMode(), is(nullValue()));
+        assertThat(authResponse.getServiceExternalId(), is(nullValue()));
+    }
+
+    @Test
+    void shouldReplaceAnExistingToken() {
+        table.put(TOKEN_HASH, aTokenEntity().withAccountId("1").build());
+        table.put(TOKEN_HASH, aTokenEntity().withAccountId("2").build());
+
+        assertThat(table.find(TOKEN_HASH).get().getAccountId(), is("2"));
+        assertThat(table.size(), is(1));
+    }
+
+    @Test
+    void shouldFindRemainingTokensAfterGrowingAndRemovingTokens() {
+        int tokens = 10_000;
+        IntStream.range(0, tokens).forEach(i ->
+                table.put(TokenHash.of("token-hash-" + i), aTokenEntity().withAccountId(String.valueOf(i)).build()));
+        IntStream.range(0, tokens).filter(i -> i % 3 == 0).forEach(i -> table.remove(TokenHash.of("token-hash-" + i)));
+
+        for (int i = 0; i < tokens; i++) {
+            boolean removed = i % 3 == 0;
+            assertThat(table.find(TokenHash.of("token-hash-" + i)).map(AuthResponse::getAccountId).orElse(null),
+                    is(removed ? null : String.valueOf(i)));
+        }
+        assertThat(table.size(), is(tokens - (tokens + 2) / 3));
+    }
+
+    @Test
+    void shouldAlwaysFindUnchangedTokensWhileAnotherTokenIsWrittenAndRemoved() throws Exception {
+        int stableTokens = 100;
+        IntStream.range(0, stableTokens).forEach(i ->
+                table.put(TokenHash.of("stable-token-hash-" + i), aTokenEntity().withAccountId(String.valueOf(i)).build()));
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> misreads = readers.submit(() -> {
+                int count = 0;
+                while (writing.get()) {
+                    for (int i = 0; i < stableTokens; i++) {
+                        String accountId = table.find(TokenHash.of("stable-token-hash-" + i))
+                                .map(AuthResponse::getAccountId).orElse(null);
+                        if (!String.valueOf(i).equals(accountId)) {
+                            count++;
+                        }
+                    }
+                }
+                return count;
+            });
+
+            // Enough churn to force several resizes and backward shifts past the stable tokens
+            for (int i = 0; i < 20_000; i++) {
+                table.put(TokenHash.of("churned-token-hash-" + i), aTokenEntity().withAccountId("churned").build());
+                if (i % 2 == 0) {
+                    table.remove(TokenHash.of("churned-token-hash-" + i));
+                }
+            }
+            writing.set(false);
+
+            assertThat(misreads.get(), is(0));
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldNotFindATokenThatWasNeverStored() {
+        table.put(TOKEN_HASH, aTokenEntity().build());
+
+        assertThat(table.find(TokenHash.of("another-token-hash")).isPresent(), is(false));
+    }
+}
@@ -63,6 +63,15 @@ public class DatabaseTestHelper {
         return getDateTimeColumn("issued", accountId);
     }
 
+    public ZonedDateTime lastUsedTimestampForAccount(String accountId) {
+        return jdbi.withHandle(handle ->
+                        handle.createQuery("SELECT u.last_used FROM tokens t JOIN token_usage u ON u.token_id = t.token_id WHERE t.account_id=:accountId")
+                                .bind("accountId", accountId)
+                                .mapTo(LocalDateTime.class)
+                                .first())
+                .atZone(ZoneId.of("UTC"));
+    }
+
     public java.util.Optional<String> lookupColumnForTokenTable(String column, String idKey, String idValue) {
         return jdbi.withHandle(handle ->
                 handle.createQuery("SELECT " + column + " FROM tokens WHERE " + idKey + "=:placeholder")
@@ -73,7 +82,7 @@ public class DatabaseTestHelper {
 
     public Map<String, Object> getTokenByHash(TokenHash tokenHash) {
         return jdbi.withHandle(h ->
-                h.createQuery("SELECT token_id, type, token_type, token_hash, account_id, issued, revoked, token_link, description, created_by, service_mode, service_external_id " +
+                h.createQuery("SELECT token_id, type, token_type, token_hash, token_hash_digest, account_id, issued, revoked, token_link, token_link_uuid, description, created_by, service_mode, service_external_id " +
                                 "FROM tokens t " +
                                 "WHERE token_hash = :token_hash")
                         .bind("token_hash", tokenHash.getValue())
@@ -100,6 +109,6 @@ public class DatabaseTestHelper {
     }
 
     public void truncateDatabase() {
-        jdbi.withHandle(handle -> handle.execute("TRUNCATE tokens"));
+        jdbi.withHandle(handle -> handle.execute("TRUNCATE tokens, token_usage, tokens_revoked_archive"));
     }
 }